@@ -3,12 +3,11 @@ package org.matsim.prepare.facilities;
 import com.fasterxml.jackson.annotation.JsonAnyGetter;
 import com.fasterxml.jackson.annotation.JsonAnySetter;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
-import it.unimi.dsi.fastutil.objects.Object2DoubleOpenHashMap;
 import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.geotools.api.feature.simple.SimpleFeature;
+import org.geotools.api.feature.simple.SimpleFeatureType;
 import org.locationtech.jts.geom.Envelope;
 import org.locationtech.jts.geom.MultiPolygon;
 import org.locationtech.jts.geom.TopologyException;
@@ -24,6 +23,8 @@ import org.matsim.core.network.algorithms.TransportModeNetworkFilter;
 import org.matsim.core.utils.geometry.CoordUtils;
 import org.matsim.core.utils.geometry.geotools.MGC;
 import org.matsim.facilities.*;
+import org.matsim.prepare.ml.BatchRegressor;
+import org.matsim.prepare.ml.TreeEnsemblePredictor;
 import org.matsim.prepare.population.Attributes;
 import org.matsim.run.OpenBerlinScenario;
 import picocli.CommandLine;
@@ -34,6 +35,7 @@ import java.nio.file.Path;
 import java.util.*;
 import java.util.function.Function;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 @CommandLine.Command(
 	name = "facilities",
@@ -115,8 +117,11 @@ public class CreateMATSimFacilities implements MATSimAppCommand {
 
 		List<SimpleFeature> fts = shp.readFeatures();
 
-		List<Holder> data = fts.parallelStream()
-			.map(ft -> processFeature(ft, carOnlyNetwork))
+		double[] attractionWork = predict(fts, TreeEnsemblePredictor.load(FacilityAttractionModelWork.class, FacilityAttractionModelWork.DEFAULT_PARAMS));
+		double[] attractionOther = predict(fts, TreeEnsemblePredictor.load(FacilityAttractionModelOther.class, FacilityAttractionModelOther.DEFAULT_PARAMS));
+
+		List<Holder> data = IntStream.range(0, fts.size()).parallel()
+			.mapToObj(i -> processFeature(fts.get(i), carOnlyNetwork, attractionWork[i], attractionOther[i]))
 			.filter(Objects::nonNull)
 			.toList();
 
@@ -186,10 +191,34 @@ public class CreateMATSimFacilities implements MATSimAppCommand {
 		return 0;
 	}
 
+	/**
+	 * Predict the attraction of all features in one batch. Numeric attributes are used as features, missing ones are 0.
+	 */
+	private static double[] predict(List<SimpleFeature> fts, BatchRegressor model) {
+
+		if (fts.isEmpty())
+			return new double[0];
+
+		List<String> names = model.getFeatureNames();
+		SimpleFeatureType type = fts.get(0).getFeatureType();
+
+		int n = fts.size();
+		double[] matrix = new double[n * names.size()];
+
+		for (int j = 0; j < names.size(); j++) {
+			int attr = type.indexOf(names.get(j));
+			for (int i = 0; i < n; i++) {
+				matrix[j * n + i] = attr >= 0 && fts.get(i).getAttribute(attr) instanceof Number number ? number.doubleValue() : 0;
+			}
+		}
+
+		return model.predict(matrix, n);
+	}
+
 	/**
 	 * Sample points and choose link with the nearest points.
 	 */
-	private Holder processFeature(SimpleFeature ft, Network network) {
+	private Holder processFeature(SimpleFeature ft, Network network, double attractionWork, double attractionOther) {
 
 		Set<String> activities = activities(ft);
 		if (activities.isEmpty())
@@ -207,23 +236,13 @@ public class CreateMATSimFacilities implements MATSimAppCommand {
 		if (map.isEmpty())
 			return null;
 
-		Object2DoubleMap<String> features = new Object2DoubleOpenHashMap<>();
-		for (int i = 0; i < ft.getAttributeCount(); i++) {
-			if (ft.getAttribute(i) instanceof Number number) {
-				features.put(ft.getFeatureType().getDescriptor(i).getLocalName(), number.doubleValue());
-			}
-		}
-
 		List<Map.Entry<Id<Link>, Long>> counts = map.entrySet().stream().sorted(Map.Entry.comparingByValue())
 			.toList();
 
 		// The "main" link of the facility
 		Id<Link> link = counts.get(counts.size() - 1).getKey();
 
-		Holder holder = new Holder(link, activities, new ArrayList<>(),
-			FacilityAttractionModelWork.INSTANCE.predict(features, null),
-			FacilityAttractionModelOther.INSTANCE.predict(features, null)
-		);
+		Holder holder = new Holder(link, activities, new ArrayList<>(), attractionWork, attractionOther);
 
 		// Search for the original drawn coordinate of the associated link
 		for (int i = 0; i < links.size(); i++) {
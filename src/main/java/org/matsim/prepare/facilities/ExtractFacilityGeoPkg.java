@@ -8,14 +8,20 @@ import com.slimjars.dist.gnu.trove.iterator.TLongObjectIterator;
 import de.topobyte.osm4j.core.dataset.InMemoryMapDataSet;
 import de.topobyte.osm4j.core.dataset.MapDataSetLoader;
 import de.topobyte.osm4j.core.model.iface.*;
+import de.topobyte.osm4j.core.model.impl.Node;
 import de.topobyte.osm4j.core.resolve.EntityNotFoundException;
+import de.topobyte.osm4j.core.resolve.OsmEntityProvider;
 import de.topobyte.osm4j.geometry.GeometryBuilder;
 import de.topobyte.osm4j.pbf.seq.PbfIterator;
 import it.unimi.dsi.fastutil.longs.Long2ObjectLinkedOpenHashMap;
 import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
 import it.unimi.dsi.fastutil.objects.Object2IntLinkedOpenHashMap;
 import it.unimi.dsi.fastutil.objects.Object2IntMap;
 import it.unimi.dsi.fastutil.objects.ObjectCollection;
+import it.unimi.dsi.fastutil.objects.ReferenceOpenHashSet;
 import me.tongfei.progressbar.ProgressBar;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVPrinter;
@@ -26,6 +32,7 @@ import org.geotools.api.data.DataStoreFinder;
 import org.geotools.api.data.SimpleFeatureStore;
 import org.geotools.api.data.Transaction;
 import org.geotools.api.feature.simple.SimpleFeature;
+import org.geotools.api.referencing.FactoryException;
 import org.geotools.api.referencing.crs.CRSAuthorityFactory;
 import org.geotools.api.referencing.operation.MathTransform;
 import org.geotools.api.referencing.operation.TransformException;
@@ -44,11 +51,15 @@ import org.matsim.core.utils.io.IOUtils;
 import org.matsim.run.OpenBerlinScenario;
 import picocli.CommandLine;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 @CommandLine.Command(
 	name = "facility-shp",
@@ -84,6 +95,18 @@ public class ExtractFacilityGeoPkg implements MATSimAppCommand {
 	private Path mappingPath;
 	@CommandLine.Option(names = "--exclude", description = "Exclude these activities types from the output", split = ",", defaultValue = "")
 	private Set<String> exclude;
+	@CommandLine.Option(names = "--raster", description = "Compute radius features from rasterized layers with this cell size in meters, instead of exact intersections. 0 to disable. " +
+		"POIs are counted at the centroid of their entity, so large entities near the radius are undercounted compared to exact intersections.", defaultValue = "0")
+	private double rasterCellSize;
+	@CommandLine.Option(names = "--raster-validation", description = "Write a comparison of raster and exact radius features for a sample of facilities to this csv file")
+	private Path rasterValidation;
+	@CommandLine.Option(names = "--streaming", description = "Read the input in two passes without loading it into memory and process the features in spatial tiles. " +
+		"Node coordinates are kept in an off-heap store and features in a temporary file, so that peak memory is bounded by the tile size. Requires a pbf file sorted by id.")
+	private boolean streaming;
+	@CommandLine.Option(names = "--tile-size", description = "Size of the tiles in meters in streaming mode. Each tile is loaded with a margin of the largest radius feature.", defaultValue = "20000")
+	private double tileSize;
+	@CommandLine.Option(names = "--node-store", description = "Scratch file for the off-heap node store in streaming mode, will be overwritten. Defaults to a temporary file, which is deleted afterward.")
+	private Path nodeStore;
 
 	@CommandLine.Mixin
 	private CrsOptions crs = new CrsOptions("EPSG:4326", OpenBerlinScenario.CRS);
@@ -96,8 +119,23 @@ public class ExtractFacilityGeoPkg implements MATSimAppCommand {
 	private Long2ObjectMap<Feature> pois;
 	private Long2ObjectMap<Feature> landuse;
 	private Long2ObjectMap<Feature> entities;
+	/**
+	 * Features of all tiles in streaming mode, null otherwise.
+	 */
+	private FeatureSpill spill;
+	/**
+	 * Extent of each tile and the features it owns, in streaming mode.
+	 */
+	private Long2ObjectMap<Envelope> tiles;
+	/**
+	 * All bus and train stops, which are kept in memory in streaming mode.
+	 */
+	private Long2ObjectMap<Feature> stops;
 	private MathTransform transform;
-	private InMemoryMapDataSet data;
+	/**
+	 * Provides nodes and ways to build geometries, only available while reading.
+	 */
+	private OsmEntityProvider data;
 	private int ignored;
 
 	public static void main(String[] args) {
@@ -107,8 +145,6 @@ public class ExtractFacilityGeoPkg implements MATSimAppCommand {
 	@Override
 	public Integer call() throws Exception {
 
-		PbfIterator reader = new PbfIterator(Files.newInputStream(pbf), true);
-
 		config = new ObjectMapper().readerFor(ActivityMapping.class).readValue(mappingPath.toFile());
 
 		CRSAuthorityFactory cFactory = CRS.getAuthorityFactory(true);
@@ -144,37 +180,61 @@ public class ExtractFacilityGeoPkg implements MATSimAppCommand {
 		entities = new Long2ObjectLinkedOpenHashMap<>();
 		landuse = new Long2ObjectLinkedOpenHashMap<>();
 
-		data = MapDataSetLoader.read(reader, true, true, true);
+		if (streaming) {
 
-		log.info("Finished loading pbf file.");
+			if (rasterValidation != null)
+				log.warn("Raster validation is not available in streaming mode and will be skipped.");
 
-		TLongObjectIterator<OsmNode> it = data.getNodes().iterator();
-		while (it.hasNext()) {
-			it.advance();
-			process(it.value());
-		}
+			stops = new Long2ObjectOpenHashMap<>();
+			tiles = new Long2ObjectLinkedOpenHashMap<>();
 
-		log.info("Collected {} POIs", pois.size());
+			try (FeatureSpill s = new FeatureSpill(types); FacilityWriter writer = new FacilityWriter()) {
+				spill = s;
+				readStreaming();
+				spill.finish();
 
-		TLongObjectIterator<OsmWay> it2 = data.getWays().iterator();
-		while (it2.hasNext()) {
-			it2.advance();
-			process(it2.value());
-		}
+				// OSM data is not needed anymore
+				data = null;
 
-		TLongObjectIterator<OsmRelation> it3 = data.getRelations().iterator();
-		while (it3.hasNext()) {
-			it3.advance();
-			process(it3.value());
+				log.info("Collected {} features", spill.size());
+
+				if (ignored > 0)
+					log.warn("Ignored {} invalid geometries", ignored);
+
+				processTiles(writer);
+			}
+
+			return 0;
 		}
 
+		readInMemory();
+
+		// OSM data is not needed anymore
+		data = null;
+
 		log.info("Collected {} landuse shapes", landuse.size());
 		log.info("Collected {} other entities", entities.size());
 
 		if (ignored > 0)
 			log.warn("Ignored {} invalid geometries", ignored);
 
-		FacilityFeatureExtractor ft = new FacilityFeatureExtractor(crs.getTargetCRS(), types, entities, pois, landuse);
+		try (FacilityWriter writer = new FacilityWriter()) {
+			FacilityFeatureExtractor ft = assignFeatures(pois, f -> true);
+			writer.write(ft, f -> true);
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Assign features to each other and compute the radius features, if they are rasterized.
+	 *
+	 * @param stopPois POIs used for the stop distances
+	 * @param emit     features that will be written, others are only needed for their neighbours
+	 */
+	private FacilityFeatureExtractor assignFeatures(Long2ObjectMap<Feature> stopPois, Predicate<Feature> emit) throws FactoryException {
+
+		FacilityFeatureExtractor ft = new FacilityFeatureExtractor(crs.getTargetCRS(), types, entities, stopPois, landuse);
 
 		preprocessLanduse(landuse.values(), ft.entities, 0.2);
 
@@ -189,38 +249,61 @@ public class ExtractFacilityGeoPkg implements MATSimAppCommand {
 
 		log.info("Remaining POI after assignment: {}", pois.size());
 
-		DataStore ds = DataStoreFinder.getDataStore(Map.of(
-			GeoPkgDataStoreFactory.DBTYPE.key, "geopkg",
-			GeoPkgDataStoreFactory.DATABASE.key, output.toFile().toString(),
-			JDBCDataStoreFactory.BATCH_INSERT_SIZE.key, 100,
-			GeoPkgDataStoreFactory.READ_ONLY.key, false
-		));
+		if (rasterCellSize > 0) {
+			LanduseRaster raster = new LanduseRaster(ft, rasterCellSize);
+
+			List<Feature> facilities = Stream.of(entities, landuse, pois)
+				.flatMap(m -> m.values().stream())
+				.filter(Feature::hasTypes)
+				.filter(emit)
+				.toList();
+
+			raster.compute(facilities);
+
+			if (rasterValidation != null && spill == null)
+				raster.validate(facilities, Math.max(1, facilities.size() / 1000), rasterValidation);
+		}
 
-		ds.createSchema(ft.featureType);
+		return ft;
+	}
 
-		SimpleFeatureStore source = (SimpleFeatureStore) ds.getFeatureSource(ft.featureType.getTypeName());
-		ListFeatureCollection collection = new ListFeatureCollection(ft.featureType);
+	/**
+	 * Load the features of each tile together with their surroundings, process them and write the features owned by the tile.
+	 * A feature is owned by the tile containing its centroid. The loaded region covers the tile, all owned features
+	 * and a margin of the largest radius, so that the intersections of the owned features and their radius features are complete.
+	 * Neighbours at the border of the loaded region may miss some of their own assignments, which can affect the features
+	 * of the tile only slightly.
+	 */
+	private void processTiles(FacilityWriter writer) throws IOException, FactoryException {
 
-		addFeatures(entities, ft, collection);
-		addFeatures(landuse, ft, collection);
-		addFeatures(pois, ft, collection);
+		double margin = Arrays.stream(LanduseRaster.Aggregate.values()).mapToDouble(a -> a.radius).max().orElseThrow() + rasterCellSize;
 
-		Transaction transaction = new DefaultTransaction("create");
-		source.setTransaction(transaction);
+		log.info("Processing features in {} tiles of {}m", tiles.size(), tileSize);
 
-		source.addFeatures(collection);
-		transaction.commit();
+		int i = 0;
+		for (Long2ObjectMap.Entry<Envelope> e : tiles.long2ObjectEntrySet()) {
 
-		log.info("Wrote {} features", collection.size());
+			long key = e.getLongKey();
+			Envelope region = new Envelope(e.getValue());
+			region.expandBy(margin);
 
-		transaction.close();
+			pois = new Long2ObjectLinkedOpenHashMap<>();
+			entities = new Long2ObjectLinkedOpenHashMap<>();
+			landuse = new Long2ObjectLinkedOpenHashMap<>();
 
-		ds.dispose();
+			Set<Feature> owned = new ReferenceOpenHashSet<>();
+			spill.read(region, geometryBuilder.getGeometryFactory(), (f, owner) -> {
+				featuresOf(f).put(f.entity.getId(), f);
+				if (owner == key)
+					owned.add(f);
+			});
 
-		writeMapping(output.toString().replace(".gpkg", "_mapping.csv.gz"),
-			entities.values(), landuse.values(), pois.values());
+			log.info("Tile {}/{}: {} features, {} loaded with surroundings", ++i, tiles.size(), owned.size(),
+				pois.size() + entities.size() + landuse.size());
 
-		return 0;
+			FacilityFeatureExtractor ft = assignFeatures(stops, owned::contains);
+			writer.write(ft, owned::contains);
+		}
 	}
 
 	/**
@@ -311,13 +394,14 @@ public class ExtractFacilityGeoPkg implements MATSimAppCommand {
 		}
 	}
 
-	private void addFeatures(Long2ObjectMap<Feature> fts, FacilityFeatureExtractor exc,
+	private void addFeatures(Long2ObjectMap<Feature> fts, FacilityFeatureExtractor exc, Predicate<Feature> filter,
 							 ListFeatureCollection collection) {
 
 		try (ProgressBar pb = new ProgressBar("Creating features", fts.size())) {
 
 			List<SimpleFeature> features = fts.values().parallelStream()
 				.filter(Feature::hasTypes)
+				.filter(filter)
 				.map(f -> {
 					pb.step();
 					return exc.createFeature(f);
@@ -333,79 +417,203 @@ public class ExtractFacilityGeoPkg implements MATSimAppCommand {
 	 * Writes how osm ids are mapped to other ids.
 	 */
 	@SafeVarargs
-	private void writeMapping(String path, Iterable<Feature>... features) {
+	private static void writeMapping(CSVPrinter csv, Predicate<Feature> filter, Iterable<Feature>... features) throws IOException {
+		for (Feature feature : Iterables.concat(features)) {
 
-		try (CSVPrinter csv = new CSVPrinter(IOUtils.getBufferedWriter(path), CSVFormat.DEFAULT)) {
-
-			// osm ids are only unique within their type
-			csv.printRecord("osm_id", "type", "member_id", "member_type");
-			for (Feature feature : Iterables.concat(features)) {
-
-				if (!feature.hasTypes())
-					continue;
+			if (!feature.hasTypes() || !filter.test(feature))
+				continue;
 
-				csv.printRecord(feature.entity.getId(), feature.osmType, feature.entity.getId(), feature.osmType);
-				if (feature.members != null) {
-					for (Feature member : feature.members) {
-						csv.printRecord(member.entity.getId(), member.osmType, feature.entity.getId(), feature.osmType);
-					}
+			csv.printRecord(feature.entity.getId(), feature.osmType, feature.entity.getId(), feature.osmType);
+			if (feature.members != null) {
+				for (Feature member : feature.members) {
+					csv.printRecord(member.entity.getId(), member.osmType, feature.entity.getId(), feature.osmType);
 				}
 			}
+		}
+	}
+
+	/**
+	 * Map of features of the same kind.
+	 */
+	private Long2ObjectMap<Feature> featuresOf(Feature ft) {
+		if (ft.osmType == Feature.OsmType.node)
+			return pois;
+
+		return ft.isLanduse ? landuse : entities;
+	}
+
+	/**
+	 * Store an extracted feature, either in memory or in the spill file, from where it is loaded again per tile.
+	 */
+	private void collect(Feature ft) {
+
+		if (spill == null) {
+			featuresOf(ft).put(ft.entity.getId(), ft);
+			return;
+		}
+
+		// Stops are needed for the distances of all tiles
+		if (ft.osmType == Feature.OsmType.node && (ft.isBusStop || ft.isTrainStop))
+			stops.put(ft.entity.getId(), ft);
+
+		Point c = ft.geometry.getCentroid();
+		long key = ((long) Math.floor(c.getX() / tileSize) << 32) | ((long) Math.floor(c.getY() / tileSize) & 0xFFFFFFFFL);
 
+		Envelope extent = tiles.computeIfAbsent(key, k -> {
+			double x = (k >> 32) * tileSize;
+			double y = (int) k * tileSize;
+			return new Envelope(x, x + tileSize, y, y + tileSize);
+		});
+
+		// Loaded region of the tile needs to cover all features it owns
+		extent.expandToInclude(ft.geometry.getEnvelopeInternal());
+
+		try {
+			spill.write(ft, key);
 		} catch (IOException e) {
 			throw new UncheckedIOException(e);
 		}
 	}
 
 	/**
-	 * Stores entities and geometries as necessary.
+	 * Load the whole pbf file into memory and process all entities.
 	 */
-	private void process(OsmEntity entity) {
-		boolean filtered = true;
-		boolean isBuilding = false;
-		boolean isUnspecific = false;
-		boolean isBusStop = false;
-		boolean isTrainStation = false;
+	private void readInMemory() throws IOException {
 
+		PbfIterator reader = new PbfIterator(Files.newInputStream(pbf), true);
+		InMemoryMapDataSet dataSet = MapDataSetLoader.read(reader, true, true, true);
+		data = dataSet;
+
+		log.info("Finished loading pbf file.");
+
+		TLongObjectIterator<OsmNode> it = dataSet.getNodes().iterator();
+		while (it.hasNext()) {
+			it.advance();
+			process(it.value());
+		}
+
+		log.info("Collected {} POIs", pois.size());
+
+		TLongObjectIterator<OsmWay> it2 = dataSet.getWays().iterator();
+		while (it2.hasNext()) {
+			it2.advance();
+			process(it2.value());
+		}
+
+		TLongObjectIterator<OsmRelation> it3 = dataSet.getRelations().iterator();
+		while (it3.hasNext()) {
+			it3.advance();
+			process(it3.value());
+		}
+	}
+
+	/**
+	 * Read the pbf file twice, without holding the OSM data in memory. Extracted features are written to the spill file.
+	 * The first pass stores all node coordinates off-heap, extracts the POIs and collects the member ways of relevant relations.
+	 * The second pass builds the geometries of ways and relations, only the member ways are kept in memory.
+	 */
+	private void readStreaming() throws IOException {
+
+		LongSet members = new LongOpenHashSet();
+
+		try (NodeCoordinateStore store = nodeStore != null ? new NodeCoordinateStore(nodeStore) : NodeCoordinateStore.createTemp()) {
+
+			try (InputStream in = Files.newInputStream(pbf)) {
+				PbfIterator reader = new PbfIterator(in, false);
+				while (reader.hasNext()) {
+					EntityContainer container = reader.next();
+					if (container.getType() == EntityType.Node) {
+						OsmNode node = (OsmNode) container.getEntity();
+						store.add(node.getId(), node.getLongitude(), node.getLatitude());
+						process(node);
+					} else if (container.getType() == EntityType.Relation) {
+						OsmRelation relation = (OsmRelation) container.getEntity();
+						if (classify(relation) == null)
+							continue;
+
+						for (int i = 0; i < relation.getNumberOfMembers(); i++) {
+							OsmRelationMember member = relation.getMember(i);
+							if (member.getType() == EntityType.Way)
+								members.add(member.getId());
+						}
+					}
+				}
+			}
+
+			store.finish();
+
+			log.info("Stored {} nodes, collected {} POIs", store.size(), spill.size());
+
+			NodeStoreEntityProvider provider = new NodeStoreEntityProvider(store);
+			data = provider;
+
+			try (InputStream in = Files.newInputStream(pbf)) {
+				PbfIterator reader = new PbfIterator(in, false);
+				while (reader.hasNext()) {
+					EntityContainer container = reader.next();
+					if (container.getType() == EntityType.Way) {
+						OsmWay way = (OsmWay) container.getEntity();
+						if (members.contains(way.getId()))
+							provider.ways.put(way.getId(), way);
+
+						process(way);
+					} else if (container.getType() == EntityType.Relation) {
+						process((OsmRelation) container.getEntity());
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Determine whether an entity is relevant and of which kind it is.
+	 *
+	 * @return null if the entity should be filtered
+	 */
+	private Kind classify(OsmEntity entity) {
 		int n = entity.getNumberOfTags();
 		for (int i = 0; i < n; i++) {
 			OsmTag tag = entity.getTag(i);
 
 			// Buildings are always kept
 			if (tag.getKey().equals("building")) {
-				filtered = false;
-				isBuilding = true;
-				if (tag.getValue().equals("yes")) {
-					isUnspecific = true;
-				}
-				break;
+				return new Kind(true, tag.getValue().equals("yes"), false, false);
 			}
 
 			if (tag.getKey().equals("highway") && tag.getValue().equals("bus_stop")) {
-				isBusStop = true;
-				filtered = false;
-				break;
+				return new Kind(false, false, true, false);
 			}
 
 			if ((tag.getKey().equals("railway") && tag.getValue().equals("stop")) ||
 				(tag.getKey().equals("railway") && tag.getValue().equals("tram_stop"))) {
-				isTrainStation = true;
-				filtered = false;
-				break;
+				return new Kind(false, false, false, true);
 			}
 
 			MappingConfig c = config.types.get(tag.getKey());
 			if (c != null) {
 				if (c.values.containsKey("*") || c.values.containsKey(tag.getValue())) {
-					filtered = false;
-					break;
+					return new Kind(false, false, false, false);
 				}
 			}
 		}
 
-		if (filtered)
+		return null;
+	}
+
+	/**
+	 * Stores entities and geometries as necessary.
+	 */
+	private void process(OsmEntity entity) {
+		Kind kind = classify(entity);
+		if (kind == null)
 			return;
 
+		boolean isBuilding = kind.isBuilding();
+		boolean isUnspecific = kind.isUnspecific();
+		boolean isBusStop = kind.isBusStop();
+		boolean isTrainStation = kind.isTrainStation();
+		int n = entity.getNumberOfTags();
+
 		if (entity instanceof OsmNode node) {
 
 			Point p = geometryBuilder.build(node);
@@ -420,7 +628,7 @@ public class ExtractFacilityGeoPkg implements MATSimAppCommand {
 
 			Feature ft = new Feature(entity, types, geometry, false, isUnspecific, false, isBusStop, isTrainStation);
 			parse(ft, entity);
-			pois.put(entity.getId(), ft);
+			collect(ft);
 		} else {
 			boolean landuse = false;
 			for (int i = 0; i < n; i++) {
@@ -450,13 +658,9 @@ public class ExtractFacilityGeoPkg implements MATSimAppCommand {
 
 			Feature ft = new Feature(entity, types, geometry, isBuilding, isUnspecific, landuse, isBusStop, isTrainStation);
 			parse(ft, entity);
-			if (landuse) {
-				this.landuse.put(ft.entity.getId(), ft);
-			} else {
-				// some non landuse shapes might be too large
-				if (ft.geometry.getArea() < MAX_AREA)
-					entities.put(ft.entity.getId(), ft);
-			}
+			// some non landuse shapes might be too large
+			if (landuse || ft.geometry.getArea() < MAX_AREA)
+				collect(ft);
 		}
 	}
 
@@ -511,6 +715,112 @@ public class ExtractFacilityGeoPkg implements MATSimAppCommand {
 		return null;
 	}
 
+	/**
+	 * Writes facilities into the GeoPkg and the id mapping, possibly in multiple parts.
+	 */
+	private final class FacilityWriter implements Closeable {
+
+		private final CSVPrinter mapping;
+		private DataStore ds;
+		private SimpleFeatureStore source;
+		private int written;
+
+		private FacilityWriter() throws IOException {
+			mapping = new CSVPrinter(IOUtils.getBufferedWriter(output.toString().replace(".gpkg", "_mapping.csv.gz")), CSVFormat.DEFAULT);
+
+			// osm ids are only unique within their type
+			mapping.printRecord("osm_id", "type", "member_id", "member_type");
+		}
+
+		/**
+		 * Write the current features matching the filter.
+		 */
+		void write(FacilityFeatureExtractor ft, Predicate<Feature> filter) throws IOException {
+
+			if (ds == null) {
+				ds = DataStoreFinder.getDataStore(Map.of(
+					GeoPkgDataStoreFactory.DBTYPE.key, "geopkg",
+					GeoPkgDataStoreFactory.DATABASE.key, output.toFile().toString(),
+					JDBCDataStoreFactory.BATCH_INSERT_SIZE.key, 100,
+					GeoPkgDataStoreFactory.READ_ONLY.key, false
+				));
+
+				ds.createSchema(ft.featureType);
+				source = (SimpleFeatureStore) ds.getFeatureSource(ft.featureType.getTypeName());
+			}
+
+			ListFeatureCollection collection = new ListFeatureCollection(ft.featureType);
+
+			addFeatures(entities, ft, filter, collection);
+			addFeatures(landuse, ft, filter, collection);
+			addFeatures(pois, ft, filter, collection);
+
+			Transaction transaction = new DefaultTransaction("create");
+			source.setTransaction(transaction);
+
+			source.addFeatures(collection);
+			transaction.commit();
+			transaction.close();
+
+			written += collection.size();
+
+			writeMapping(mapping, filter, entities.values(), landuse.values(), pois.values());
+		}
+
+		@Override
+		public void close() throws IOException {
+			mapping.close();
+
+			if (ds != null)
+				ds.dispose();
+
+			log.info("Wrote {} features", written);
+		}
+	}
+
+	/**
+	 * Kind of relevant entity.
+	 */
+	private record Kind(boolean isBuilding, boolean isUnspecific, boolean isBusStop, boolean isTrainStation) {
+	}
+
+	/**
+	 * Resolves nodes from the coordinate store and ways from the cached relation members.
+	 * Nested relations are not resolved.
+	 */
+	private static final class NodeStoreEntityProvider implements OsmEntityProvider {
+
+		private final NodeCoordinateStore nodes;
+		private final Long2ObjectMap<OsmWay> ways = new Long2ObjectOpenHashMap<>();
+
+		private NodeStoreEntityProvider(NodeCoordinateStore nodes) {
+			this.nodes = nodes;
+		}
+
+		@Override
+		public OsmNode getNode(long id) throws EntityNotFoundException {
+			long idx = nodes.find(id);
+			if (idx < 0)
+				throw new EntityNotFoundException("Node " + id + " not found.");
+
+			return new Node(id, nodes.lon(idx), nodes.lat(idx));
+		}
+
+		@Override
+		public OsmWay getWay(long id) throws EntityNotFoundException {
+			OsmWay way = ways.get(id);
+			if (way == null)
+				throw new EntityNotFoundException("Way " + id + " not found.");
+
+			return way;
+		}
+
+		@Override
+		public OsmRelation getRelation(long id) throws EntityNotFoundException {
+			throw new EntityNotFoundException("Relation " + id + " can not be resolved with the off-heap node store.");
+		}
+	}
+
 	private static final class ActivityMapping {
 		private final Map<String, MappingConfig> types = new HashMap<>();
 
@@ -11,12 +11,13 @@ import org.geotools.referencing.CRS;
 import org.locationtech.jts.geom.Geometry;
 import org.locationtech.jts.geom.MultiPolygon;
 import org.locationtech.jts.geom.TopologyException;
+import org.locationtech.jts.index.strtree.ItemDistance;
 import org.locationtech.jts.index.strtree.STRtree;
+import org.matsim.prepare.facilities.LanduseRaster.Aggregate;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.util.List;
-import java.util.OptionalDouble;
 import java.util.function.Predicate;
 
 /**
@@ -24,22 +25,46 @@ import java.util.function.Predicate;
  */
 final class FacilityFeatureExtractor {
 
+	/**
+	 * Distance up to which stops are considered, also used if there is no stop at all.
+	 */
+	private static final double MAX_STOP_DISTANCE = 20000;
+
+	/**
+	 * Distance between the geometries of two indexed features.
+	 */
+	private static final ItemDistance FEATURE_DISTANCE = (a, b) -> ((Feature) a.getItem()).geometry.distance(((Feature) b.getItem()).geometry);
+
 	final STRtree entities;
-	final STRtree pois;
 	final STRtree landuse;
 
+	/**
+	 * Nearest neighbour indices of POIs that are stops.
+	 */
+	private final STRtree busStops;
+	private final STRtree trainStops;
+
 	final SimpleFeatureType featureType;
 
 	final ThreadLocal<SimpleFeatureBuilder> featureBuilder;
 
 	private final Object2IntMap<String> types;
 
+	private final Long2ObjectMap<Feature> entityMap;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param pois POIs, which are only used to look up the nearest stops. May cover a larger region than the other features.
+	 */
 	FacilityFeatureExtractor(String crs, Object2IntMap<String> types,
 									Long2ObjectMap<Feature> entities, Long2ObjectMap<Feature> pois,
 									Long2ObjectMap<Feature> landuse) throws FactoryException {
 
+		this.entityMap = entities;
 		this.entities = createIndex(entities);
-		this.pois = createIndex(pois);
+		this.busStops = createStopIndex(pois, f -> f.isBusStop);
+		this.trainStops = createStopIndex(pois, f -> f.isTrainStop);
 		this.landuse = createIndex(landuse);
 		this.types = types;
 
@@ -90,6 +115,33 @@ final class FacilityFeatureExtractor {
 		return index;
 	}
 
+	/**
+	 * Index for nearest neighbour queries, containing only the features matching the filter.
+	 */
+	private static STRtree createStopIndex(Long2ObjectMap<Feature> entities, Predicate<Feature> filter) {
+		STRtree index = new STRtree();
+		for (Feature entity : entities.values()) {
+			if (filter.test(entity))
+				index.insert(entity.geometry.getEnvelopeInternal(), entity);
+		}
+		index.build();
+		return index;
+	}
+
+	/**
+	 * Round to the precision used in the output.
+	 */
+	static double round(double value) {
+		return BigDecimal.valueOf(value).setScale(4, RoundingMode.HALF_EVEN).doubleValue();
+	}
+
+	/**
+	 * Check if the feature is part of the entity index.
+	 */
+	boolean isIndexed(Feature ft) {
+		return entityMap.get(ft.entity.getId()) == ft;
+	}
+
 	/**
 	 * Create features for one facility.
 	 */
@@ -107,23 +159,23 @@ final class FacilityFeatureExtractor {
 		b.add(ft.isBuilding);
 		b.add(ft.isResidentialOnly());
 
-		b.add(calcLanduse("residential", ft, 500));
-		b.add(calcLanduse("residential", ft, 1500));
-		b.add(calcLanduse("retail", ft, 500));
-		b.add(calcLanduse("retail", ft, 1500));
-		b.add(calcLanduse("commercial", ft, 500));
-		b.add(calcLanduse("commercial", ft, 1500));
-		b.add(calcLanduse("recreation_ground", ft, 1500));
-		b.add(calcArea("parking", ft, 500));
-		b.add(findNearest(ft, f -> f.isBusStop));
-		b.add(findNearest(ft, f -> f.isTrainStop));
+		b.add(aggregate(ft, Aggregate.landuse_residential_500m));
+		b.add(aggregate(ft, Aggregate.landuse_residential_1500m));
+		b.add(aggregate(ft, Aggregate.landuse_retail_500m));
+		b.add(aggregate(ft, Aggregate.landuse_retail_1500m));
+		b.add(aggregate(ft, Aggregate.landuse_commercial_500m));
+		b.add(aggregate(ft, Aggregate.landuse_commercial_1500m));
+		b.add(aggregate(ft, Aggregate.landuse_recreation_1500m));
+		b.add(aggregate(ft, Aggregate.parking_space_500m));
+		b.add(findNearest(ft, busStops));
+		b.add(findNearest(ft, trainStops));
 
 		b.add(countPOIs("leisure", ft));
-		b.add(countPOIs("leisure", ft, 250));
+		b.add((int) aggregate(ft, Aggregate.poi_leisure_250m));
 		b.add(countPOIs("shop", ft));
-		b.add(countPOIs("shop", ft, 250));
+		b.add((int) aggregate(ft, Aggregate.poi_shop_250m));
 		b.add(countPOIs("dining", ft));
-		b.add(countPOIs("dining", ft, 250));
+		b.add((int) aggregate(ft, Aggregate.poi_dining_250m));
 
 		for (int i = 0; i < types.size(); i++) {
 			b.add(ft.bits.get(i));
@@ -131,6 +183,27 @@ final class FacilityFeatureExtractor {
 		return b.buildFeature(null);
 	}
 
+	/**
+	 * Value of a radius feature, either precomputed from the raster or exact.
+	 */
+	private double aggregate(Feature ft, Aggregate a) {
+		if (ft.aggregates != null)
+			return a.round(ft.aggregates[a.ordinal()]);
+
+		return calcExact(a, ft);
+	}
+
+	/**
+	 * Compute a radius feature exactly, by intersecting the shapes with the buffered centroid.
+	 */
+	double calcExact(Aggregate a, Feature ft) {
+		return switch (a.layer.source) {
+			case landuse -> calcLanduse(a.layer.type, ft, a.radius);
+			case area -> calcArea(a.layer.type, ft, a.radius);
+			case poi -> countPOIs(a.layer.type, ft, a.radius);
+		};
+	}
+
 	/**
 	 * Calculate the area of landuse within a given radius.
 	 */
@@ -158,7 +231,7 @@ final class FacilityFeatureExtractor {
 		}
 
 		// convert to square kilometers
-		return BigDecimal.valueOf(res / 1_000_000).setScale(4, RoundingMode.HALF_EVEN).doubleValue();
+		return round(res / 1_000_000);
 	}
 
 	private double calcArea(String activityType, Feature ft, double radius) {
@@ -182,37 +255,33 @@ final class FacilityFeatureExtractor {
 			}
 		}
 
-		return BigDecimal.valueOf(res / 1_000).setScale(4, RoundingMode.HALF_EVEN).doubleValue();
+		return round(res / 1_000);
 	}
 
-	private double findNearest(Feature ft, Predicate<Feature> filter) {
+	/**
+	 * Distance to the nearest stop in the index, using a single nearest neighbour query.
+	 */
+	private double findNearest(Feature ft, STRtree stops) {
 
 		if (ft.isResidentialOnly()) {
 			return 0;
 		}
 
-		MultiPolygon geometry = ft.geometry;
-		for (Integer radius : List.of(500, 5000, 20000)) {
-
-			Geometry bbox = geometry.getCentroid().buffer(radius);
-
-			List<Feature> query = pois.query(bbox.getEnvelopeInternal());
+		if (stops.isEmpty())
+			return MAX_STOP_DISTANCE;
 
-			OptionalDouble dist = query.stream()
-				.filter(filter)
-				.mapToDouble(a -> a.geometry.distance(geometry))
-				.min();
+		// STRtree queries are thread-safe once the tree is built
+		Feature nearest = (Feature) stops.nearestNeighbour(ft.geometry.getEnvelopeInternal(), ft, FEATURE_DISTANCE);
+		if (nearest == null)
+			return MAX_STOP_DISTANCE;
 
-			if (dist.isPresent()) {
-				return dist.getAsDouble();
-			}
-
-		}
-
-		return 20000;
+		return Math.min(nearest.geometry.distance(ft.geometry), MAX_STOP_DISTANCE);
 	}
 
-	private int countPOIs(String type, Feature ft) {
+	/**
+	 * Count POIs of a type of the feature and its members.
+	 */
+	int countPOIs(String type, Feature ft) {
 
 		int count = 0;
 		int typeIndex = types.getInt(type);
@@ -57,6 +57,11 @@ final class Feature {
 	 */
 	public boolean geomIssues = false;
 
+	/**
+	 * Precomputed radius features, see {@link LanduseRaster}. Null if they are computed exactly.
+	 */
+	double[] aggregates;
+
 	Feature(OsmEntity entity, Object2IntMap<String> types, MultiPolygon geometry,
 			boolean isBuilding, boolean isUnspecific, boolean isLanduse, boolean isBusStop, boolean isTrainStop) {
 
@@ -130,6 +135,10 @@ final class Feature {
 		}
 	}
 
+	void setLevels(int levels) {
+		this.levels = levels;
+	}
+
 	public boolean isAssigned() {
 		return assigned;
 	}
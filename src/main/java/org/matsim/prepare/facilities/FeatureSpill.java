@@ -0,0 +1,187 @@
+package org.matsim.prepare.facilities;
+
+import com.slimjars.dist.gnu.trove.list.array.TLongArrayList;
+import de.topobyte.osm4j.core.model.iface.OsmEntity;
+import de.topobyte.osm4j.core.model.iface.OsmTag;
+import de.topobyte.osm4j.core.model.impl.Node;
+import de.topobyte.osm4j.core.model.impl.Relation;
+import de.topobyte.osm4j.core.model.impl.Tag;
+import de.topobyte.osm4j.core.model.impl.Way;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.GeometryFactory;
+import org.locationtech.jts.geom.MultiPolygon;
+import org.locationtech.jts.io.ParseException;
+import org.locationtech.jts.io.WKBReader;
+import org.locationtech.jts.io.WKBWriter;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Temporary file holding extracted features, so that they can be loaded again for one region at a time.
+ * <p>
+ * Each record starts with the envelope of the geometry and the key of the tile owning the feature.
+ * Records outside the requested region are skipped without decoding the rest of the record.
+ * Only the tags of the OSM entity are kept, its nodes and members are not needed after the geometry has been built.
+ */
+final class FeatureSpill implements Closeable {
+
+	private final Path file;
+	private final Object2IntMap<String> types;
+	private final DataOutputStream out;
+
+	private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+	private final DataOutputStream recordOut = new DataOutputStream(record);
+	private final WKBWriter wkbWriter = new WKBWriter();
+
+	private long size;
+
+	/**
+	 * Create a new spill in a temporary file, which is deleted when closed.
+	 */
+	FeatureSpill(Object2IntMap<String> types) throws IOException {
+		this.file = Files.createTempFile("features", ".bin");
+		this.types = types;
+		this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+	}
+
+	/**
+	 * Append a feature. Only the state after parsing the tags is stored, assignments are not retained.
+	 *
+	 * @param owner key of the tile the feature belongs to
+	 */
+	void write(Feature ft, long owner) throws IOException {
+
+		record.reset();
+
+		recordOut.writeByte(ft.osmType.ordinal());
+		recordOut.writeLong(ft.entity.getId());
+		recordOut.writeBoolean(ft.isBuilding);
+		recordOut.writeBoolean(ft.isUnspecific);
+		recordOut.writeBoolean(ft.isLanduse);
+		recordOut.writeBoolean(ft.isBusStop);
+		recordOut.writeBoolean(ft.isTrainStop);
+		recordOut.writeInt(ft.getLevels());
+
+		long[] bits = ft.bits.toLongArray();
+		recordOut.writeShort(bits.length);
+		for (long b : bits) {
+			recordOut.writeLong(b);
+		}
+
+		int n = ft.entity.getNumberOfTags();
+		recordOut.writeShort(n);
+		for (int i = 0; i < n; i++) {
+			OsmTag tag = ft.entity.getTag(i);
+			recordOut.writeUTF(tag.getKey());
+			recordOut.writeUTF(tag.getValue());
+		}
+
+		byte[] wkb = wkbWriter.write(ft.geometry);
+		recordOut.writeInt(wkb.length);
+		recordOut.write(wkb);
+
+		Envelope env = ft.geometry.getEnvelopeInternal();
+		out.writeDouble(env.getMinX());
+		out.writeDouble(env.getMaxX());
+		out.writeDouble(env.getMinY());
+		out.writeDouble(env.getMaxY());
+		out.writeLong(owner);
+		out.writeInt(record.size());
+		record.writeTo(out);
+
+		size++;
+	}
+
+	/**
+	 * Number of written features.
+	 */
+	long size() {
+		return size;
+	}
+
+	/**
+	 * Write all buffered features, no features can be added afterward.
+	 */
+	void finish() throws IOException {
+		out.close();
+	}
+
+	/**
+	 * Read all features whose envelope intersects the region, in the order they were written.
+	 */
+	void read(Envelope region, GeometryFactory factory, ObjLongConsumer<Feature> consumer) throws IOException {
+
+		WKBReader wkbReader = new WKBReader(factory);
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16))) {
+			for (long i = 0; i < size; i++) {
+
+				Envelope env = new Envelope(in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+				long owner = in.readLong();
+				int length = in.readInt();
+
+				if (!region.intersects(env)) {
+					in.skipNBytes(length);
+					continue;
+				}
+
+				consumer.accept(readFeature(in, wkbReader), owner);
+			}
+		}
+	}
+
+	private Feature readFeature(DataInputStream in, WKBReader wkbReader) throws IOException {
+
+		Feature.OsmType osmType = Feature.OsmType.values()[in.readByte()];
+		long id = in.readLong();
+		boolean isBuilding = in.readBoolean();
+		boolean isUnspecific = in.readBoolean();
+		boolean isLanduse = in.readBoolean();
+		boolean isBusStop = in.readBoolean();
+		boolean isTrainStop = in.readBoolean();
+		int levels = in.readInt();
+
+		long[] bits = new long[in.readShort()];
+		for (int i = 0; i < bits.length; i++) {
+			bits[i] = in.readLong();
+		}
+
+		int n = in.readShort();
+		List<OsmTag> tags = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			tags.add(new Tag(in.readUTF(), in.readUTF()));
+		}
+
+		MultiPolygon geometry;
+		try {
+			geometry = (MultiPolygon) wkbReader.read(in.readNBytes(in.readInt()));
+		} catch (ParseException e) {
+			throw new IOException("Could not read geometry of " + osmType + " " + id, e);
+		}
+
+		// Entities only need the correct type, id and tags
+		OsmEntity entity = switch (osmType) {
+			case node -> new Node(id, 0, 0, tags);
+			case way -> new Way(id, new TLongArrayList(), tags);
+			case relation -> new Relation(id, new ArrayList<>(), tags);
+		};
+
+		Feature ft = new Feature(entity, types, geometry, isBuilding, isUnspecific, isLanduse, isBusStop, isTrainStop);
+		ft.bits.or(BitSet.valueOf(bits));
+		ft.setLevels(levels);
+		return ft;
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+		Files.deleteIfExists(file);
+	}
+}
@@ -0,0 +1,436 @@
+package org.matsim.prepare.facilities;
+
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import me.tongfei.progressbar.ProgressBar;
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.math3.stat.descriptive.SummaryStatistics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.locationtech.jts.algorithm.locate.IndexedPointInAreaLocator;
+import org.locationtech.jts.geom.Coordinate;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Location;
+import org.locationtech.jts.geom.Point;
+import org.locationtech.jts.index.strtree.STRtree;
+import org.matsim.core.utils.io.IOUtils;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Computes the radius features of facilities from rasterized landuse, parking and POI layers.
+ * <p>
+ * Facilities are processed in tiles, for each tile the layers are rasterized into summed-area tables, which cover the tile and the largest radius around it.
+ * The sum within a circle is then approximated by a fixed number of rectangles with the same area, each of which is a constant time lookup.
+ * Polygons are rasterized by the cell centers inside them, POIs are counted at the centroid of their entity.
+ * Unlike the exact calculation, which counts entities whose geometry is within the radius, large entities near the border of the circle are therefore undercounted.
+ * Memory usage is bounded by the tile size, independent of the size of the region.
+ */
+final class LanduseRaster {
+
+	private static final Logger log = LogManager.getLogger(LanduseRaster.class);
+
+	/**
+	 * Size of one tile in meters.
+	 */
+	private static final double TILE_SIZE = 10_000;
+
+	/**
+	 * Number of rectangles used to approximate a circle.
+	 */
+	private static final int BANDS = 16;
+
+	private final FacilityFeatureExtractor extractor;
+	private final double cellSize;
+	private final double margin;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param cellSize size of one raster cell in meters, smaller values are more accurate but slower
+	 */
+	LanduseRaster(FacilityFeatureExtractor extractor, double cellSize) {
+		this.extractor = extractor;
+		this.cellSize = cellSize;
+		this.margin = Arrays.stream(Aggregate.values()).mapToDouble(a -> a.radius).max().orElseThrow() + cellSize;
+	}
+
+	/**
+	 * Area of the circle segment between the center line and y, for a circle with radius r.
+	 */
+	private static double segment(double y, double r) {
+		return 0.5 * (y * Math.sqrt(r * r - y * y) + r * r * Math.asin(y / r));
+	}
+
+	/**
+	 * Compute the aggregates of all given features, which are stored in {@link Feature#aggregates}.
+	 */
+	void compute(Collection<Feature> fts) {
+
+		// Group features by tile of their centroid
+		Long2ObjectMap<List<Feature>> tiles = new Long2ObjectOpenHashMap<>();
+		for (Feature ft : fts) {
+			if (ft.isResidentialOnly()) {
+				ft.aggregates = new double[Aggregate.values().length];
+				continue;
+			}
+
+			Point c = ft.geometry.getCentroid();
+			long key = ((long) Math.floor(c.getX() / TILE_SIZE) << 32) | ((long) Math.floor(c.getY() / TILE_SIZE) & 0xFFFFFFFFL);
+			tiles.computeIfAbsent(key, k -> new ArrayList<>()).add(ft);
+		}
+
+		log.info("Computing raster features of {} facilities in {} tiles", fts.size(), tiles.size());
+
+		try (ProgressBar pb = new ProgressBar("Rasterizing tiles", tiles.size())) {
+			for (Long2ObjectMap.Entry<List<Feature>> e : tiles.long2ObjectEntrySet()) {
+
+				long key = e.getLongKey();
+				double x = (key >> 32) * TILE_SIZE;
+				double y = (int) key * TILE_SIZE;
+
+				Tile tile = new Tile(new Envelope(x - margin, x + TILE_SIZE + margin, y - margin, y + TILE_SIZE + margin));
+
+				e.getValue().parallelStream().forEach(ft -> {
+					Point c = ft.geometry.getCentroid();
+					boolean indexed = extractor.isIndexed(ft);
+
+					double[] agg = new double[Aggregate.values().length];
+					for (Aggregate a : Aggregate.values()) {
+						agg[a.ordinal()] = tile.circle(a.layer, c.getX(), c.getY(), a.radius);
+
+						// POIs of the facility itself are only in the raster if it is part of the index
+						if (a.layer.source == Source.poi && !indexed)
+							agg[a.ordinal()] += extractor.countPOIs(a.layer.type, ft);
+					}
+					ft.aggregates = agg;
+				});
+
+				pb.step();
+			}
+		}
+	}
+
+	/**
+	 * Compare raster aggregates with the exact values for every n-th feature and write them into a csv file.
+	 */
+	void validate(List<Feature> fts, int n, Path output) {
+
+		SummaryStatistics[] error = new SummaryStatistics[Aggregate.values().length];
+		for (int i = 0; i < error.length; i++) {
+			error[i] = new SummaryStatistics();
+		}
+
+		try (CSVPrinter csv = new CSVPrinter(IOUtils.getBufferedWriter(output.toString()), CSVFormat.DEFAULT)) {
+
+			csv.printRecord("osm_id", "osm_type", "feature", "exact", "raster", "diff");
+
+			for (int i = 0; i < fts.size(); i += n) {
+				Feature ft = fts.get(i);
+				if (ft.aggregates == null)
+					continue;
+
+				for (Aggregate a : Aggregate.values()) {
+					double exact = extractor.calcExact(a, ft);
+					double raster = a.round(ft.aggregates[a.ordinal()]);
+					error[a.ordinal()].addValue(Math.abs(raster - exact));
+
+					csv.printRecord(ft.entity.getId(), ft.osmType, a, exact, raster, raster - exact);
+				}
+			}
+
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		for (Aggregate a : Aggregate.values()) {
+			SummaryStatistics s = error[a.ordinal()];
+			log.info("Raster feature {}: mean abs error {}, max abs error {} ({} samples)", a, s.getMean(), s.getMax(), s.getN());
+		}
+	}
+
+	/**
+	 * Source of a layer.
+	 */
+	enum Source {
+		/**
+		 * Area of landuse shapes with a certain landuse tag.
+		 */
+		landuse,
+		/**
+		 * Area of entities with a certain activity type.
+		 */
+		area,
+		/**
+		 * Number of POIs with a certain activity type.
+		 */
+		poi
+	}
+
+	/**
+	 * Rasterized layers.
+	 */
+	enum Layer {
+		residential(Source.landuse, "residential"),
+		retail(Source.landuse, "retail"),
+		commercial(Source.landuse, "commercial"),
+		recreation(Source.landuse, "recreation_ground"),
+		parking(Source.area, "parking"),
+		leisure(Source.poi, "leisure"),
+		shop(Source.poi, "shop"),
+		dining(Source.poi, "dining");
+
+		final Source source;
+		final String type;
+
+		Layer(Source source, String type) {
+			this.source = source;
+			this.type = type;
+		}
+	}
+
+	/**
+	 * Features aggregated within a radius around the facility centroid, named as the output columns.
+	 */
+	enum Aggregate {
+		landuse_residential_500m(Layer.residential, 500),
+		landuse_residential_1500m(Layer.residential, 1500),
+		landuse_retail_500m(Layer.retail, 500),
+		landuse_retail_1500m(Layer.retail, 1500),
+		landuse_commercial_500m(Layer.commercial, 500),
+		landuse_commercial_1500m(Layer.commercial, 1500),
+		landuse_recreation_1500m(Layer.recreation, 1500),
+		parking_space_500m(Layer.parking, 500),
+		poi_leisure_250m(Layer.leisure, 250),
+		poi_shop_250m(Layer.shop, 250),
+		poi_dining_250m(Layer.dining, 250);
+
+		final Layer layer;
+		final double radius;
+
+		Aggregate(Layer layer, double radius) {
+			this.layer = layer;
+			this.radius = radius;
+		}
+
+		/**
+		 * Convert a raw sum into the unit and precision of the output column.
+		 */
+		double round(double value) {
+			return switch (layer.source) {
+				// square kilometers
+				case landuse -> FacilityFeatureExtractor.round(value / 1_000_000);
+				case area -> FacilityFeatureExtractor.round(value / 1_000);
+				case poi -> Math.round(value);
+			};
+		}
+	}
+
+	/**
+	 * Summed-area tables of all layers for one tile.
+	 */
+	private final class Tile {
+
+		private final Envelope env;
+
+		/**
+		 * Summed-area table for each layer.
+		 */
+		private final SummedAreaTable[] tables = new SummedAreaTable[Layer.values().length];
+
+		Tile(Envelope env) {
+			this.env = env;
+			Arrays.stream(Layer.values()).parallel().forEach(l -> tables[l.ordinal()] = createTable(l));
+		}
+
+		private SummedAreaTable createTable(Layer layer) {
+
+			SummedAreaTable table = new SummedAreaTable(env, cellSize);
+
+			if (layer.source == Source.poi) {
+				rasterizePOIs(layer, table);
+			} else {
+				rasterizeArea(layer, table);
+			}
+
+			table.build();
+			return table;
+		}
+
+		@SuppressWarnings("unchecked")
+		private void rasterizeArea(Layer layer, SummedAreaTable table) {
+
+			STRtree index = layer.source == Source.landuse ? extractor.landuse : extractor.entities;
+			List<Feature> query = index.query(env);
+
+			double cellArea = cellSize * cellSize;
+			Coordinate p = new Coordinate();
+
+			for (Feature q : query) {
+
+				if (q.geomIssues)
+					continue;
+
+				if (layer.source == Source.landuse ? !q.hasLanduse(layer.type) : !q.hasType(layer.type))
+					continue;
+
+				Envelope e = q.geometry.getEnvelopeInternal();
+				int x0 = Math.max(0, table.cellX(e.getMinX()));
+				int x1 = Math.min(table.w - 1, table.cellX(e.getMaxX()));
+				int y0 = Math.max(0, table.cellY(e.getMinY()));
+				int y1 = Math.min(table.h - 1, table.cellY(e.getMaxY()));
+
+				IndexedPointInAreaLocator locator = new IndexedPointInAreaLocator(q.geometry);
+
+				for (int y = y0; y <= y1; y++) {
+					p.y = env.getMinY() + (y + 0.5) * cellSize;
+					for (int x = x0; x <= x1; x++) {
+						p.x = env.getMinX() + (x + 0.5) * cellSize;
+						if (locator.locate(p) != Location.EXTERIOR)
+							table.add(x, y, cellArea);
+					}
+				}
+			}
+		}
+
+		/**
+		 * POIs are binned at the centroid of their entity. The exact calculation counts entities whose geometry is within the radius,
+		 * so large entities near the border of the circle are undercounted.
+		 */
+		@SuppressWarnings("unchecked")
+		private void rasterizePOIs(Layer layer, SummedAreaTable table) {
+
+			List<Feature> query = extractor.entities.query(env);
+			for (Feature q : query) {
+
+				if (q.geomIssues)
+					continue;
+
+				int count = extractor.countPOIs(layer.type, q);
+				if (count == 0)
+					continue;
+
+				Point c = q.geometry.getCentroid();
+				int x = table.cellX(c.getX());
+				int y = table.cellY(c.getY());
+				if (x >= 0 && x < table.w && y >= 0 && y < table.h)
+					table.add(x, y, count);
+			}
+		}
+
+		double circle(Layer layer, double cx, double cy, double r) {
+			return tables[layer.ordinal()].circle(cx, cy, r);
+		}
+	}
+
+	/**
+	 * Summed-area table over a raster of square cells, assuming uniform values within each cell.
+	 * Values are added to the cells first, {@link #build()} then sums them up in place.
+	 */
+	static final class SummedAreaTable {
+
+		private final Envelope env;
+		private final double cellSize;
+		final int w;
+		final int h;
+
+		/**
+		 * Table with one additional row and column.
+		 */
+		private final double[] table;
+
+		SummedAreaTable(Envelope env, double cellSize) {
+			this.env = env;
+			this.cellSize = cellSize;
+			this.w = (int) Math.ceil(env.getWidth() / cellSize);
+			this.h = (int) Math.ceil(env.getHeight() / cellSize);
+			this.table = new double[(w + 1) * (h + 1)];
+		}
+
+		/**
+		 * Column of the cell containing x, may be outside the raster.
+		 */
+		int cellX(double x) {
+			return (int) Math.floor((x - env.getMinX()) / cellSize);
+		}
+
+		/**
+		 * Row of the cell containing y, may be outside the raster.
+		 */
+		int cellY(double y) {
+			return (int) Math.floor((y - env.getMinY()) / cellSize);
+		}
+
+		/**
+		 * Add a value to a cell, only before the table is built.
+		 */
+		void add(int x, int y, double value) {
+			table[(y + 1) * (w + 1) + x + 1] += value;
+		}
+
+		/**
+		 * Sum up the cell values.
+		 */
+		void build() {
+			for (int y = 1; y <= h; y++) {
+				double row = 0;
+				for (int x = 1; x <= w; x++) {
+					row += table[y * (w + 1) + x];
+					table[y * (w + 1) + x] = table[(y - 1) * (w + 1) + x] + row;
+				}
+			}
+		}
+
+		/**
+		 * Approximate the sum within a circle by rectangles with the same area as the corresponding circle segment.
+		 */
+		double circle(double cx, double cy, double r) {
+
+			double sum = 0;
+
+			for (int i = 0; i < BANDS; i++) {
+				double y0 = -r + 2 * r * i / BANDS;
+				double y1 = -r + 2 * r * (i + 1) / BANDS;
+
+				double half = (segment(y1, r) - segment(y0, r)) / (y1 - y0) / 2;
+				sum += rect(cx - half, cy + y0, cx + half, cy + y1);
+			}
+
+			return sum;
+		}
+
+		/**
+		 * Sum within a rectangle.
+		 */
+		double rect(double x0, double y0, double x1, double y1) {
+			return at(x1, y1) - at(x0, y1) - at(x1, y0) + at(x0, y0);
+		}
+
+		/**
+		 * Bilinear interpolated value of the summed-area table at a coordinate.
+		 */
+		double at(double x, double y) {
+
+			double fx = Math.max(0, Math.min(w, (x - env.getMinX()) / cellSize));
+			double fy = Math.max(0, Math.min(h, (y - env.getMinY()) / cellSize));
+
+			int ix = Math.min(w - 1, (int) fx);
+			int iy = Math.min(h - 1, (int) fy);
+			double dx = fx - ix;
+			double dy = fy - iy;
+
+			int i = iy * (w + 1) + ix;
+			double top = table[i] * (1 - dx) + table[i + 1] * dx;
+			double bottom = table[i + w + 1] * (1 - dx) + table[i + w + 2] * dx;
+
+			return top * (1 - dy) + bottom * dy;
+		}
+	}
+}
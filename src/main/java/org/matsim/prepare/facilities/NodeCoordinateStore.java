@@ -0,0 +1,170 @@
+package org.matsim.prepare.facilities;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Off-heap store of node coordinates, backed by a memory-mapped file.
+ * Nodes need to be added in ascending id order, as they are in sorted pbf files, and are looked up by binary search.
+ * <p>
+ * Each entry consists of the id and the coordinates as fixed-point values with 7 decimal places, which is the precision used by OSM.
+ * Only the node coordinates are held off-heap, the memory needed for extracted features is not bounded by this store.
+ * <p>
+ * Temporary files created by {@link #createTemp()} are deleted when the store is closed. Other files are overwritten, but kept.
+ */
+final class NodeCoordinateStore implements Closeable {
+
+	private static final int ENTRY = 16;
+	private static final double PRECISION = 1e7;
+
+	/**
+	 * Entries per mapped chunk, a single mapping is limited to 2GB.
+	 */
+	private static final int CHUNK_ENTRIES = 1 << 23;
+
+	private final int chunkEntries;
+
+	private final Path file;
+	private final FileChannel channel;
+	private final boolean deleteOnClose;
+	private final ByteBuffer buffer = ByteBuffer.allocateDirect(ENTRY * 65536);
+	private final List<MappedByteBuffer> chunks = new ArrayList<>();
+
+	private long size;
+	private long lastId = Long.MIN_VALUE;
+	private boolean finished;
+
+	/**
+	 * Create a store in the given file, existing content will be overwritten. The file is kept after closing the store.
+	 */
+	NodeCoordinateStore(Path file) throws IOException {
+		this(file, false, CHUNK_ENTRIES);
+	}
+
+	/**
+	 * Constructor with a different chunk size, only used for testing.
+	 */
+	NodeCoordinateStore(Path file, int chunkEntries) throws IOException {
+		this(file, false, chunkEntries);
+	}
+
+	private NodeCoordinateStore(Path file, boolean deleteOnClose, int chunkEntries) throws IOException {
+		this.file = file;
+		this.deleteOnClose = deleteOnClose;
+		this.chunkEntries = chunkEntries;
+		this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+			StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * Create a store in a new temporary file, which is deleted when the store is closed.
+	 */
+	static NodeCoordinateStore createTemp() throws IOException {
+		return new NodeCoordinateStore(Files.createTempFile("nodes", ".bin"), true, CHUNK_ENTRIES);
+	}
+
+	/**
+	 * Add a node, ids must be larger than all previously added ids.
+	 */
+	void add(long id, double lon, double lat) throws IOException {
+		if (finished)
+			throw new IllegalStateException("Store is already finished.");
+
+		if (id <= lastId)
+			throw new IllegalStateException("Nodes must be sorted by id, but %d follows %d. Sort the input first, e.g. with 'osmium sort'.".formatted(id, lastId));
+
+		buffer.putLong(id)
+			.putInt((int) Math.round(lon * PRECISION))
+			.putInt((int) Math.round(lat * PRECISION));
+
+		lastId = id;
+		size++;
+
+		if (!buffer.hasRemaining())
+			flush();
+	}
+
+	/**
+	 * Write all remaining nodes and map the file for reading. No nodes can be added afterward.
+	 */
+	void finish() throws IOException {
+		flush();
+		finished = true;
+
+		long chunkSize = (long) chunkEntries * ENTRY;
+		for (long pos = 0; pos < size * ENTRY; pos += chunkSize) {
+			chunks.add(channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(chunkSize, size * ENTRY - pos)));
+		}
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+
+		buffer.clear();
+	}
+
+	/**
+	 * Number of stored nodes.
+	 */
+	long size() {
+		return size;
+	}
+
+	/**
+	 * Find the index of a node.
+	 *
+	 * @return index of the node, or -1 if it is not contained
+	 */
+	long find(long id) {
+		long lo = 0;
+		long hi = size - 1;
+		while (lo <= hi) {
+			long mid = (lo + hi) >>> 1;
+			long v = id(mid);
+			if (v < id)
+				lo = mid + 1;
+			else if (v > id)
+				hi = mid - 1;
+			else
+				return mid;
+		}
+
+		return -1;
+	}
+
+	private long id(long idx) {
+		return chunks.get((int) (idx / chunkEntries)).getLong((int) (idx % chunkEntries) * ENTRY);
+	}
+
+	/**
+	 * Longitude of the node at index.
+	 */
+	double lon(long idx) {
+		return chunks.get((int) (idx / chunkEntries)).getInt((int) (idx % chunkEntries) * ENTRY + 8) / PRECISION;
+	}
+
+	/**
+	 * Latitude of the node at index.
+	 */
+	double lat(long idx) {
+		return chunks.get((int) (idx / chunkEntries)).getInt((int) (idx % chunkEntries) * ENTRY + 12) / PRECISION;
+	}
+
+	@Override
+	public void close() throws IOException {
+		chunks.clear();
+		channel.close();
+		if (deleteOnClose)
+			Files.deleteIfExists(file);
+	}
+}
@@ -0,0 +1,24 @@
+package org.matsim.prepare.ml;
+
+import java.util.List;
+
+/**
+ * Regression model that predicts many inputs at once from a primitive feature matrix.
+ */
+public interface BatchRegressor {
+
+	/**
+	 * Names of the input features, in the order of the columns.
+	 */
+	List<String> getFeatureNames();
+
+	/**
+	 * Predict a batch of inputs.
+	 *
+	 * @param matrix raw feature values in column-major order, the value of feature {@code j} for row {@code i} is at {@code j * n + i}
+	 * @param n      number of rows
+	 * @return prediction for each row
+	 */
+	double[] predict(double[] matrix, int n);
+
+}
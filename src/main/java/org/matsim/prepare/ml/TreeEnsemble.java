@@ -0,0 +1,250 @@
+package org.matsim.prepare.ml;
+
+import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tree ensemble stored in flat node arrays, as an alternative runtime for the generated tree models.
+ * The generated score functions are too large to be compiled by the JIT, while the loop over the node arrays is small.
+ * <p>
+ * Nodes of all trees are stored in pre-order. A split node sends an input to the next node if {@code input > threshold} and to its right child otherwise.
+ * Leaves reference an entry of the parameter array, so that the same parameters as for the generated model can be used.
+ * The prediction is {@code offset + (bias + sum of leaves) * factor}, which is the same order of operations as in the generated code.
+ * <p>
+ * The files are created from the generated sources with {@code src/main/python/compile_tree_models.py}.
+ * They contain magic, version, the features with normalization, bias, offset, factor, the roots and all nodes.
+ */
+public final class TreeEnsemble {
+
+	private static final int MAGIC = 0x4D545245;
+	private static final int VERSION = 1;
+
+	private final List<String> names;
+	private final double[] shift;
+	private final double[] scale;
+
+	private final double bias;
+	private final double offset;
+	private final double factor;
+
+	private final int[] roots;
+
+	/**
+	 * Feature index of each node, -1 for leaves.
+	 */
+	private final int[] feature;
+	private final double[] threshold;
+
+	/**
+	 * Node index of the right child for split nodes, parameter index for leaves.
+	 */
+	private final int[] next;
+
+	private TreeEnsemble(List<String> names, double[] shift, double[] scale, double bias, double offset, double factor,
+						 int[] roots, int[] feature, double[] threshold, int[] next) {
+		this.names = Collections.unmodifiableList(names);
+		this.shift = shift;
+		this.scale = scale;
+		this.bias = bias;
+		this.offset = offset;
+		this.factor = factor;
+		this.roots = roots;
+		this.feature = feature;
+		this.threshold = threshold;
+		this.next = next;
+	}
+
+	/**
+	 * Load the compiled ensemble of a generated model, which is stored as {@code <ClassName>.trees} resource next to it.
+	 */
+	public static TreeEnsemble load(Class<?> model) {
+		String name = model.getSimpleName() + ".trees";
+		try (InputStream in = model.getResourceAsStream(name)) {
+			if (in == null)
+				throw new IllegalStateException("Compiled model " + name + " not found.");
+
+			return read(in);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Read an ensemble from a stream.
+	 */
+	public static TreeEnsemble read(InputStream stream) throws IOException {
+
+		DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+
+		if (in.readInt() != MAGIC)
+			throw new IOException("Input is not a compiled tree model.");
+
+		int version = in.readInt();
+		if (version != VERSION)
+			throw new IOException("Unsupported version %d of compiled tree model".formatted(version));
+
+		int n = in.readInt();
+		List<String> names = new ArrayList<>(n);
+		double[] shift = new double[n];
+		double[] scale = new double[n];
+		for (int i = 0; i < n; i++) {
+			names.add(in.readUTF());
+			shift[i] = in.readDouble();
+			scale[i] = in.readDouble();
+		}
+
+		double bias = in.readDouble();
+		double offset = in.readDouble();
+		double factor = in.readDouble();
+
+		int[] roots = new int[in.readInt()];
+		for (int i = 0; i < roots.length; i++) {
+			roots[i] = in.readInt();
+		}
+
+		int nodes = in.readInt();
+		int[] feature = new int[nodes];
+		double[] threshold = new double[nodes];
+		int[] next = new int[nodes];
+		for (int i = 0; i < nodes; i++) {
+			feature[i] = in.readInt();
+			threshold[i] = in.readDouble();
+			next[i] = in.readInt();
+
+			if (feature[i] >= n || (feature[i] >= 0 && (next[i] <= i || next[i] >= nodes)))
+				throw new IOException("Invalid node " + i + " in compiled tree model.");
+		}
+
+		return new TreeEnsemble(names, shift, scale, bias, offset, factor, roots, feature, threshold, next);
+	}
+
+	/**
+	 * Names of the input features, in the order of the columns.
+	 */
+	public List<String> getFeatureNames() {
+		return names;
+	}
+
+	/**
+	 * Number of input features.
+	 */
+	public int getNumberOfFeatures() {
+		return names.size();
+	}
+
+	/**
+	 * Largest parameter index referenced by a leaf.
+	 */
+	public int getMaxParamIndex() {
+		int max = -1;
+		for (int i = 0; i < feature.length; i++) {
+			if (feature[i] < 0)
+				max = Math.max(max, next[i]);
+		}
+		return max;
+	}
+
+	/**
+	 * Normalize a raw feature value, in the same way as the generated model.
+	 */
+	public double transform(int featureIdx, double value) {
+		return (value - shift[featureIdx]) / scale[featureIdx];
+	}
+
+	/**
+	 * Normalize a matrix of raw feature values in column-major order.
+	 *
+	 * @return normalized copy, or the same matrix if no feature needs normalization
+	 */
+	public double[] normalize(double[] matrix, int n) {
+
+		double[] result = matrix;
+		for (int j = 0; j < names.size(); j++) {
+			if (shift[j] == 0 && scale[j] == 1)
+				continue;
+
+			if (result == matrix)
+				result = matrix.clone();
+
+			for (int i = j * n; i < (j + 1) * n; i++) {
+				result[i] = transform(j, matrix[i]);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Create the normalized input vector from named features, missing features are 0.
+	 */
+	public double[] getData(Object2DoubleMap<String> features) {
+		double[] data = new double[names.size()];
+		for (int i = 0; i < data.length; i++) {
+			data[i] = transform(i, features.getDouble(names.get(i)));
+		}
+		return data;
+	}
+
+	/**
+	 * Predict a single normalized input vector.
+	 */
+	public double predict(double[] input, double[] params) {
+
+		for (int i = 0; i < input.length; i++)
+			if (Double.isNaN(input[i])) throw new IllegalArgumentException("Invalid data at index: " + i);
+
+		double sum = bias;
+		for (int root : roots) {
+			int k = root;
+			while (feature[k] >= 0)
+				k = input[feature[k]] > threshold[k] ? k + 1 : next[k];
+
+			sum += params[next[k]];
+		}
+
+		return offset + sum * factor;
+	}
+
+	/**
+	 * Predict a batch of inputs.
+	 *
+	 * @param matrix normalized inputs in column-major order, the value of feature {@code j} for row {@code i} is at {@code j * n + i}
+	 * @param n      number of rows
+	 * @param params parameters of the leaves
+	 * @param out    array of at least size n, where the predictions are written to
+	 */
+	public void predict(double[] matrix, int n, double[] params, double[] out) {
+
+		if (matrix.length < n * names.size())
+			throw new IllegalArgumentException("Matrix must contain %d values, but has only %d".formatted(n * names.size(), matrix.length));
+
+		for (int i = 0; i < n * names.size(); i++)
+			if (Double.isNaN(matrix[i])) throw new IllegalArgumentException("Invalid data at index: " + i / n + " for row " + i % n);
+
+		Arrays.fill(out, 0, n, bias);
+
+		// One tree at a time for all rows, so that its nodes stay in cache
+		for (int root : roots) {
+			for (int i = 0; i < n; i++) {
+				int k = root;
+				while (feature[k] >= 0)
+					k = matrix[feature[k] * n + i] > threshold[k] ? k + 1 : next[k];
+
+				out[i] += params[next[k]];
+			}
+		}
+
+		for (int i = 0; i < n; i++) {
+			out[i] = offset + out[i] * factor;
+		}
+	}
+}
@@ -0,0 +1,70 @@
+package org.matsim.prepare.ml;
+
+import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
+import org.matsim.application.prepare.Predictor;
+
+import java.util.List;
+
+/**
+ * {@link Predictor} backed by a {@link TreeEnsemble}, which can be used in place of a generated model.
+ */
+public final class TreeEnsemblePredictor implements Predictor, BatchRegressor {
+
+	private final TreeEnsemble ensemble;
+	private final double[] defaultParams;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param defaultParams parameters of the generated model
+	 */
+	public TreeEnsemblePredictor(TreeEnsemble ensemble, double[] defaultParams) {
+		if (ensemble.getMaxParamIndex() >= defaultParams.length)
+			throw new IllegalArgumentException("Compiled model references more parameters than given.");
+
+		this.ensemble = ensemble;
+		this.defaultParams = defaultParams;
+	}
+
+	/**
+	 * Load the compiled ensemble of a generated model.
+	 */
+	public static TreeEnsemblePredictor load(Class<? extends Predictor> model, double[] defaultParams) {
+		return new TreeEnsemblePredictor(TreeEnsemble.load(model), defaultParams);
+	}
+
+	/**
+	 * The underlying ensemble.
+	 */
+	public TreeEnsemble getEnsemble() {
+		return ensemble;
+	}
+
+	@Override
+	public double predict(Object2DoubleMap<String> features, Object2ObjectMap<String, String> categories) {
+		return predict(features, categories, defaultParams);
+	}
+
+	@Override
+	public double[] getData(Object2DoubleMap<String> features, Object2ObjectMap<String, String> categories) {
+		return ensemble.getData(features);
+	}
+
+	@Override
+	public double predict(Object2DoubleMap<String> features, Object2ObjectMap<String, String> categories, double[] params) {
+		return ensemble.predict(getData(features, categories), params);
+	}
+
+	@Override
+	public List<String> getFeatureNames() {
+		return ensemble.getFeatureNames();
+	}
+
+	@Override
+	public double[] predict(double[] matrix, int n) {
+		double[] out = new double[n];
+		ensemble.predict(ensemble.normalize(matrix, n), n, defaultParams, out);
+		return out;
+	}
+}
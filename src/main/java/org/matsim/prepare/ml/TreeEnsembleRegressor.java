@@ -0,0 +1,62 @@
+package org.matsim.prepare.ml;
+
+import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
+import org.matsim.application.prepare.network.params.FeatureRegressor;
+
+import java.util.List;
+
+/**
+ * {@link FeatureRegressor} backed by a {@link TreeEnsemble}, which can be used in place of a generated network model.
+ */
+public final class TreeEnsembleRegressor implements FeatureRegressor, BatchRegressor {
+
+	private final TreeEnsemble ensemble;
+	private final double[] defaultParams;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param defaultParams parameters of the generated model
+	 */
+	public TreeEnsembleRegressor(TreeEnsemble ensemble, double[] defaultParams) {
+		if (ensemble.getMaxParamIndex() >= defaultParams.length)
+			throw new IllegalArgumentException("Compiled model references more parameters than given.");
+
+		this.ensemble = ensemble;
+		this.defaultParams = defaultParams;
+	}
+
+	/**
+	 * Load the compiled ensemble of a generated model.
+	 */
+	public static TreeEnsembleRegressor load(Class<? extends FeatureRegressor> model, double[] defaultParams) {
+		return new TreeEnsembleRegressor(TreeEnsemble.load(model), defaultParams);
+	}
+
+	@Override
+	public double predict(Object2DoubleMap<String> ft) {
+		return predict(ft, defaultParams);
+	}
+
+	@Override
+	public double[] getData(Object2DoubleMap<String> ft) {
+		return ensemble.getData(ft);
+	}
+
+	@Override
+	public double predict(Object2DoubleMap<String> ft, double[] params) {
+		return ensemble.predict(getData(ft), params);
+	}
+
+	@Override
+	public List<String> getFeatureNames() {
+		return ensemble.getFeatureNames();
+	}
+
+	@Override
+	public double[] predict(double[] matrix, int n) {
+		double[] out = new double[n];
+		ensemble.predict(ensemble.normalize(matrix, n), n, defaultParams, out);
+		return out;
+	}
+}
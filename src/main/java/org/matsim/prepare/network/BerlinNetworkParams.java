@@ -1,16 +1,56 @@
 package org.matsim.prepare.network;
 
+import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
+import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
 import org.matsim.application.prepare.Predictor;
 import org.matsim.application.prepare.network.params.NetworkModel;
+import org.matsim.prepare.ml.BatchRegressor;
+import org.matsim.prepare.ml.TreeEnsemblePredictor;
+import org.matsim.prepare.ml.TreeEnsembleRegressor;
 
+import java.util.List;
+
+/**
+ * Network parameters for Berlin. The generated models are evaluated with their compiled {@link org.matsim.prepare.ml.TreeEnsemble},
+ * which gives the same results, but stays small enough to be compiled by the JIT.
+ */
 @SuppressWarnings("unused")
 public class BerlinNetworkParams implements NetworkModel {
+
+	private static final TrafficLightCapacity CAPACITY_TRAFFIC_LIGHT = new TrafficLightCapacity();
+	private static final TreeEnsembleRegressor CAPACITY_RIGHT_BEFORE_LEFT = TreeEnsembleRegressor.load(
+		BerlinNetworkParams_capacity_right_before_left.class, BerlinNetworkParams_capacity_right_before_left.DEFAULT_PARAMS);
+	private static final TreeEnsembleRegressor CAPACITY_PRIORITY = TreeEnsembleRegressor.load(
+		BerlinNetworkParams_capacity_priority.class, BerlinNetworkParams_capacity_priority.DEFAULT_PARAMS);
+
+	private static final TreeEnsembleRegressor SPEED_TRAFFIC_LIGHT = TreeEnsembleRegressor.load(
+		BerlinNetworkParams_speedRelative_traffic_light.class, BerlinNetworkParams_speedRelative_traffic_light.DEFAULT_PARAMS);
+	private static final TreeEnsembleRegressor SPEED_RIGHT_BEFORE_LEFT = TreeEnsembleRegressor.load(
+		BerlinNetworkParams_speedRelative_right_before_left.class, BerlinNetworkParams_speedRelative_right_before_left.DEFAULT_PARAMS);
+	private static final TreeEnsembleRegressor SPEED_PRIORITY = TreeEnsembleRegressor.load(
+		BerlinNetworkParams_speedRelative_priority.class, BerlinNetworkParams_speedRelative_priority.DEFAULT_PARAMS);
+
+	/**
+	 * Capacity scale for traffic lights, see {@link BerlinNetworkParams_capacity_traffic_light}.
+	 */
+	private static double trafficLightScale(double primaryOrHigher, double secondaryOrHigher) {
+		// The reference simulation is performed with equal green split
+		// However this is usually not the case for major roads with higher priority,
+		// there capacity for these roads is increased
+		if (primaryOrHigher == 1)
+			return 1.5;
+		else if (secondaryOrHigher == 1)
+			return 1.3;
+
+		return 1;
+	}
+
 	@Override
 	public Predictor capacity(String junctionType, String highwayType) {
 		return switch (junctionType) {
-			case "traffic_light" -> BerlinNetworkParams_capacity_traffic_light.INSTANCE;
-			case "right_before_left" -> BerlinNetworkParams_capacity_right_before_left.INSTANCE;
-			case "priority" -> BerlinNetworkParams_capacity_priority.INSTANCE;
+			case "traffic_light" -> CAPACITY_TRAFFIC_LIGHT;
+			case "right_before_left" -> CAPACITY_RIGHT_BEFORE_LEFT;
+			case "priority" -> CAPACITY_PRIORITY;
 			default -> throw new IllegalArgumentException("Unknown type: " + junctionType);
 		};
 	}
@@ -18,10 +58,69 @@ public class BerlinNetworkParams implements NetworkModel {
 	@Override
 	public Predictor speedFactor(String junctionType, String highwayType) {
 		return switch (junctionType) {
-			case "traffic_light" -> BerlinNetworkParams_speedRelative_traffic_light.INSTANCE;
-			case "right_before_left" -> BerlinNetworkParams_speedRelative_right_before_left.INSTANCE;
-			case "priority" -> BerlinNetworkParams_speedRelative_priority.INSTANCE;
+			case "traffic_light" -> SPEED_TRAFFIC_LIGHT;
+			case "right_before_left" -> SPEED_RIGHT_BEFORE_LEFT;
+			case "priority" -> SPEED_PRIORITY;
 			default -> throw new IllegalArgumentException("Unknown type: " + junctionType);
 		};
 	}
+
+	/**
+	 * Capacity model to predict all links of a junction type at once.
+	 */
+	public BatchRegressor batchCapacity(String junctionType) {
+		return (BatchRegressor) capacity(junctionType, null);
+	}
+
+	/**
+	 * Speed factor model to predict all links of a junction type at once.
+	 */
+	public BatchRegressor batchSpeedFactor(String junctionType) {
+		return (BatchRegressor) speedFactor(junctionType, null);
+	}
+
+	/**
+	 * Compiled capacity model for traffic lights, which is scaled depending on the road type.
+	 */
+	private static final class TrafficLightCapacity implements Predictor, BatchRegressor {
+
+		private final TreeEnsemblePredictor delegate = TreeEnsemblePredictor.load(
+			BerlinNetworkParams_capacity_traffic_light.class, BerlinNetworkParams_capacity_traffic_light.DEFAULT_PARAMS);
+
+		@Override
+		public double predict(Object2DoubleMap<String> features, Object2ObjectMap<String, String> categories) {
+			return predict(features, categories, BerlinNetworkParams_capacity_traffic_light.DEFAULT_PARAMS);
+		}
+
+		@Override
+		public double[] getData(Object2DoubleMap<String> features, Object2ObjectMap<String, String> categories) {
+			return delegate.getData(features, categories);
+		}
+
+		@Override
+		public double predict(Object2DoubleMap<String> features, Object2ObjectMap<String, String> categories, double[] params) {
+			return delegate.predict(features, categories, params) *
+				trafficLightScale(features.getDouble("is_primary_or_higher"), features.getDouble("is_secondary_or_higher"));
+		}
+
+		@Override
+		public List<String> getFeatureNames() {
+			return delegate.getFeatureNames();
+		}
+
+		@Override
+		public double[] predict(double[] matrix, int n) {
+
+			double[] out = delegate.predict(matrix, n);
+
+			int primary = getFeatureNames().indexOf("is_primary_or_higher") * n;
+			int secondary = getFeatureNames().indexOf("is_secondary_or_higher") * n;
+
+			for (int i = 0; i < n; i++) {
+				out[i] *= trafficLightScale(matrix[primary + i], matrix[secondary + i]);
+			}
+
+			return out;
+		}
+	}
 }
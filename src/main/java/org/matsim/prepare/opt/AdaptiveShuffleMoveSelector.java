@@ -0,0 +1,224 @@
+package org.matsim.prepare.opt;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import org.optaplanner.core.api.score.director.ScoreDirector;
+import org.optaplanner.core.impl.heuristic.selector.move.factory.MoveIteratorFactory;
+
+import java.util.*;
+
+/**
+ * Large neighbourhood moves that focus on the count indices with the largest current error.
+ * Persons touching such an index are moved to plans that change the count in the right direction.
+ * The size of the neighbourhood grows while moves are accepted frequently and shrinks otherwise.
+ */
+public class AdaptiveShuffleMoveSelector implements MoveIteratorFactory<PlanAssignmentProblem, LargeChangeMove> {
+
+	/**
+	 * Number of count indices with the largest error that are considered.
+	 */
+	private static final int CANDIDATES = 64;
+
+	private static final double MIN_SIZE = 2;
+	private static final double MAX_SIZE = 100;
+
+	/**
+	 * Targeted share of accepted moves.
+	 */
+	private static final double TARGET_ACCEPTANCE = 0.05;
+
+	/**
+	 * Weight of a new observation in the moving average of the acceptance rate.
+	 */
+	private static final double ALPHA = 0.01;
+
+	/**
+	 * Moves created during the last step, used to determine if one of them has been accepted.
+	 */
+	private final List<LargeChangeMove> issued = new ArrayList<>();
+
+	private double size = 30;
+	private double acceptance = TARGET_ACCEPTANCE;
+
+	/**
+	 * Positions of persons that have a plan touching each count index, in compressed sparse row format.
+	 */
+	private int[] personOffsets;
+	private int[] personIndices;
+
+	@Override
+	public long getSize(ScoreDirector<PlanAssignmentProblem> scoreDirector) {
+		return scoreDirector.getWorkingSolution().getPersons().size() / 8;
+	}
+
+	@Override
+	public Iterator<LargeChangeMove> createOriginalMoveIterator(ScoreDirector<PlanAssignmentProblem> scoreDirector) {
+		return createRandomMoveIterator(scoreDirector, new Random(0));
+	}
+
+	@Override
+	public Iterator<LargeChangeMove> createRandomMoveIterator(ScoreDirector<PlanAssignmentProblem> scoreDirector, Random workingRandom) {
+
+		PlanAssignmentProblem solution = scoreDirector.getWorkingSolution();
+		if (personOffsets == null)
+			buildIndex(solution);
+
+		updateAcceptance();
+
+		// The calculator registers itself at the working solution, which avoids depending on the score director implementation
+		ScoreCalculator calc = solution.getCalculator();
+		if (calc == null)
+			throw new IllegalStateException("Working solution has no score calculator, the solver needs to use " + ScoreCalculator.class.getName());
+
+		int[] candidates = calc.getLargestErrors(CANDIDATES);
+
+		return new It(solution, calc, candidates, (int) Math.round(size), getSize(scoreDirector), workingRandom);
+	}
+
+	/**
+	 * Check whether a move of the last step has been accepted and adapt the neighbourhood size.
+	 */
+	private void updateAcceptance() {
+
+		if (issued.isEmpty())
+			return;
+
+		for (LargeChangeMove move : issued) {
+			acceptance = (1 - ALPHA) * acceptance + ALPHA * (move.isApplied() ? 1 : 0);
+		}
+
+		issued.clear();
+
+		size = acceptance > TARGET_ACCEPTANCE ? size * 1.05 : size * 0.95;
+		size = Math.max(MIN_SIZE, Math.min(MAX_SIZE, size));
+	}
+
+	private void buildIndex(PlanAssignmentProblem solution) {
+
+		List<PlanPerson> persons = solution.getPersons();
+		int n = solution.counts.length;
+
+		// Last person that has been counted for each index, to count each person once
+		int[] last = new int[n];
+		Arrays.fill(last, -1);
+
+		personOffsets = new int[n + 1];
+
+		for (int pass = 0; pass < 2; pass++) {
+			int[] fill = pass == 1 ? Arrays.copyOf(personOffsets, n) : null;
+			if (pass == 1) {
+				Arrays.fill(last, -1);
+				personIndices = new int[personOffsets[n]];
+			}
+
+			for (int i = 0; i < persons.size(); i++) {
+				PlanPerson person = persons.get(i);
+				PlanContributions c = person.getContributions();
+
+				for (int k = 0; k < solution.getMaxK(); k++) {
+					int row = person.get(k);
+					for (int j = c.start(row); j < c.end(row); j++) {
+						int idx = c.index(j);
+						if (last[idx] == i)
+							continue;
+
+						last[idx] = i;
+						if (pass == 0)
+							personOffsets[idx + 1]++;
+						else
+							personIndices[fill[idx]++] = i;
+					}
+				}
+			}
+
+			if (pass == 0) {
+				for (int idx = 0; idx < n; idx++) {
+					personOffsets[idx + 1] += personOffsets[idx];
+				}
+			}
+		}
+	}
+
+	private final class It implements Iterator<LargeChangeMove> {
+
+		private final PlanAssignmentProblem solution;
+		private final ScoreCalculator calc;
+		private final int[] candidates;
+		private final int size;
+		private final long total;
+		private final Random random;
+		private long done = 0;
+
+		It(PlanAssignmentProblem solution, ScoreCalculator calc, int[] candidates, int size, long total, Random random) {
+			this.solution = solution;
+			this.calc = calc;
+			this.candidates = candidates;
+			this.size = size;
+			this.total = total;
+			this.random = random;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return done < total;
+		}
+
+		@Override
+		public LargeChangeMove next() {
+
+			done++;
+
+			List<PlanPerson> persons = solution.getPersons();
+			int maxK = solution.getMaxK();
+
+			// Prefer indices with larger error
+			double r = random.nextDouble();
+			int idx = candidates[(int) (r * r * candidates.length)];
+			int deviation = calc.getDeviation(idx);
+
+			int from = personOffsets[idx];
+			int to = personOffsets[idx + 1];
+
+			List<PlanPerson> subset = new ArrayList<>(size);
+			IntArrayList ks = new IntArrayList(size);
+
+			for (int i = 0; i < size; i++) {
+
+				if (from == to) {
+					subset.add(persons.get(random.nextInt(persons.size())));
+					ks.add(random.nextInt(maxK));
+					continue;
+				}
+
+				PlanPerson person = persons.get(personIndices[from + random.nextInt(to - from)]);
+				subset.add(person);
+				ks.add(choosePlan(person, idx, deviation, maxK));
+			}
+
+			LargeChangeMove move = new LargeChangeMove(subset, ks.toIntArray());
+			issued.add(move);
+			return move;
+		}
+
+		/**
+		 * Choose a random plan that changes the count at the index towards the real count, or any random plan if there is none.
+		 */
+		private int choosePlan(PlanPerson person, int idx, int deviation, int maxK) {
+
+			PlanContributions c = person.getContributions();
+			int current = c.get(person.selected(), idx);
+
+			int chosen = random.nextInt(maxK);
+			int seen = 0;
+			for (int k = 0; k < maxK; k++) {
+				int change = c.get(person.get(k), idx) - current;
+				if (deviation > 0 ? change < 0 : change > 0) {
+					// reservoir sampling among the suitable plans
+					if (random.nextInt(++seen) == 0)
+						chosen = k;
+				}
+			}
+
+			return chosen;
+		}
+	}
+}
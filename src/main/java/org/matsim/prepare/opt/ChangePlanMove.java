@@ -0,0 +1,46 @@
+package org.matsim.prepare.opt;
+
+import org.optaplanner.core.api.score.director.ScoreDirector;
+import org.optaplanner.core.impl.heuristic.move.AbstractMove;
+
+/**
+ * Switch the plan of one person. Moves to a plan with the same count contributions are not doable,
+ * because they can not change the score.
+ */
+public class ChangePlanMove extends AbstractMove<PlanAssignmentProblem> {
+
+	private final PlanPerson person;
+	private final int k;
+
+	public ChangePlanMove(PlanPerson person, int k) {
+		this.person = person;
+		this.k = k;
+	}
+
+	@Override
+	protected ChangePlanMove createUndoMove(ScoreDirector<PlanAssignmentProblem> scoreDirector) {
+		return new ChangePlanMove(person, person.getK());
+	}
+
+	@Override
+	protected void doMoveOnGenuineVariables(ScoreDirector<PlanAssignmentProblem> scoreDirector) {
+		scoreDirector.beforeVariableChanged(person, "k");
+		person.setK(k);
+		scoreDirector.afterVariableChanged(person, "k");
+	}
+
+	@Override
+	public ChangePlanMove rebase(ScoreDirector<PlanAssignmentProblem> destinationScoreDirector) {
+		return new ChangePlanMove(destinationScoreDirector.lookUpWorkingObject(person), k);
+	}
+
+	@Override
+	public boolean isMoveDoable(ScoreDirector<PlanAssignmentProblem> scoreDirector) {
+		return !person.getContributions().isEqual(person.selected(), person.get(k));
+	}
+
+	@Override
+	public String toString() {
+		return person.getId() + " {" + person.getK() + " -> " + k + "}";
+	}
+}
@@ -0,0 +1,67 @@
+package org.matsim.prepare.opt;
+
+import org.optaplanner.core.api.score.director.ScoreDirector;
+import org.optaplanner.core.impl.heuristic.selector.move.factory.MoveIteratorFactory;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+/**
+ * Select random plan changes of single persons, see {@link ChangePlanMove}.
+ */
+public class ChangePlanMoveSelector implements MoveIteratorFactory<PlanAssignmentProblem, ChangePlanMove> {
+
+	@Override
+	public long getSize(ScoreDirector<PlanAssignmentProblem> scoreDirector) {
+		PlanAssignmentProblem problem = scoreDirector.getWorkingSolution();
+		return (long) problem.getSize() * problem.getMaxK();
+	}
+
+	@Override
+	public Iterator<ChangePlanMove> createOriginalMoveIterator(ScoreDirector<PlanAssignmentProblem> scoreDirector) {
+		PlanAssignmentProblem problem = scoreDirector.getWorkingSolution();
+		List<PlanPerson> persons = problem.getPersons();
+		int maxK = problem.getMaxK();
+
+		return new Iterator<>() {
+
+			private int i = 0;
+
+			@Override
+			public boolean hasNext() {
+				return i < persons.size() * maxK;
+			}
+
+			@Override
+			public ChangePlanMove next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+
+				ChangePlanMove move = new ChangePlanMove(persons.get(i / maxK), i % maxK);
+				i++;
+				return move;
+			}
+		};
+	}
+
+	@Override
+	public Iterator<ChangePlanMove> createRandomMoveIterator(ScoreDirector<PlanAssignmentProblem> scoreDirector, Random workingRandom) {
+		PlanAssignmentProblem problem = scoreDirector.getWorkingSolution();
+		List<PlanPerson> persons = problem.getPersons();
+		int maxK = problem.getMaxK();
+
+		return new Iterator<>() {
+			@Override
+			public boolean hasNext() {
+				return !persons.isEmpty();
+			}
+
+			@Override
+			public ChangePlanMove next() {
+				return new ChangePlanMove(persons.get(workingRandom.nextInt(persons.size())), workingRandom.nextInt(maxK));
+			}
+		};
+	}
+}
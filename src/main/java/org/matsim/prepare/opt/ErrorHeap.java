@@ -0,0 +1,145 @@
+package org.matsim.prepare.opt;
+
+import it.unimi.dsi.fastutil.ints.IntHeapPriorityQueue;
+
+import java.util.BitSet;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Indexed max-heap over the error of each count index.
+ * Changed indices are only marked as dirty and re-inserted when the heap is queried, because most changes are undone right away during move evaluation.
+ */
+final class ErrorHeap {
+
+	/**
+	 * Count index at each heap position.
+	 */
+	private final int[] heap;
+
+	/**
+	 * Heap position of each count index.
+	 */
+	private final int[] pos;
+	private final double[] value;
+	private final BitSet dirty;
+
+	ErrorHeap(int size) {
+		this.heap = new int[size];
+		this.pos = new int[size];
+		this.value = new double[size];
+		this.dirty = new BitSet(size);
+	}
+
+	/**
+	 * Number of count indices.
+	 */
+	int size() {
+		return heap.length;
+	}
+
+	/**
+	 * Mark the error of an index as changed.
+	 */
+	void markDirty(int idx) {
+		dirty.set(idx);
+	}
+
+	/**
+	 * Recompute all values and restore the heap.
+	 */
+	void rebuild(IntToDoubleFunction error) {
+		for (int i = 0; i < heap.length; i++) {
+			heap[i] = i;
+			pos[i] = i;
+			value[i] = error.applyAsDouble(i);
+		}
+
+		for (int i = heap.length / 2 - 1; i >= 0; i--) {
+			siftDown(i);
+		}
+
+		dirty.clear();
+	}
+
+	/**
+	 * Update the values of all dirty indices.
+	 */
+	void refresh(IntToDoubleFunction error) {
+		for (int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1)) {
+			double v = error.applyAsDouble(i);
+			double old = value[i];
+			value[i] = v;
+			if (v > old)
+				siftUp(pos[i]);
+			else if (v < old)
+				siftDown(pos[i]);
+		}
+
+		dirty.clear();
+	}
+
+	/**
+	 * Return the count indices with the n largest errors, in descending order.
+	 */
+	int[] top(int n) {
+
+		n = Math.min(n, heap.length);
+		int[] result = new int[n];
+		if (n == 0)
+			return result;
+
+		// Heap positions ordered by their value, children are only added once the parent has been taken
+		IntHeapPriorityQueue queue = new IntHeapPriorityQueue((a, b) -> Double.compare(value[heap[b]], value[heap[a]]));
+		queue.enqueue(0);
+
+		for (int i = 0; i < n; i++) {
+			int p = queue.dequeueInt();
+			result[i] = heap[p];
+
+			if (2 * p + 1 < heap.length)
+				queue.enqueue(2 * p + 1);
+			if (2 * p + 2 < heap.length)
+				queue.enqueue(2 * p + 2);
+		}
+
+		return result;
+	}
+
+	private void siftUp(int p) {
+		while (p > 0) {
+			int parent = (p - 1) / 2;
+			if (value[heap[parent]] >= value[heap[p]])
+				break;
+
+			swap(p, parent);
+			p = parent;
+		}
+	}
+
+	private void siftDown(int p) {
+		while (true) {
+			int l = 2 * p + 1;
+			int r = l + 1;
+			int max = p;
+
+			if (l < heap.length && value[heap[l]] > value[heap[max]])
+				max = l;
+			if (r < heap.length && value[heap[r]] > value[heap[max]])
+				max = r;
+
+			if (max == p)
+				break;
+
+			swap(p, max);
+			p = max;
+		}
+	}
+
+	private void swap(int a, int b) {
+		int tmp = heap[a];
+		heap[a] = heap[b];
+		heap[b] = tmp;
+		pos[heap[a]] = a;
+		pos[heap[b]] = b;
+	}
+}
@@ -0,0 +1,134 @@
+package org.matsim.prepare.opt;
+
+/**
+ * Specialised implementation of an {@link ErrorMetric}.
+ * Incremental and full calculation use the same error term per count index, so that both produce the same values up to summation order.
+ */
+abstract sealed class ErrorKernel {
+
+	/**
+	 * Constant added to counts to avoid division by zero and log 0.
+	 */
+	static final double C = 15.0;
+
+	private static final ErrorKernel ABS = new Abs();
+	private static final ErrorKernel LOG = new Log();
+	private static final ErrorKernel SYMMETRIC_PERCENTAGE = new SymmetricPercentage();
+
+	/**
+	 * Return the kernel for a metric.
+	 */
+	static ErrorKernel of(ErrorMetric metric) {
+		return switch (metric) {
+			case abs_error -> ABS;
+			case log_error -> LOG;
+			case symmetric_percentage_error -> SYMMETRIC_PERCENTAGE;
+		};
+	}
+
+	/**
+	 * Error at one count index.
+	 */
+	abstract double error(int count, int observed);
+
+	/**
+	 * Change of the error, when the observed value changes from {@code old} to {@code update}.
+	 */
+	double diff(int count, int old, int update) {
+		return error(count, update) - error(count, old);
+	}
+
+	/**
+	 * Total error over all count indices.
+	 */
+	abstract double total(int[] counts, int[] observed);
+
+	/**
+	 * Absolute error.
+	 */
+	private static final class Abs extends ErrorKernel {
+
+		@Override
+		double error(int count, int observed) {
+			return Math.abs(count - observed);
+		}
+
+		@Override
+		double diff(int count, int old, int update) {
+			return Math.abs(count - update) - Math.abs(count - old);
+		}
+
+		@Override
+		double total(int[] counts, int[] observed) {
+			// integer sum is exact and can be vectorized by the jit
+			long sum = 0;
+			for (int j = 0; j < counts.length; j++) {
+				sum += Math.abs(counts[j] - observed[j]);
+			}
+			return sum;
+		}
+	}
+
+	/**
+	 * Absolute difference of the logarithms, values for small counts are looked up in a table.
+	 */
+	private static final class Log extends ErrorKernel {
+
+		private static final int SIZE = 1 << 14;
+
+		private static final double[] TABLE = new double[SIZE];
+
+		static {
+			for (int i = 0; i < SIZE; i++) {
+				TABLE[i] = StrictMath.log(i + C);
+			}
+		}
+
+		/**
+		 * Uses {@link StrictMath} like the table, so that values do not depend on whether they are looked up.
+		 */
+		private static double log(int x) {
+			return x >= 0 && x < SIZE ? TABLE[x] : StrictMath.log(x + C);
+		}
+
+		@Override
+		double error(int count, int observed) {
+			return Math.abs(log(observed) - log(count));
+		}
+
+		@Override
+		double diff(int count, int old, int update) {
+			double c = log(count);
+			return Math.abs(log(update) - c) - Math.abs(log(old) - c);
+		}
+
+		@Override
+		double total(int[] counts, int[] observed) {
+			double sum = 0;
+			for (int j = 0; j < counts.length; j++) {
+				sum += Math.abs(log(observed[j]) - log(counts[j]));
+			}
+			return sum;
+		}
+	}
+
+	/**
+	 * Symmetric percentage error.
+	 */
+	private static final class SymmetricPercentage extends ErrorKernel {
+
+		@Override
+		double error(int count, int observed) {
+			return Math.abs((double) (observed - count) / (observed + count + 2 * C) / 2);
+		}
+
+		@Override
+		double total(int[] counts, int[] observed) {
+			double sum = 0;
+			for (int j = 0; j < counts.length; j++) {
+				sum += Math.abs((double) (observed[j] - counts[j]) / (observed[j] + counts[j] + 2 * C) / 2);
+			}
+			return sum;
+		}
+	}
+}
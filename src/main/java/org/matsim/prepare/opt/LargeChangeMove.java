@@ -46,6 +46,17 @@ public class LargeChangeMove extends AbstractMove<PlanAssignmentProblem> {
 		return new LargeChangeMove(other, ks);
 	}
 
+	/**
+	 * Whether all persons currently have the plans of this move, i.e. the move has been applied.
+	 */
+	boolean isApplied() {
+		for (int i = 0; i < ks.length; i++) {
+			if (persons.get(i).getK() != ks[i])
+				return false;
+		}
+		return true;
+	}
+
 	@Override
 	public boolean isMoveDoable(ScoreDirector<PlanAssignmentProblem> scoreDirector) {
 		return true;
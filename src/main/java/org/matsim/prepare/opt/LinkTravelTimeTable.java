@@ -0,0 +1,252 @@
+package org.matsim.prepare.opt;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.api.core.v01.events.handler.LinkEnterEventHandler;
+import org.matsim.api.core.v01.events.handler.LinkLeaveEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleEntersTrafficEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleLeavesTrafficEventHandler;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.core.api.experimental.events.EventsManager;
+import org.matsim.core.events.EventsUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Objects;
+
+/**
+ * Mean travel time of each link per time bin, reconstructed from the events of a simulation.
+ * Link traversals are assigned to the time bin in which the vehicle entered the link.
+ * <p>
+ * The cache file contains magic, version, bin size and number of bins, followed by the id and the travel time of each bin for every traversed link.
+ */
+public final class LinkTravelTimeTable {
+
+	private static final int MAGIC = 0x4D4C5454;
+	private static final int VERSION = 1;
+
+	private final double binSize;
+	private final int bins;
+
+	/**
+	 * Mean travel time by link index and bin, NaN if there was no traversal.
+	 */
+	private float[] table;
+
+	private LinkTravelTimeTable(double binSize, int bins, float[] table) {
+		this.binSize = binSize;
+		this.bins = bins;
+		this.table = table;
+	}
+
+	/**
+	 * Read the events once and compute the mean travel times of vehicles with the given network mode.
+	 */
+	public static LinkTravelTimeTable fromEvents(Path events, String networkMode, double binSize, int bins) {
+
+		Handler handler = new Handler(networkMode, binSize, bins);
+
+		EventsManager manager = EventsUtils.createEventsManager();
+		manager.addHandler(handler);
+		manager.initProcessing();
+		EventsUtils.readEvents(manager, events.toString());
+		manager.finishProcessing();
+
+		float[] table = new float[handler.sum.length];
+		for (int i = 0; i < table.length; i++) {
+			table[i] = handler.count[i] > 0 ? (float) (handler.sum[i] / handler.count[i]) : Float.NaN;
+		}
+
+		return new LinkTravelTimeTable(binSize, bins, table);
+	}
+
+	/**
+	 * Read a cached table.
+	 */
+	public static LinkTravelTimeTable read(Path path) throws IOException {
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+
+			if (in.readInt() != MAGIC)
+				throw new IOException("File " + path + " is not a link travel time table.");
+
+			int version = in.readInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported version %d of travel time table %s".formatted(version, path));
+
+			double binSize = in.readDouble();
+			int bins = in.readInt();
+			int links = in.readInt();
+
+			LinkTravelTimeTable result = new LinkTravelTimeTable(binSize, bins, new float[0]);
+			for (int i = 0; i < links; i++) {
+				int idx = Id.createLinkId(in.readUTF()).index();
+				result.ensureCapacity(idx);
+				for (int b = 0; b < bins; b++) {
+					result.table[idx * bins + b] = in.readFloat();
+				}
+			}
+
+			return result;
+		}
+	}
+
+	/**
+	 * Write the table, so that it can be reused without reading the events again.
+	 */
+	public void write(Path path) throws IOException {
+
+		int links = table.length / bins;
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeDouble(binSize);
+			out.writeInt(bins);
+
+			int n = 0;
+			for (int i = 0; i < links; i++) {
+				if (isTraversed(i))
+					n++;
+			}
+
+			out.writeInt(n);
+			for (int i = 0; i < links; i++) {
+				if (!isTraversed(i))
+					continue;
+
+				out.writeUTF(Id.get(i, Link.class).toString());
+				for (int b = 0; b < bins; b++) {
+					out.writeFloat(table[i * bins + b]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Return the mean travel time on a link when entering at the given time, or NaN if it is not known.
+	 */
+	public double getTravelTime(Id<Link> linkId, double time) {
+		int idx = linkId.index();
+		if (idx * bins >= table.length)
+			return Double.NaN;
+
+		return table[idx * bins + bin(time, binSize, bins)];
+	}
+
+	private boolean isTraversed(int link) {
+		for (int b = 0; b < bins; b++) {
+			if (!Float.isNaN(table[link * bins + b]))
+				return true;
+		}
+		return false;
+	}
+
+	private void ensureCapacity(int idx) {
+		int size = (idx + 1) * bins;
+		if (size > table.length) {
+			int old = table.length;
+			table = Arrays.copyOf(table, roundToBins(Math.max(size, table.length * 3 / 2), bins));
+			Arrays.fill(table, old, table.length, Float.NaN);
+		}
+	}
+
+	/**
+	 * Round size up to whole links, so that each link has all bins.
+	 */
+	private static int roundToBins(int size, int bins) {
+		return (size + bins - 1) / bins * bins;
+	}
+
+	private static int bin(double time, double binSize, int bins) {
+		return Math.max(0, Math.min(bins - 1, (int) (time / binSize)));
+	}
+
+	/**
+	 * Sums travel times of link traversals per link and bin.
+	 */
+	private static final class Handler implements VehicleEntersTrafficEventHandler, VehicleLeavesTrafficEventHandler,
+		LinkEnterEventHandler, LinkLeaveEventHandler {
+
+		private final String networkMode;
+		private final double binSize;
+		private final int bins;
+
+		/**
+		 * Vehicles (by index) currently in traffic with the relevant mode.
+		 */
+		private final BitSet active = new BitSet();
+
+		/**
+		 * Time the vehicle entered its current link, NaN if it did not enter via a link enter event.
+		 */
+		private double[] enterTime = new double[0];
+
+		private double[] sum = new double[0];
+		private int[] count = new int[0];
+
+		Handler(String networkMode, double binSize, int bins) {
+			this.networkMode = networkMode;
+			this.binSize = binSize;
+			this.bins = bins;
+		}
+
+		@Override
+		public void handleEvent(VehicleEntersTrafficEvent event) {
+			int v = event.getVehicleId().index();
+			if (Objects.equals(event.getNetworkMode(), networkMode)) {
+				active.set(v);
+				setEnterTime(v, Double.NaN);
+			}
+		}
+
+		@Override
+		public void handleEvent(VehicleLeavesTrafficEvent event) {
+			active.clear(event.getVehicleId().index());
+		}
+
+		@Override
+		public void handleEvent(LinkEnterEvent event) {
+			int v = event.getVehicleId().index();
+			if (active.get(v))
+				setEnterTime(v, event.getTime());
+		}
+
+		@Override
+		public void handleEvent(LinkLeaveEvent event) {
+			int v = event.getVehicleId().index();
+			if (!active.get(v) || Double.isNaN(enterTime[v]))
+				return;
+
+			int idx = event.getLinkId().index() * bins + bin(enterTime[v], binSize, bins);
+			if (idx >= sum.length) {
+				int size = roundToBins(Math.max(idx + 1, sum.length * 3 / 2), bins);
+				sum = Arrays.copyOf(sum, size);
+				count = Arrays.copyOf(count, size);
+			}
+
+			sum[idx] += event.getTime() - enterTime[v];
+			count[idx]++;
+		}
+
+		private void setEnterTime(int v, double time) {
+			if (v >= enterTime.length) {
+				int old = enterTime.length;
+				enterTime = Arrays.copyOf(enterTime, Math.max(v + 1, old * 3 / 2));
+				Arrays.fill(enterTime, old, enterTime.length, Double.NaN);
+			}
+			enterTime[v] = time;
+		}
+	}
+}
@@ -7,10 +7,13 @@ import org.optaplanner.core.api.domain.solution.cloner.SolutionCloner;
 import org.optaplanner.core.api.domain.valuerange.CountableValueRange;
 import org.optaplanner.core.api.domain.valuerange.ValueRangeFactory;
 import org.optaplanner.core.api.domain.valuerange.ValueRangeProvider;
-import org.optaplanner.core.api.score.buildin.simplebigdecimal.SimpleBigDecimalScore;
+import org.optaplanner.core.api.score.buildin.simplelong.SimpleLongScore;
 
-import java.math.BigDecimal;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
 
 /**
  * Planning problem containing all entities and information.
@@ -18,27 +21,38 @@ import java.util.*;
 @PlanningSolution(solutionCloner = PlanAssignmentProblem.Cloner.class)
 public final class PlanAssignmentProblem implements Iterable<PlanPerson> {
 
+	/**
+	 * Number of persons that are processed together in parallel iterations.
+	 */
+	private static final int CHUNK_SIZE = 4096;
+
 	final int[] counts;
 	final ErrorMetric metric;
 	private final int maxK;
 	@PlanningEntityCollectionProperty
 	private final List<PlanPerson> persons;
 	@PlanningScore
-	private SimpleBigDecimalScore score;
+	private SimpleLongScore score;
+
+	/**
+	 * Score calculator working on this solution, which provides the current error per count index to move selectors.
+	 * It is not part of the planning domain and is set again for clones when their working solution is reset.
+	 */
+	private ScoreCalculator calculator;
 
 	public PlanAssignmentProblem(int maxK, ErrorMetric metric, List<PlanPerson> persons, int[] counts) {
 		this.maxK = maxK;
 		this.metric = metric;
 		this.persons = persons;
 		this.counts = counts;
-		this.score = SimpleBigDecimalScore.ofUninitialized(-1, BigDecimal.ZERO);
+		this.score = SimpleLongScore.ofUninitialized(-1, 0);
 
 		persons.sort(new PlanPerson.DifficultyComparator());
 		Collections.reverse(persons);
 	}
 
 
-	private PlanAssignmentProblem(int maxK, ErrorMetric metric, List<PlanPerson> persons, int[] counts, SimpleBigDecimalScore score) {
+	private PlanAssignmentProblem(int maxK, ErrorMetric metric, List<PlanPerson> persons, int[] counts, SimpleLongScore score) {
 		this.maxK = maxK;
 		this.metric = metric;
 		this.persons = persons;
@@ -58,14 +72,25 @@ public final class PlanAssignmentProblem implements Iterable<PlanPerson> {
 		return persons.size();
 	}
 
-	public SimpleBigDecimalScore getScore() {
+	public SimpleLongScore getScore() {
 		return score;
 	}
 
-	public void setScore(SimpleBigDecimalScore score) {
+	public void setScore(SimpleLongScore score) {
 		this.score = score;
 	}
 
+	/**
+	 * Score calculator of the score director working on this solution, or null if it is not a working solution.
+	 */
+	ScoreCalculator getCalculator() {
+		return calculator;
+	}
+
+	void setCalculator(ScoreCalculator calculator) {
+		this.calculator = calculator;
+	}
+
 	@ValueRangeProvider(id = "numPlans")
 	public CountableValueRange<Integer> getPlanRange() {
 		return ValueRangeFactory.createIntValueRange(0, maxK);
@@ -80,51 +105,131 @@ public final class PlanAssignmentProblem implements Iterable<PlanPerson> {
 	 * Iterative pre optimization using change plan exp beta logic.
 	 */
 	public void iterate(int n, double prob, double beta, double w) {
+		iterate(n, prob, beta, w, 1);
+	}
+
+	/**
+	 * Iterative pre optimization using change plan exp beta logic, with persons processed in parallel chunks.
+	 * Within one iteration all persons see the same observed counts, so chunks are independent of each other.
+	 * Each chunk has its own random stream, results are therefore the same for any number of threads.
+	 */
+	public void iterate(int n, double prob, double beta, double w, int threads) {
+		iterate(n, prob, beta, w, threads, null);
+	}
+
+	/**
+	 * Iterative pre optimization as above, which stops at the latest after the time limit.
+	 *
+	 * @param limit time limit, or null if unlimited
+	 * @return number of performed iterations, evaluated and changed persons
+	 */
+	public IterationResult iterate(int n, double prob, double beta, double w, int threads, Duration limit) {
 
 		ScoreCalculator calc = new ScoreCalculator();
-		calc.resetWorkingSolution(this);
-		score = calc.calculateScore();
 
-		RunCountOptimization.log.info("Iterating {} iters with prob {} and beta {}", n, prob, beta);
+		RunCountOptimization.log.info("Iterating {} iters with prob {} and beta {} using {} threads", n, prob, beta, threads);
 
 		SplittableRandom rnd = new SplittableRandom(0);
 
+		int nChunks = (persons.size() + CHUNK_SIZE - 1) / CHUNK_SIZE;
+		SplittableRandom[] rnds = new SplittableRandom[nChunks];
+		for (int c = 0; c < nChunks; c++) {
+			rnds[c] = rnd.split();
+		}
+
 		double step = prob / n;
 
-		double best = score.score().doubleValue();
+		double best = Double.POSITIVE_INFINITY;
 		int noBest = 0;
 
-		for (int i = 0; i < n; i++) {
+		long end = limit != null ? System.currentTimeMillis() + limit.toMillis() : Long.MAX_VALUE;
+		int i = 0;
 
-			calc.resetWorkingSolution(this);
-			score = calc.calculateScore();
+		LongAdder evaluated = new LongAdder();
+		LongAdder changed = new LongAdder();
 
-			if (i % 100 == 0)
-				RunCountOptimization.log.info("Iteration {} score: {}", i, score);
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
 
-			if (score.score().doubleValue() >= best) {
-				best = score.score().doubleValue();
-				noBest = 0;
-			} else {
-				noBest++;
-			}
+			// Integer sums do not depend on the order of the chunks
+			int[] observed = pool.submit(() -> IntStream.range(0, nChunks).parallel()
+				.collect(() -> new int[counts.length], (obs, c) -> ScoreCalculator.addObserved(chunk(c), obs), PlanAssignmentProblem::add)
+			).join();
 
-			if (noBest >= 30) {
-				RunCountOptimization.log.info("Stopping after {} with score: {}", i, score);
-				break;
-			}
+			for (; i < n; i++) {
+
+				if (System.currentTimeMillis() > end) {
+					RunCountOptimization.log.info("Stopping after {} due to time limit with score: {}", i, score);
+					break;
+				}
+
+				calc.resetWorkingSolution(this, observed);
+				score = calc.calculateScore();
 
-			// Best p and beta are not known, so it will be annealed
-			double p = prob - step * i;
-			double b = beta - (beta / n) * i;
+				if (i % 100 == 0)
+					RunCountOptimization.log.info("Iteration {} score: {}", i, score);
 
-			for (PlanPerson person : persons) {
+				if (ScoreCalculator.toError(score) <= best) {
+					best = ScoreCalculator.toError(score);
+					noBest = 0;
+				} else {
+					noBest++;
+				}
 
-				if (rnd.nextDouble() < p) {
-					person.setScore(calc);
-					person.setK(person.changePlanExpBeta(b, w, rnd));
+				if (noBest >= 30) {
+					RunCountOptimization.log.info("Stopping after {} with score: {}", i, score);
+					break;
 				}
+
+				// Best p and beta are not known, so it will be annealed
+				double p = prob - step * i;
+				double b = beta - (beta / n) * i;
+
+				// Only the differences of changed plans are applied to the observed counts
+				int[] delta = pool.submit(() -> IntStream.range(0, nChunks).parallel()
+					.collect(() -> new int[counts.length], (d, c) -> {
+						SplittableRandom r = rnds[c];
+						for (PlanPerson person : chunk(c)) {
+							if (r.nextDouble() < p) {
+								person.setScore(calc);
+								int old = person.selected();
+								person.setK(person.changePlanExpBeta(b, w, r));
+								evaluated.increment();
+								if (old != person.selected()) {
+									changed.increment();
+									person.getContributions().diff(old, person.selected(), (idx, v) -> d[idx] += v);
+								}
+							}
+						}
+					}, PlanAssignmentProblem::add)
+				).join();
+
+				add(observed, delta);
 			}
+		} finally {
+			pool.shutdown();
+		}
+
+		return new IterationResult(i, evaluated.sum(), changed.sum());
+	}
+
+	/**
+	 * Result of {@link #iterate(int, double, double, double, int, Duration)}.
+	 *
+	 * @param iterations number of performed iterations
+	 * @param evaluated  number of persons whose plans have been evaluated for a change
+	 * @param changed    number of persons that selected a different plan
+	 */
+	public record IterationResult(int iterations, long evaluated, long changed) {
+	}
+
+	private List<PlanPerson> chunk(int c) {
+		return persons.subList(c * CHUNK_SIZE, Math.min(persons.size(), (c + 1) * CHUNK_SIZE));
+	}
+
+	private static void add(int[] target, int[] other) {
+		for (int i = 0; i < target.length; i++) {
+			target[i] += other[i];
 		}
 	}
 
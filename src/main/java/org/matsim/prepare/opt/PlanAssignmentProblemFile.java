@@ -0,0 +1,272 @@
+package org.matsim.prepare.opt;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiled {@link PlanAssignmentProblem}, which contains everything needed to run the optimization again without reading network, counts and plans.
+ * The options the problem has been compiled with are stored as well, so that a stale file can be detected.
+ * The arrays are copied to the heap when reading, because the solver works on plain arrays.
+ * Only the selected plan of each person is updated in place after solving, using a memory mapping.
+ * <p>
+ * Layout: magic, version, plans per person, number of counts, persons, rows and entries, the compile options as key value strings,
+ * followed by the counts, the packed plan contributions, row, offset and selected plan (-1 if not solved) of each person, and the person ids.
+ */
+public final class PlanAssignmentProblemFile {
+
+	private static final int MAGIC = 0x4D50414F;
+	private static final int VERSION = 2;
+
+	/**
+	 * Ints stored for each person.
+	 */
+	private static final int PERSON_INTS = 3;
+
+	private PlanAssignmentProblemFile() {
+	}
+
+	/**
+	 * Write the problem, persons must have {@code plans} plans each.
+	 *
+	 * @param options options and inputs the problem has been compiled with
+	 */
+	public static void write(Path path, PlanAssignmentProblem problem, int plans, Map<String, String> options) throws IOException {
+
+		List<PlanPerson> persons = problem.getPersons();
+		PlanContributions contributions = persons.isEmpty() ? new PlanContributions() : persons.get(0).getContributions();
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(plans);
+			out.writeInt(problem.counts.length);
+			out.writeInt(persons.size());
+			out.writeInt(contributions.getRows());
+			out.writeInt(contributions.getSize());
+
+			out.writeInt(options.size());
+			for (Map.Entry<String, String> e : options.entrySet()) {
+				writeString(out, e.getKey());
+				writeString(out, e.getValue());
+			}
+
+			for (int count : problem.counts) {
+				out.writeInt(count);
+			}
+
+			contributions.write(out);
+
+			for (PlanPerson person : persons) {
+				if (person.getContributions() != contributions)
+					throw new IllegalArgumentException("All persons must share the same plan contributions.");
+
+				out.writeInt(person.get(0));
+				out.writeInt(person.getOffset());
+				out.writeInt(-1);
+			}
+
+			for (PlanPerson person : persons) {
+				writeString(out, person.getId().toString());
+			}
+		}
+	}
+
+	/**
+	 * Read the options the problem has been compiled with.
+	 */
+	public static Map<String, String> readOptions(Path path) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return Header.read(map(channel, path, FileChannel.MapMode.READ_ONLY), path).options;
+		}
+	}
+
+	/**
+	 * Read the problem and use at most {@code maxK} plans of each person.
+	 *
+	 * @param warmStart start from the selection of a previous solution stored in the file, otherwise all persons start with their first plan
+	 */
+	public static PlanAssignmentProblem read(Path path, int maxK, ErrorMetric metric, boolean warmStart) throws IOException {
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+			MappedByteBuffer buf = map(channel, path, FileChannel.MapMode.READ_ONLY);
+			Header header = Header.read(buf, path);
+
+			if (maxK > header.plans)
+				throw new IllegalArgumentException("Problem %s has been compiled with %d plans per person, but %d were requested.".formatted(path, header.plans, maxK));
+
+			IntBuffer ints = buf.asIntBuffer();
+
+			int[] counts = new int[header.counts];
+			ints.get(counts);
+
+			int[] offsets = new int[header.rows + 1];
+			int[] indices = new int[header.entries];
+			int[] values = new int[header.entries];
+			ints.get(offsets);
+			ints.get(indices);
+			ints.get(values);
+
+			PlanContributions contributions = new PlanContributions(offsets, indices, values);
+
+			int[] info = new int[header.persons * PERSON_INTS];
+			ints.get(info);
+
+			buf.position(buf.position() + ints.position() * Integer.BYTES);
+
+			List<PlanPerson> persons = new ArrayList<>(header.persons);
+			for (int i = 0; i < header.persons; i++) {
+				PlanPerson person = new PlanPerson(Id.createPersonId(readString(buf)), info[i * PERSON_INTS + 1], contributions, info[i * PERSON_INTS], maxK);
+				int k = info[i * PERSON_INTS + 2];
+				if (warmStart && k >= 0 && k < maxK)
+					person.setK(k);
+
+				persons.add(person);
+			}
+
+			return new PlanAssignmentProblem(maxK, metric, persons, counts);
+		}
+	}
+
+	/**
+	 * Store the selected plans of a solution in an existing problem file.
+	 */
+	public static void writeSelection(Path path, PlanAssignmentProblem solution) throws IOException {
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+
+			MappedByteBuffer buf = map(channel, path, FileChannel.MapMode.READ_WRITE);
+			Header header = Header.read(buf, path);
+
+			Object2IntMap<Id<Person>> pos = readPersons(buf, header);
+
+			for (PlanPerson person : solution) {
+				int i = pos.getInt(person.getId());
+				if (i == -1)
+					throw new IllegalArgumentException("Person %s is not part of problem %s".formatted(person.getId(), path));
+
+				buf.putInt(header.personStart() + (i * PERSON_INTS + 2) * Integer.BYTES, person.getK());
+			}
+
+			buf.force();
+		}
+	}
+
+	/**
+	 * Read the index of the selected plan of each person, relative to the plans of the input. Persons without solution are not contained.
+	 */
+	public static Object2IntMap<Id<Person>> readSelection(Path path) throws IOException {
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+			MappedByteBuffer buf = map(channel, path, FileChannel.MapMode.READ_ONLY);
+			Header header = Header.read(buf, path);
+
+			Object2IntMap<Id<Person>> pos = readPersons(buf, header);
+			Object2IntMap<Id<Person>> selection = new Object2IntOpenHashMap<>();
+
+			for (Object2IntMap.Entry<Id<Person>> e : pos.object2IntEntrySet()) {
+				int offset = header.personStart() + e.getIntValue() * PERSON_INTS * Integer.BYTES;
+				int k = buf.getInt(offset + 2 * Integer.BYTES);
+				if (k >= 0)
+					selection.put(e.getKey(), k - buf.getInt(offset + Integer.BYTES));
+			}
+
+			return selection;
+		}
+	}
+
+	private static MappedByteBuffer map(FileChannel channel, Path path, FileChannel.MapMode mode) throws IOException {
+		if (channel.size() > Integer.MAX_VALUE)
+			throw new IOException("Problem file " + path + " is too large to be mapped.");
+
+		return channel.map(mode, 0, channel.size());
+	}
+
+	/**
+	 * Read person ids and return their position in the file.
+	 */
+	private static Object2IntMap<Id<Person>> readPersons(ByteBuffer buf, Header header) {
+		Object2IntMap<Id<Person>> pos = new Object2IntOpenHashMap<>();
+		pos.defaultReturnValue(-1);
+
+		buf.position(header.personStart() + header.persons * PERSON_INTS * Integer.BYTES);
+		for (int i = 0; i < header.persons; i++) {
+			pos.put(Id.createPersonId(readString(buf)), i);
+		}
+
+		return pos;
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(ByteBuffer buf) {
+		byte[] bytes = new byte[buf.getInt()];
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Sizes and options stored at the beginning of the file.
+	 *
+	 * @param dataStart byte position of the counts
+	 */
+	private record Header(int plans, int counts, int persons, int rows, int entries, Map<String, String> options, int dataStart) {
+
+		/**
+		 * Read the header, the buffer is positioned at the counts afterward.
+		 */
+		static Header read(ByteBuffer buf, Path path) throws IOException {
+			if (buf.getInt() != MAGIC)
+				throw new IOException("File " + path + " is not a compiled count optimization problem.");
+
+			int version = buf.getInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported version %d of problem file %s, it needs to be compiled again.".formatted(version, path));
+
+			int plans = buf.getInt();
+			int counts = buf.getInt();
+			int persons = buf.getInt();
+			int rows = buf.getInt();
+			int entries = buf.getInt();
+
+			int n = buf.getInt();
+			Map<String, String> options = new LinkedHashMap<>();
+			for (int i = 0; i < n; i++) {
+				options.put(readString(buf), readString(buf));
+			}
+
+			return new Header(plans, counts, persons, rows, entries, options, buf.position());
+		}
+
+		/**
+		 * Byte position of the first person.
+		 */
+		int personStart() {
+			return dataStart + (counts + rows + 1 + 2 * entries) * Integer.BYTES;
+		}
+	}
+}
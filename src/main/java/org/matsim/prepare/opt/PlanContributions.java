@@ -0,0 +1,210 @@
+package org.matsim.prepare.opt;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Count increments of all candidate plans, packed in compressed sparse row format.
+ * Each plan is one row, its entries are the count indices (station x hour) and the increment at this index.
+ * Entries of a row are sorted by count index and stored contiguously.
+ */
+public final class PlanContributions {
+
+	private static final double GROWTH = 1.5;
+
+	private int rows;
+	private int size;
+
+	/**
+	 * Start of each row in {@link #indices} and {@link #values}, with one additional entry for the end of the last row.
+	 */
+	private int[] offsets;
+	private int[] indices;
+	private int[] values;
+
+	public PlanContributions() {
+		this.offsets = new int[1024];
+		this.indices = new int[4096];
+		this.values = new int[4096];
+	}
+
+	/**
+	 * Create from already packed arrays, which are not copied.
+	 */
+	PlanContributions(int[] offsets, int[] indices, int[] values) {
+		this.rows = offsets.length - 1;
+		this.size = indices.length;
+		this.offsets = offsets;
+		this.indices = indices;
+		this.values = values;
+	}
+
+	/**
+	 * Append a plan as new row.
+	 *
+	 * @return index of the row
+	 */
+	public int add(Int2IntMap plan) {
+
+		ensureCapacity(rows + 2, size + plan.size());
+
+		int[] keys = plan.keySet().toIntArray();
+		IntArrays.quickSort(keys);
+
+		for (int key : keys) {
+			indices[size] = key;
+			values[size] = plan.get(key);
+			size++;
+		}
+
+		offsets[++rows] = size;
+		return rows - 1;
+	}
+
+	/**
+	 * Shrink arrays to their used size, once all plans have been added.
+	 */
+	public void trim() {
+		offsets = Arrays.copyOf(offsets, rows + 1);
+		indices = Arrays.copyOf(indices, size);
+		values = Arrays.copyOf(values, size);
+	}
+
+	/**
+	 * Number of rows.
+	 */
+	public int getRows() {
+		return rows;
+	}
+
+	/**
+	 * Total number of entries.
+	 */
+	public int getSize() {
+		return size;
+	}
+
+	/**
+	 * Write the used part of the packed arrays: row offsets, indices and values.
+	 */
+	void write(DataOutputStream out) throws IOException {
+		for (int i = 0; i <= rows; i++) {
+			out.writeInt(offsets[i]);
+		}
+		for (int i = 0; i < size; i++) {
+			out.writeInt(indices[i]);
+		}
+		for (int i = 0; i < size; i++) {
+			out.writeInt(values[i]);
+		}
+	}
+
+	/**
+	 * First entry of a row.
+	 */
+	int start(int row) {
+		return offsets[row];
+	}
+
+	/**
+	 * End of a row (exclusive).
+	 */
+	int end(int row) {
+		return offsets[row + 1];
+	}
+
+	/**
+	 * Count index of an entry.
+	 */
+	int index(int entry) {
+		return indices[entry];
+	}
+
+	/**
+	 * Increment of an entry.
+	 */
+	int value(int entry) {
+		return values[entry];
+	}
+
+	/**
+	 * Increment of a row at the given count index, 0 if not present.
+	 */
+	int get(int row, int index) {
+		int i = Arrays.binarySearch(indices, offsets[row], offsets[row + 1], index);
+		return i >= 0 ? values[i] : 0;
+	}
+
+	/**
+	 * Sum of all increments of a row.
+	 */
+	int sum(int row) {
+		int sum = 0;
+		for (int j = offsets[row]; j < offsets[row + 1]; j++) {
+			sum += values[j];
+		}
+		return sum;
+	}
+
+	/**
+	 * Pass all count indices where the increments of two rows differ to the consumer, together with the change from {@code from} to {@code to}.
+	 * Both rows are sorted by index, so the difference is computed by a single merge without touching shared entries twice.
+	 */
+	void diff(int from, int to, DiffConsumer consumer) {
+
+		int i = offsets[from];
+		int iEnd = offsets[from + 1];
+		int j = offsets[to];
+		int jEnd = offsets[to + 1];
+
+		while (i < iEnd || j < jEnd) {
+
+			int a = i < iEnd ? indices[i] : Integer.MAX_VALUE;
+			int b = j < jEnd ? indices[j] : Integer.MAX_VALUE;
+
+			if (a < b) {
+				consumer.accept(a, -values[i++]);
+			} else if (b < a) {
+				consumer.accept(b, values[j++]);
+			} else {
+				int delta = values[j++] - values[i++];
+				if (delta != 0)
+					consumer.accept(a, delta);
+			}
+		}
+	}
+
+	/**
+	 * Whether two rows have exactly the same entries.
+	 */
+	boolean isEqual(int a, int b) {
+		if (a == b)
+			return true;
+
+		return Arrays.equals(indices, offsets[a], offsets[a + 1], indices, offsets[b], offsets[b + 1]) &&
+			Arrays.equals(values, offsets[a], offsets[a + 1], values, offsets[b], offsets[b + 1]);
+	}
+
+	private void ensureCapacity(int nRows, int nEntries) {
+		if (nRows > offsets.length)
+			offsets = Arrays.copyOf(offsets, Math.max(nRows, (int) (offsets.length * GROWTH)));
+
+		if (nEntries > indices.length) {
+			int capacity = Math.max(nEntries, (int) (indices.length * GROWTH));
+			indices = Arrays.copyOf(indices, capacity);
+			values = Arrays.copyOf(values, capacity);
+		}
+	}
+
+	/**
+	 * Receives the change of increments at one count index.
+	 */
+	@FunctionalInterface
+	interface DiffConsumer {
+		void accept(int index, int delta);
+	}
+}
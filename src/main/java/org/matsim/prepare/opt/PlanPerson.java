@@ -1,7 +1,5 @@
 package org.matsim.prepare.opt;
 
-import it.unimi.dsi.fastutil.ints.Int2IntMap;
-import it.unimi.dsi.fastutil.ints.Int2IntMaps;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.population.Person;
 import org.optaplanner.core.api.domain.entity.PlanningEntity;
@@ -18,11 +16,6 @@ import java.util.SplittableRandom;
 @PlanningEntity(difficultyComparatorClass = PlanPerson.DifficultyComparator.class)
 public final class PlanPerson {
 
-	/**
-	 * A plan that does not affect any count stations.
-	 */
-	public static final Int2IntMap NOOP_PLAN = Int2IntMaps.EMPTY_MAP;
-
 	@PlanningId
 	private final Id<Person> id;
 
@@ -38,9 +31,14 @@ public final class PlanPerson {
 	private Integer k;
 
 	/**
-	 * Plans and their count increment.
+	 * Count increments of all plans, shared between persons.
+	 */
+	private final PlanContributions contributions;
+
+	/**
+	 * Row of the first plan in {@link #contributions}, plans of a person are stored consecutively.
 	 */
-	private final Int2IntMap[] plans;
+	private final int row;
 
 	/**
 	 * Scores of each plan.
@@ -52,17 +50,18 @@ public final class PlanPerson {
 	 */
 	final int maxImpact;
 
-	public PlanPerson(Id<Person> id, int offset, Int2IntMap[] plans) {
+	public PlanPerson(Id<Person> id, int offset, PlanContributions contributions, int row, int numPlans) {
 		this.id = id;
 		this.offset = offset;
-		this.plans = plans;
+		this.contributions = contributions;
+		this.row = row;
 		this.k = 0;
 
 		int max = 0;
-		for (Int2IntMap plan : plans) {
-			max = Math.max(max, plan.values().intStream().sum());
+		for (int i = 0; i < numPlans; i++) {
+			max = Math.max(max, contributions.sum(row + i));
 		}
-		this.scores = new double[plans.length];
+		this.scores = new double[numPlans];
 		Arrays.fill(scores, Float.NaN);
 
 		this.maxImpact = max;
@@ -71,11 +70,12 @@ public final class PlanPerson {
 	/**
 	 * Constructor for cloning.
 	 */
-	private PlanPerson(Integer k, Id<Person> id, int offset, Int2IntMap[] plans, double[] scores, int maxImpact) {
+	private PlanPerson(Integer k, Id<Person> id, int offset, PlanContributions contributions, int row, double[] scores, int maxImpact) {
 		this.k = k;
 		this.id = id;
 		this.offset = offset;
-		this.plans = plans;
+		this.contributions = contributions;
+		this.row = row;
 		this.scores = scores;
 		this.maxImpact = maxImpact;
 	}
@@ -92,14 +92,24 @@ public final class PlanPerson {
 	}
 
 	/**
-	 * Counts of selected maps.
+	 * Shared count increments of all plans.
 	 */
-	public Int2IntMap selected() {
-		return plans[k];
+	public PlanContributions getContributions() {
+		return contributions;
 	}
 
-	public Int2IntMap get(int idx) {
-		return plans[idx];
+	/**
+	 * Row of the selected plan in {@link #getContributions()}.
+	 */
+	public int selected() {
+		return row + k;
+	}
+
+	/**
+	 * Row of the plan with given index in {@link #getContributions()}.
+	 */
+	public int get(int idx) {
+		return row + idx;
 	}
 
 	public void setK(int k) {
@@ -113,14 +123,14 @@ public final class PlanPerson {
 	public void setScore(ScoreCalculator calc) {
 
 
-		for (int i = 0; i < plans.length; i++) {
+		for (int i = 0; i < scores.length; i++) {
 
 			double score = 0;
 
-			Int2IntMap p = plans[i];
+			int p = row + i;
 
-			for (Int2IntMap.Entry e : p.int2IntEntrySet()) {
-				score += calc.scoreEntry(e);
+			for (int j = contributions.start(p); j < contributions.end(p); j++) {
+				score += calc.scoreEntry(contributions.index(j), contributions.value(j));
 			}
 
 			scores[i] = score;
@@ -156,7 +166,7 @@ public final class PlanPerson {
 	}
 
 	PlanPerson copy() {
-		return new PlanPerson(k, id, offset, plans, scores, maxImpact);
+		return new PlanPerson(k, id, offset, contributions, row, scores, maxImpact);
 	}
 
 	/**
@@ -1,9 +1,9 @@
 package org.matsim.prepare.opt;
 
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.doubles.DoubleList;
 import it.unimi.dsi.fastutil.ints.Int2IntMap;
 import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
-import it.unimi.dsi.fastutil.objects.Object2IntLinkedOpenHashMap;
-import it.unimi.dsi.fastutil.objects.Object2IntMap;
 import org.apache.commons.csv.CSVPrinter;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -14,21 +14,22 @@ import org.matsim.api.core.v01.network.Network;
 import org.matsim.api.core.v01.population.*;
 import org.matsim.application.MATSimAppCommand;
 import org.matsim.application.options.CsvOptions;
+import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.network.NetworkUtils;
-import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.population.io.StreamingPopulationReader;
 import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.scenario.ScenarioUtils;
 import org.matsim.counts.Counts;
 import org.matsim.counts.MatsimCountsReader;
 import org.matsim.counts.Measurable;
 import org.matsim.counts.MeasurementLocation;
 import org.matsim.prepare.RunOpenBerlinCalibration;
-import org.optaplanner.core.api.solver.Solver;
-import org.optaplanner.core.api.solver.SolverFactory;
 import picocli.CommandLine;
 
+import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.atomic.AtomicLong;
 
 @CommandLine.Command(name = "run-count-opt", description = "Select plans to match counts data")
 public class RunCountOptimization implements MATSimAppCommand {
@@ -37,16 +38,16 @@ public class RunCountOptimization implements MATSimAppCommand {
 
 	private static final int H = 24;
 
-	@CommandLine.Option(names = "--input", description = "Path to input plans (Usually experienced plans).", required = true)
+	@CommandLine.Option(names = "--input", description = "Path to input plans (Usually experienced plans).")
 	private Path input;
 
 	@CommandLine.Option(names = "--output", description = "Output plan selection csv.", required = true)
 	private Path output;
 
-	@CommandLine.Option(names = "--network", description = "Path to network", required = true)
+	@CommandLine.Option(names = "--network", description = "Path to network")
 	private Path networkPath;
 
-	@CommandLine.Option(names = "--counts", description = "Path to counts", required = true)
+	@CommandLine.Option(names = "--counts", description = "Path to counts")
 	private Path countsPath;
 
 	@CommandLine.Option(names = "--network-mode", description = "Path to vehicle types", defaultValue = TransportMode.car)
@@ -64,10 +65,50 @@ public class RunCountOptimization implements MATSimAppCommand {
 	@CommandLine.Option(names = "--k", description = "Number of plans to use from each agent", defaultValue = "5")
 	private int maxK;
 
+	@CommandLine.Option(names = "--problem", description = "Compiled problem file. It is created from input, network and counts if it does not exist yet, " +
+		"otherwise these are not read again. The run fails if given inputs or options differ from the ones the file has been compiled with. " +
+		"The solution is stored in this file as well.")
+	private Path problemPath;
+
+	@CommandLine.Option(names = "--warm-start", description = "Start from the solution stored in the compiled problem, instead of the first plan of each person. " +
+		"Results then depend on the previous runs.", defaultValue = "false")
+	private boolean warmStart;
+
+	@CommandLine.Option(names = "--beta", description = "Beta of the warm-up phases, defaults depend on the metric.")
+	private Double beta;
+
+	@CommandLine.Option(names = "--events", description = "Events of the simulation, used to reconstruct time dependent link travel times.")
+	private Path eventsPath;
+
+	@CommandLine.Option(names = "--travel-times", description = "Cached link travel time table. It is created from the events if it does not exist yet.")
+	private Path travelTimesPath;
+
+	@CommandLine.Option(names = "--phases", description = "Optimization phases as type[:seconds[:steps]], types are warmup, local, shuffle and adaptive. " +
+		"Empty or 0 values are unlimited.", split = ",", defaultValue = "warmup::5000,local")
+	private List<String> phases;
+
+	@CommandLine.Option(names = "--trace", description = "Output csv with progress of all phases.")
+	private Path tracePath;
+
+	@CommandLine.Option(names = "--threads", description = "Number of threads for the warm-up phases and for move evaluation of the solver.", defaultValue = "4")
+	private int threads;
+
+	@CommandLine.Option(names = "--reproducible", description = "Run the solver in reproducible mode. Otherwise multi-threaded results may differ between runs.",
+		defaultValue = "true", negatable = true)
+	private boolean reproducible;
+
 	@CommandLine.Mixin
 	private CsvOptions csv;
 
-	private Object2IntMap<Id<Link>> linkMapping;
+	/**
+	 * Count station index by link index, -1 if there is no station on a link.
+	 */
+	private int[] linkMapping;
+
+	/**
+	 * Travel times per link and hour, if available.
+	 */
+	private LinkTravelTimeTable travelTimes;
 
 	private PlanAssignmentProblem problem;
 
@@ -78,15 +119,123 @@ public class RunCountOptimization implements MATSimAppCommand {
 	@Override
 	public Integer call() throws Exception {
 
-		Counts<Link> linkCounts = new Counts<>();
+		if (problemPath != null && Files.exists(problemPath)) {
+
+			List<String> diff = compareOptions(PlanAssignmentProblemFile.readOptions(problemPath));
+			if (!diff.isEmpty()) {
+				log.error("Compiled problem {} has been created with different inputs or options: {}. Delete it or use another path.", problemPath, diff);
+				return 2;
+			}
+
+			log.info("Reading compiled problem from {}", problemPath);
+			problem = PlanAssignmentProblemFile.read(problemPath, maxK, metric, warmStart);
+
+			if (warmStart)
+				log.info("Starting from the solution stored in the compiled problem");
+
+		} else {
+			if (input == null || networkPath == null || countsPath == null) {
+				log.error("Input, network and counts are required if there is no compiled problem.");
+				return 2;
+			}
+
+			problem = createProblem();
+
+			if (problemPath != null) {
+				PlanAssignmentProblemFile.write(problemPath, problem, maxK, compileOptions());
+				log.info("Written compiled problem to {}", problemPath);
+			}
+		}
+
+		// Error scales are very different so different betas are needed
+		double beta = this.beta != null ? this.beta : switch (metric) {
+			case abs_error -> 1;
+			case log_error -> 100;
+			case symmetric_percentage_error -> 300;
+		};
+
+		List<SolverPipeline.Phase> pipeline = phases.stream().map(SolverPipeline.Phase::parse).toList();
+
+		PlanAssignmentProblem solution = new SolverPipeline(pipeline, threads, reproducible, beta, tracePath).solve(problem);
+
+		try (CSVPrinter printer = csv.createPrinter(output)) {
+
+			printer.printRecord("id", "idx");
+
+			for (PlanPerson person : solution) {
+				printer.printRecord(person.getId(), person.getK() - person.getOffset());
+			}
+		}
+
+		if (problemPath != null)
+			PlanAssignmentProblemFile.writeSelection(problemPath, solution);
+
+		return 0;
+	}
+
+	/**
+	 * Options and inputs that are compiled into the problem. Input files are described by path, size and modification time.
+	 */
+	private Map<String, String> compileOptions() throws IOException {
+		Map<String, String> options = new LinkedHashMap<>();
+		options.put("input", describe(input));
+		options.put("network", describe(networkPath));
+		options.put("counts", describe(countsPath));
+		options.put("events", describe(eventsPath));
+		options.put("travel-times", describe(travelTimesPath));
+		options.put("network-mode", networkMode);
+		options.put("all-car", String.valueOf(allCar));
+		options.put("sample-size", String.valueOf(sampleSize));
+		return options;
+	}
+
+	private static String describe(Path path) throws IOException {
+		if (path == null)
+			return "";
+
+		if (!Files.exists(path))
+			return path.toAbsolutePath().normalize().toString();
+
+		return "%s (%d bytes, modified %s)".formatted(path.toAbsolutePath().normalize(), Files.size(path), Files.getLastModifiedTime(path));
+	}
+
+	/**
+	 * Compare the current options with the ones of a compiled problem. Input files are only compared if they are given.
+	 *
+	 * @return names of the differing options
+	 */
+	private List<String> compareOptions(Map<String, String> compiled) throws IOException {
 
+		List<String> diff = new ArrayList<>();
+		Map<String, String> current = compileOptions();
+		Set<String> files = Set.of("input", "network", "counts", "events", "travel-times");
+
+		for (Map.Entry<String, String> e : current.entrySet()) {
+			if (files.contains(e.getKey()) && e.getValue().isEmpty())
+				continue;
+
+			if (!Objects.equals(compiled.get(e.getKey()), e.getValue()))
+				diff.add(e.getKey());
+		}
+
+		return diff;
+	}
+
+	/**
+	 * Read counts, network and plans and create the problem.
+	 */
+	private PlanAssignmentProblem createProblem() throws IOException {
+
+		Counts<Link> linkCounts = new Counts<>();
 		new MatsimCountsReader(linkCounts).readFile(countsPath.toString());
 
 		Map<Id<Link>, MeasurementLocation<Link>> countStations = linkCounts.getMeasureLocations();
 
 		int[] counts = new int[countStations.size() * H];
 
-		linkMapping = new Object2IntLinkedOpenHashMap<>();
+		// Ids of count stations are known at this point, other links will have larger indices
+		linkMapping = new int[Id.getNumberOfIds(Link.class)];
+		Arrays.fill(linkMapping, -1);
 
 		int k = 0;
 		for (MeasurementLocation<Link> station : countStations.values()) {
@@ -102,62 +251,63 @@ public class RunCountOptimization implements MATSimAppCommand {
 				}
 			}
 
-			linkMapping.put(station.getRefId(), k++);
+			linkMapping[station.getRefId().index()] = k++;
 		}
 
 		Network network = NetworkUtils.readNetwork(networkPath.toString());
 
-		List<PlanPerson> persons = processPopulation(input, network, linkCounts);
+		if (travelTimesPath != null && Files.exists(travelTimesPath)) {
+			travelTimes = LinkTravelTimeTable.read(travelTimesPath);
+		} else if (eventsPath != null) {
+			log.info("Reconstructing link travel times from {}", eventsPath);
+			travelTimes = LinkTravelTimeTable.fromEvents(eventsPath, networkMode, 3600, H + 6);
+			if (travelTimesPath != null)
+				travelTimes.write(travelTimesPath);
+		}
 
-		problem = new PlanAssignmentProblem(maxK, metric, persons, counts);
+		List<PlanPerson> persons = processPopulation(input, network);
+
+		PlanAssignmentProblem problem = new PlanAssignmentProblem(maxK, metric, persons, counts);
 
 		log.info("Collected {} relevant plans", persons.size());
 
 		if (allCar)
 			log.info("Scaled counts by car factor of {}", RunOpenBerlinCalibration.CAR_FACTOR);
 
-		// Error scales are very different so different betas are needed
-		double beta = switch (metric) {
-			case abs_error -> 1;
-			case log_error -> 100;
-			case symmetric_percentage_error -> 300;
-		};
-
-		problem.iterate(5000, 0.5, beta, 0.01);
-
-		PlanAssignmentProblem solution = solve(problem);
-
-		try (CSVPrinter printer = csv.createPrinter(output)) {
-
-			printer.printRecord("id", "idx");
-
-			for (PlanPerson person : solution) {
-				printer.printRecord(person.getId(), person.getK() - person.getOffset());
-			}
-		}
-
-		return 0;
+		return problem;
 	}
 
 	/**
 	 * Create an array for each person.
 	 */
-	private List<PlanPerson> processPopulation(Path input, Network network, Counts<Link> linkCounts) {
+	private List<PlanPerson> processPopulation(Path input, Network network) {
 
-		Population population = PopulationUtils.readPopulation(input.toString());
 		List<PlanPerson> persons = new ArrayList<>();
+		PlanContributions contributions = new PlanContributions();
 
-		Set<Id<Link>> links = linkCounts.getMeasureLocations().keySet();
+		// Free speed travel time by link index
+		// Use ceil because traversal over links is always whole seconds during simulation
+		double[] freeTravelTimes = new double[Id.getNumberOfIds(Link.class)];
+		for (Link link : network.getLinks().values()) {
+			freeTravelTimes[link.getId().index()] = Math.ceil(link.getLength() / link.getFreespeed());
+		}
 
-		SplittableRandom rnd = new SplittableRandom(0);
+		// Maps are only used while reading a person and are reused
+		Int2IntMap[] plans = new Int2IntMap[maxK];
+		for (int i = 0; i < plans.length; i++) {
+			plans[i] = new Int2IntOpenHashMap();
+		}
 
-		for (Person person : population.getPersons().values()) {
+		DoubleList linkTimes = new DoubleArrayList();
+
+		// Persons are processed while reading and not kept in memory
+		StreamingPopulationReader reader = new StreamingPopulationReader(ScenarioUtils.createScenario(ConfigUtils.createConfig()));
+		reader.addAlgorithm(person -> {
 
 			int scale = (int) (1 / sampleSize);
 
-			Int2IntMap[] plans = new Int2IntMap[maxK];
-			for (int i = 0; i < plans.length; i++) {
-				plans[i] = new Int2IntOpenHashMap();
+			for (Int2IntMap plan : plans) {
+				plan.clear();
 			}
 
 			boolean keep = false;
@@ -188,31 +338,39 @@ public class RunCountOptimization implements MATSimAppCommand {
 
 						if (leg.getRoute() instanceof NetworkRoute route) {
 							double travelTime = leg.getTravelTime().orElseThrow(() -> new IllegalStateException("No travel time for leg"));
-							double freeTravelTime = route.getLinkIds().stream()
-								.map(id -> network.getLinks().get(id))
-								// Use ceil because traversal over links is always whole seconds during simulation
-								.mapToDouble(l -> Math.ceil(l.getLength() / l.getFreespeed()))
-								.sum();
 
-							boolean relevant = route.getLinkIds().stream().anyMatch(links::contains);
+							double time = leg.getDepartureTime().seconds();
+
+							// Expected travel times of the links, either free speed or from the simulation at the time of traversal
+							linkTimes.clear();
+							double expectedTravelTime = 0;
+							boolean relevant = false;
+							for (Id<Link> linkId : route.getLinkIds()) {
+								double tt = freeTravelTimes[linkId.index()];
+								if (travelTimes != null) {
+									double simulated = travelTimes.getTravelTime(linkId, time + expectedTravelTime);
+									if (!Double.isNaN(simulated))
+										tt = simulated;
+								}
+
+								linkTimes.add(tt);
+								expectedTravelTime += tt;
+								relevant |= getStation(linkId) != -1;
+							}
 
 							// The actual travel time per link is not known
 							// The overall deviation is applied to all links equally
-							double factor = travelTime / freeTravelTime;
-
-							double time = leg.getDepartureTime().seconds();
+							double factor = travelTime / expectedTravelTime;
 
 							if (relevant) {
 								keep = true;
+								int l = 0;
 								for (Id<Link> linkId : route.getLinkIds()) {
 
-									Link link = network.getLinks().get(linkId);
-
-									// Assume free speed travel time
-									time += Math.ceil(link.getLength() / link.getFreespeed()) * factor;
+									time += linkTimes.getDouble(l++) * factor;
 
-									if (linkMapping.containsKey(linkId)) {
-										int idx = linkMapping.getInt(linkId);
+									int idx = getStation(linkId);
+									if (idx != -1) {
 										int hour = (int) Math.floor(time / 3600);
 										if (hour >= H)
 											continue;
@@ -228,37 +386,28 @@ public class RunCountOptimization implements MATSimAppCommand {
 			}
 
 			if (keep) {
-				for (int i = 0; i < plans.length; i++) {
-					if (plans[i].isEmpty())
-						plans[i] = PlanPerson.NOOP_PLAN;
+				int row = contributions.getRows();
+				for (Int2IntMap plan : plans) {
+					contributions.add(plan);
 				}
 
-				persons.add(new PlanPerson(person.getId(), offset, plans));
+				persons.add(new PlanPerson(person.getId(), offset, contributions, row, plans.length));
 			}
-		}
-
-		return persons;
-	}
-
-	private PlanAssignmentProblem solve(PlanAssignmentProblem problem) {
-
-		// Loading fails if xerces is on the classpath
-
-		SolverFactory<PlanAssignmentProblem> factory = SolverFactory.createFromXmlResource("solver.xml");
-
-		Solver<PlanAssignmentProblem> solver = factory.buildSolver();
+		});
 
-		AtomicLong ts = new AtomicLong(System.currentTimeMillis());
+		reader.readFile(input.toString());
 
-		solver.addEventListener(event -> {
+		contributions.trim();
+		log.info("Packed {} plans with {} count entries", contributions.getRows(), contributions.getSize());
 
-			// Only log every x seconds
-			if (ts.get() + 60_000 < System.currentTimeMillis()) {
-				log.info("New best solution: {}", event.getNewBestScore());
-				ts.set(System.currentTimeMillis());
-			}
-		});
+		return persons;
+	}
 
-		return solver.solve(problem);
+	/**
+	 * Return the index of the count station on this link, or -1 if there is none.
+	 */
+	private int getStation(Id<Link> linkId) {
+		int idx = linkId.index();
+		return idx < linkMapping.length ? linkMapping[idx] : -1;
 	}
 }
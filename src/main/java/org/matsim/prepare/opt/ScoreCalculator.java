@@ -1,19 +1,33 @@
 package org.matsim.prepare.opt;
 
 
-import it.unimi.dsi.fastutil.ints.Int2IntMap;
-import org.apache.commons.math3.util.FastMath;
-import org.optaplanner.core.api.score.buildin.simplebigdecimal.SimpleBigDecimalScore;
+import it.unimi.dsi.fastutil.objects.Reference2IntMap;
+import it.unimi.dsi.fastutil.objects.Reference2IntOpenHashMap;
+import org.optaplanner.core.api.score.buildin.simplelong.SimpleLongScore;
 import org.optaplanner.core.api.score.calculator.IncrementalScoreCalculator;
 
-import java.math.BigDecimal;
+import java.util.List;
 
 /**
  * Score calculator.
  */
-public final class ScoreCalculator implements IncrementalScoreCalculator<PlanAssignmentProblem, SimpleBigDecimalScore> {
+public final class ScoreCalculator implements IncrementalScoreCalculator<PlanAssignmentProblem, SimpleLongScore> {
+
+	/**
+	 * Fixed point scale of the score, which is the negative error in these units.
+	 */
+	static final double SCALE = 1_000_000;
+
+	/**
+	 * Number of incremental updates after which the error is calculated from scratch, to remove accumulated floating point drift.
+	 */
+	private static final int DRIFT_CORRECTION = 100_000;
+
+	/**
+	 * Incremental updates since the last full calculation.
+	 */
+	private int updates = 0;
 
-	private static final double C = 15.0;
 	/**
 	 * Error metric.
 	 */
@@ -28,55 +42,73 @@ public final class ScoreCalculator implements IncrementalScoreCalculator<PlanAss
 	 */
 	private int[] observed;
 
-	private ErrorMetric metric;
+	/**
+	 * Kernel of the error metric, incremental and full calculation use the same terms to keep score corruption low.
+	 */
+	private ErrorKernel kernel;
 
-	static double diffChange(ErrorMetric err, int count, int old, int update) {
+	/**
+	 * Heap of the error per count index, only created when requested.
+	 */
+	private ErrorHeap heap;
 
-		// Floating point arithmetic still leads to score corruption in full assert mode
-		// logarithm can not even be efficiently calculated using big decimal, the corruption needs to be accepted as this point
+	/**
+	 * Selected plan rows of persons that are currently being changed.
+	 */
+	private final Reference2IntMap<PlanPerson> pending = new Reference2IntOpenHashMap<>();
 
-		return switch (err) {
-			case abs_error -> Math.abs(count - update) - Math.abs(count - old);
-			case log_error -> FastMath.abs(FastMath.log((update + C) / (count + C))) - FastMath.abs(FastMath.log((old + C) / (count + C)));
-			case symmetric_percentage_error -> FastMath.abs((double) (update - count) / (update + count + 2 * C) / 2.) -
-					FastMath.abs((double) (old - count) / (old + count + 2 * C) / 2.);
-		};
+	public ScoreCalculator() {
+		pending.defaultReturnValue(-1);
+	}
+
+	static double diffChange(ErrorMetric err, int count, int old, int update) {
+		return ErrorKernel.of(err).diff(count, old, update);
 	}
 
 
 	@Override
 	public void resetWorkingSolution(PlanAssignmentProblem problem) {
 
-		observed = new int[problem.counts.length];
-		counts = problem.counts;
-		metric = problem.metric;
+		int[] obs = new int[problem.counts.length];
+		addObserved(problem.getPersons(), obs);
 
-		for (PlanPerson person : problem) {
-			for (Int2IntMap.Entry e : person.selected().int2IntEntrySet()) {
-				observed[e.getIntKey()] += e.getIntValue();
-			}
-		}
+		resetWorkingSolution(problem, obs);
+	}
+
+	/**
+	 * Reset the working solution with observed counts that have already been aggregated, e.g. in parallel.
+	 */
+	void resetWorkingSolution(PlanAssignmentProblem problem, int[] observed) {
+		this.observed = observed;
+		this.counts = problem.counts;
+		this.kernel = ErrorKernel.of(problem.metric);
+		this.pending.clear();
 
+		problem.setCalculator(this);
 		calcScoreInternal();
+
+		if (heap != null)
+			heap.rebuild(this::indexError);
 	}
 
-	private void calcScoreInternal() {
-		error = 0;
-
-		// Log score needs to shift counts by 1.0 to avoid log 0
-
-		if (metric == ErrorMetric.abs_error)
-			for (int j = 0; j < counts.length; j++)
-				error += Math.abs(counts[j] - observed[j]);
-		else if (metric == ErrorMetric.log_error)
-			for (int j = 0; j < counts.length; j++)
-				error += FastMath.abs(Math.log((observed[j] + C) / (counts[j] + C)));
-		else if (metric == ErrorMetric.symmetric_percentage_error) {
-			for (int j = 0; j < counts.length; j++)
-				error += FastMath.abs((double) (observed[j] - counts[j]) / (observed[j] + counts[j] + 2 * C) / 2);
+	/**
+	 * Add the counts of the selected plans of the given persons.
+	 */
+	static void addObserved(List<PlanPerson> persons, int[] observed) {
+		for (PlanPerson person : persons) {
+			PlanContributions c = person.getContributions();
+			int row = person.selected();
+			for (int j = c.start(row); j < c.end(row); j++) {
+				observed[c.index(j)] += c.value(j);
+			}
 		}
 	}
 
+	private void calcScoreInternal() {
+		error = kernel.total(counts, observed);
+		updates = 0;
+	}
+
 	@Override
 	public void beforeEntityAdded(Object entity) {
 	}
@@ -90,16 +122,10 @@ public final class ScoreCalculator implements IncrementalScoreCalculator<PlanAss
 
 		assert variableName.equals("k");
 		PlanPerson person = (PlanPerson) entity;
+		updates++;
 
-		// remove this persons plan from the calculation
-		for (Int2IntMap.Entry e : person.selected().int2IntEntrySet()) {
-
-			int old = observed[e.getIntKey()];
-			int update = observed[e.getIntKey()] -= e.getIntValue();
-
-			error += diffChange(metric, counts[e.getIntKey()], old, update);
-		}
-
+		// only remember the old plan, the difference is applied when the new one is known
+		pending.put(person, person.selected());
 	}
 
 	@Override
@@ -108,14 +134,22 @@ public final class ScoreCalculator implements IncrementalScoreCalculator<PlanAss
 		assert variableName.equals("k");
 		PlanPerson person = (PlanPerson) entity;
 
-		// add this persons contribution to the score
-		for (Int2IntMap.Entry e : person.selected().int2IntEntrySet()) {
+		int old = pending.removeInt(person);
+		if (old == -1)
+			throw new IllegalStateException("No previous plan for " + person.getId());
 
-			int old = observed[e.getIntKey()];
-			int update = observed[e.getIntKey()] += e.getIntValue();
+		// only count indices that differ between the two plans are updated
+		person.getContributions().diff(old, person.selected(), this::applyDelta);
+	}
 
-			error += diffChange(metric, counts[e.getIntKey()], old, update);
-		}
+	private void applyDelta(int idx, int delta) {
+		int old = observed[idx];
+		int update = observed[idx] += delta;
+
+		error += kernel.diff(counts[idx], old, update);
+
+		if (heap != null)
+			heap.markDirty(idx);
 	}
 
 	@Override
@@ -128,17 +162,50 @@ public final class ScoreCalculator implements IncrementalScoreCalculator<PlanAss
 	}
 
 	@Override
-	public SimpleBigDecimalScore calculateScore() {
-		return SimpleBigDecimalScore.of(BigDecimal.valueOf(-error));
+	public SimpleLongScore calculateScore() {
+
+		if (updates >= DRIFT_CORRECTION)
+			calcScoreInternal();
+
+		return SimpleLongScore.of(-Math.round(error * SCALE));
+	}
+
+	/**
+	 * Convert a score back to the error metric.
+	 */
+	static double toError(SimpleLongScore score) {
+		return -score.score() / SCALE;
+	}
+
+	/**
+	 * Return the count indices with the n largest errors in the current solution, in descending order.
+	 */
+	int[] getLargestErrors(int n) {
+		if (heap == null || heap.size() != counts.length) {
+			heap = new ErrorHeap(counts.length);
+			heap.rebuild(this::indexError);
+		} else
+			heap.refresh(this::indexError);
+
+		return heap.top(n);
 	}
 
-	double scoreEntry(Int2IntMap.Entry e) {
+	/**
+	 * Difference between observed and real count at an index.
+	 */
+	int getDeviation(int idx) {
+		return observed[idx] - counts[idx];
+	}
+
+	private double indexError(int idx) {
+		return kernel.error(counts[idx], observed[idx]);
+	}
 
-		int idx = e.getIntKey();
+	double scoreEntry(int idx, int value) {
 
 		// Calculate impact compared to a plan without the observations of this plan
 		// old can not get negative
 
-		return -diffChange(metric, counts[idx], Math.max(0, observed[idx] - e.getIntValue()), observed[idx]);
+		return -kernel.diff(counts[idx], Math.max(0, observed[idx] - value), observed[idx]);
 	}
 }
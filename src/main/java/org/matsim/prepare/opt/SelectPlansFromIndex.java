@@ -4,6 +4,8 @@ import it.unimi.dsi.fastutil.objects.Object2IntMap;
 import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import org.apache.commons.csv.CSVParser;
 import org.apache.commons.csv.CSVRecord;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.api.core.v01.population.Plan;
@@ -21,15 +23,20 @@ import java.util.Set;
 @CommandLine.Command(name = "select-plans-idx", description = "Select plan index as specified from input.")
 public class SelectPlansFromIndex implements MATSimAppCommand {
 
+	private static final Logger log = LogManager.getLogger(SelectPlansFromIndex.class);
+
 	@CommandLine.Option(names = "--input", description = "Path to input plans.", required = true)
 	private Path input;
 
 	@CommandLine.Option(names = "--output", description = "Desired output plans.", required = true)
 	private Path output;
 
-	@CommandLine.Option(names = "--csv", description = "Path to input plans (Usually experienced plans).", required = true)
+	@CommandLine.Option(names = "--csv", description = "Path to input plans (Usually experienced plans).")
 	private Path csv;
 
+	@CommandLine.Option(names = "--problem", description = "Compiled and solved problem file, which can be used instead of the csv.")
+	private Path problem;
+
 	@CommandLine.Mixin
 	private CsvOptions csvOpt;
 
@@ -60,11 +67,21 @@ public class SelectPlansFromIndex implements MATSimAppCommand {
 	@Override
 	public Integer call() throws Exception {
 
+		if ((csv == null) == (problem == null)) {
+			log.error("Exactly one of csv or problem must be given.");
+			return 2;
+		}
+
 		Population population = PopulationUtils.readPopulation(input.toString());
-		Object2IntMap<Id<Person>> idx = new Object2IntOpenHashMap<>();
-		try (CSVParser parser = csvOpt.createParser(csv)) {
-			for (CSVRecord row : parser) {
-				idx.put(Id.createPersonId(row.get("id")), Integer.parseInt(row.get("idx")));
+		Object2IntMap<Id<Person>> idx;
+		if (problem != null) {
+			idx = PlanAssignmentProblemFile.readSelection(problem);
+		} else {
+			idx = new Object2IntOpenHashMap<>();
+			try (CSVParser parser = csvOpt.createParser(csv)) {
+				for (CSVRecord row : parser) {
+					idx.put(Id.createPersonId(row.get("id")), Integer.parseInt(row.get("idx")));
+				}
 			}
 		}
 
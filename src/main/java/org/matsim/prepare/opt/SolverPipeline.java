@@ -0,0 +1,336 @@
+package org.matsim.prepare.opt;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.matsim.core.utils.io.IOUtils;
+import org.optaplanner.core.api.score.buildin.simplelong.SimpleLongScore;
+import org.optaplanner.core.api.solver.Solver;
+import org.optaplanner.core.api.solver.SolverFactory;
+import org.optaplanner.core.config.heuristic.selector.common.SelectionCacheType;
+import org.optaplanner.core.config.heuristic.selector.common.SelectionOrder;
+import org.optaplanner.core.config.heuristic.selector.move.MoveSelectorConfig;
+import org.optaplanner.core.config.heuristic.selector.move.composite.UnionMoveSelectorConfig;
+import org.optaplanner.core.config.heuristic.selector.move.factory.MoveIteratorFactoryConfig;
+import org.optaplanner.core.config.heuristic.selector.move.generic.SwapMoveSelectorConfig;
+import org.optaplanner.core.config.localsearch.LocalSearchPhaseConfig;
+import org.optaplanner.core.config.phase.PhaseConfig;
+import org.optaplanner.core.config.solver.EnvironmentMode;
+import org.optaplanner.core.config.solver.SolverConfig;
+import org.optaplanner.core.config.solver.termination.TerminationConfig;
+import org.optaplanner.core.impl.phase.event.PhaseLifecycleListenerAdapter;
+import org.optaplanner.core.impl.phase.scope.AbstractPhaseScope;
+import org.optaplanner.core.impl.phase.scope.AbstractStepScope;
+import org.optaplanner.core.impl.solver.DefaultSolver;
+import org.optaplanner.core.impl.solver.scope.SolverScope;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a sequence of optimization phases, each with its own time and step budget.
+ * Warm-up phases use {@link PlanAssignmentProblem#iterate}, consecutive local search phases are run by one OptaPlanner solver.
+ * Progress of all phases can be written to a csv trace.
+ * <p>
+ * For warm-up phases, accepted moves are the persons that changed their plan and evaluated moves are all persons that have been considered.
+ * For solver phases, accepted moves are the steps that changed the score and evaluated moves are the score calculations.
+ * Step information of solver phases is only available with the default solver implementation of OptaPlanner.
+ */
+public final class SolverPipeline {
+
+	/**
+	 * Interval between two trace entries within a phase.
+	 */
+	private static final long TRACE_INTERVAL = 1000;
+
+	/**
+	 * Default budget of unimproved steps for local search phases without step limit.
+	 */
+	private static final int UNIMPROVED_STEPS = 100_000;
+
+	private final List<Phase> phases;
+	private final int threads;
+	private final boolean reproducible;
+	private final double beta;
+	private final Path trace;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param beta  beta of warm-up phases
+	 * @param trace output path of the trace, or null if not written
+	 */
+	public SolverPipeline(List<Phase> phases, int threads, boolean reproducible, double beta, Path trace) {
+		this.phases = phases;
+		this.threads = threads;
+		this.reproducible = reproducible;
+		this.beta = beta;
+		this.trace = trace;
+	}
+
+	/**
+	 * Run all phases and return the best solution.
+	 */
+	public PlanAssignmentProblem solve(PlanAssignmentProblem problem) throws IOException {
+
+		PlanAssignmentProblem current = problem;
+		long pipelineStart = System.currentTimeMillis();
+
+		try (CSVPrinter printer = trace != null ? new CSVPrinter(IOUtils.getBufferedWriter(trace.toString()), CSVFormat.DEFAULT) : null) {
+
+			if (printer != null)
+				printer.printRecord("phase", "type", "time_ms", "steps", "accepted_moves", "evaluated_moves", "moves_per_s", "error");
+
+			int i = 0;
+			while (i < phases.size()) {
+
+				Phase phase = phases.get(i);
+
+				if (phase.type() == PhaseType.warmup) {
+
+					long start = System.currentTimeMillis();
+					PlanAssignmentProblem.IterationResult result = current.iterate(phase.steps() > 0 ? (int) phase.steps() : Integer.MAX_VALUE,
+						0.5, beta, 0.01, threads, phase.timeLimit());
+					long time = System.currentTimeMillis() - start;
+
+					RunCountOptimization.log.info("Phase {} ({}) finished after {} ms and {} iterations, {} of {} evaluated persons changed their plan",
+						i, phase.type(), time, result.iterations(), result.changed(), result.evaluated());
+
+					// Each evaluated person is counted as one move
+					if (printer != null)
+						printer.printRecord(i, phase.type(), System.currentTimeMillis() - pipelineStart, result.iterations(), result.changed(), result.evaluated(),
+							time > 0 ? result.evaluated() * 1000.0 / time : 0, ScoreCalculator.toError(current.getScore()));
+
+					i++;
+				} else {
+					// Consecutive solver phases share one solver run
+					int j = i;
+					while (j < phases.size() && phases.get(j).type() != PhaseType.warmup)
+						j++;
+
+					current = runSolver(current, phases.subList(i, j), new TraceListener(phases.subList(i, j), i, pipelineStart, printer));
+					i = j;
+				}
+			}
+		}
+
+		return current;
+	}
+
+	private PlanAssignmentProblem runSolver(PlanAssignmentProblem problem, List<Phase> solverPhases, TraceListener listener) {
+
+		List<PhaseConfig> configs = new ArrayList<>();
+		for (Phase phase : solverPhases) {
+			configs.add(createPhaseConfig(phase));
+		}
+
+		// Loading fails if xerces is on the classpath
+		// The xml only defines the domain, score calculation and global termination, phases are always configured here
+		SolverConfig config = SolverConfig.createFromXmlResource("solver.xml")
+			.withMoveThreadCount(String.valueOf(threads))
+			.withEnvironmentMode(reproducible ? EnvironmentMode.REPRODUCIBLE : EnvironmentMode.NON_REPRODUCIBLE)
+			.withPhaseList(configs);
+
+		Solver<PlanAssignmentProblem> solver = SolverFactory.<PlanAssignmentProblem>create(config).buildSolver();
+
+		AtomicLong ts = new AtomicLong(System.currentTimeMillis());
+
+		solver.addEventListener(event -> {
+
+			// Only log every x seconds
+			if (ts.get() + 60_000 < System.currentTimeMillis()) {
+				RunCountOptimization.log.info("New best solution: {}", event.getNewBestScore());
+				ts.set(System.currentTimeMillis());
+			}
+		});
+
+		// Phase and step events are only available through the internal API of OptaPlanner, the public event listener only reports new best solutions
+		if (solver instanceof DefaultSolver<PlanAssignmentProblem> defaultSolver)
+			defaultSolver.addPhaseLifecycleListener(listener);
+		else
+			RunCountOptimization.log.warn("Solver {} does not provide phase events, solver phases are not written to the trace.", solver.getClass());
+
+		return solver.solve(problem);
+	}
+
+	private static PhaseConfig createPhaseConfig(Phase phase) {
+
+		TerminationConfig termination = new TerminationConfig();
+		if (phase.timeLimit() != null)
+			termination.setSpentLimit(phase.timeLimit());
+
+		if (phase.steps() > 0)
+			termination.setStepCountLimit((int) Math.min(Integer.MAX_VALUE, phase.steps()));
+		else
+			termination.setUnimprovedStepCountLimit(UNIMPROVED_STEPS);
+
+		MoveIteratorFactoryConfig shuffle = new MoveIteratorFactoryConfig();
+		shuffle.setMoveIteratorFactoryClass(LargeShuffleMoveSelector.class);
+
+		MoveSelectorConfig<?> selector;
+		if (phase.type() == PhaseType.shuffle) {
+			selector = shuffle;
+		} else if (phase.type() == PhaseType.adaptive) {
+			MoveIteratorFactoryConfig adaptive = new MoveIteratorFactoryConfig();
+			adaptive.setMoveIteratorFactoryClass(AdaptiveShuffleMoveSelector.class);
+			selector = adaptive;
+		} else {
+			MoveIteratorFactoryConfig change = new MoveIteratorFactoryConfig();
+			change.setMoveIteratorFactoryClass(ChangePlanMoveSelector.class);
+			shuffle.setFixedProbabilityWeight(0.15);
+
+			UnionMoveSelectorConfig union = new UnionMoveSelectorConfig();
+			union.setCacheType(SelectionCacheType.JUST_IN_TIME);
+			union.setSelectionOrder(SelectionOrder.RANDOM);
+			union.setMoveSelectorList(List.of(change, new SwapMoveSelectorConfig(), shuffle));
+			selector = union;
+		}
+
+		LocalSearchPhaseConfig config = new LocalSearchPhaseConfig();
+		config.setMoveSelectorConfig(selector);
+		config.setTerminationConfig(termination);
+		return config;
+	}
+
+	/**
+	 * Type of phase.
+	 */
+	public enum PhaseType {
+		/**
+		 * Change exp beta iterations.
+		 */
+		warmup,
+		/**
+		 * Local search with single, swap and large moves.
+		 */
+		local,
+		/**
+		 * Local search with large shuffle moves only.
+		 */
+		shuffle,
+		/**
+		 * Local search with large moves around the count indices with the largest error, see {@link AdaptiveShuffleMoveSelector}.
+		 */
+		adaptive
+	}
+
+	/**
+	 * One phase of the pipeline.
+	 *
+	 * @param timeLimit time budget, or null if unlimited
+	 * @param steps     step budget, 0 if unlimited
+	 */
+	public record Phase(PhaseType type, Duration timeLimit, long steps) {
+
+		/**
+		 * Parse a phase from {@code type[:seconds[:steps]]}, where empty or 0 values are unlimited.
+		 */
+		public static Phase parse(String spec) {
+			String[] parts = spec.split(":", -1);
+			PhaseType type = PhaseType.valueOf(parts[0].strip());
+
+			Duration limit = null;
+			if (parts.length > 1 && !parts[1].isBlank() && Long.parseLong(parts[1].strip()) > 0)
+				limit = Duration.ofSeconds(Long.parseLong(parts[1].strip()));
+
+			long steps = parts.length > 2 && !parts[2].isBlank() ? Long.parseLong(parts[2].strip()) : 0;
+
+			return new Phase(type, limit, steps);
+		}
+	}
+
+	/**
+	 * Writes progress of solver phases into the trace. Uses {@link PhaseLifecycleListenerAdapter} and the phase scopes, which are internal API of OptaPlanner.
+	 */
+	private static final class TraceListener extends PhaseLifecycleListenerAdapter<PlanAssignmentProblem> {
+
+		private final List<Phase> phases;
+		private final int offset;
+		private final long pipelineStart;
+		private final CSVPrinter printer;
+
+		private long lastTime;
+		private long lastEvaluated;
+
+		/**
+		 * Score of the last step and number of steps that changed the score in the current phase.
+		 */
+		private SimpleLongScore lastScore;
+		private long accepted;
+
+		/**
+		 * Score calculations before the current phase.
+		 */
+		private long phaseEvaluated;
+
+		TraceListener(List<Phase> phases, int offset, long pipelineStart, CSVPrinter printer) {
+			this.phases = phases;
+			this.offset = offset;
+			this.pipelineStart = pipelineStart;
+			this.printer = printer;
+		}
+
+		@Override
+		public void phaseStarted(AbstractPhaseScope<PlanAssignmentProblem> phaseScope) {
+			SolverScope<PlanAssignmentProblem> solverScope = phaseScope.getSolverScope();
+			lastTime = solverScope.calculateTimeMillisSpentUpToNow();
+			lastEvaluated = solverScope.getScoreCalculationCount();
+			phaseEvaluated = lastEvaluated;
+			lastScore = (SimpleLongScore) solverScope.getBestScore();
+			accepted = 0;
+		}
+
+		@Override
+		public void stepEnded(AbstractStepScope<PlanAssignmentProblem> stepScope) {
+
+			SimpleLongScore score = (SimpleLongScore) stepScope.getScore();
+			if (score != null && !score.equals(lastScore))
+				accepted++;
+
+			lastScore = score;
+
+			long time = stepScope.getPhaseScope().getSolverScope().calculateTimeMillisSpentUpToNow();
+			if (time - lastTime >= TRACE_INTERVAL)
+				record(stepScope.getPhaseScope(), stepScope.getStepIndex() + 1, (SimpleLongScore) stepScope.getScore());
+		}
+
+		@Override
+		public void phaseEnded(AbstractPhaseScope<PlanAssignmentProblem> phaseScope) {
+
+			AbstractStepScope<PlanAssignmentProblem> last = phaseScope.getLastCompletedStepScope();
+			int steps = last.getStepIndex() + 1;
+
+			RunCountOptimization.log.info("Phase {} ({}) finished after {} ms and {} steps, {} of them changed the score, best score {}", offset + phaseScope.getPhaseIndex(),
+				phases.get(phaseScope.getPhaseIndex()).type(), phaseScope.calculatePhaseTimeMillisSpentUpToNow(), steps, accepted, phaseScope.getBestScore());
+
+			record(phaseScope, steps, (SimpleLongScore) last.getScore());
+		}
+
+		private void record(AbstractPhaseScope<PlanAssignmentProblem> phaseScope, int steps, SimpleLongScore score) {
+
+			SolverScope<PlanAssignmentProblem> solverScope = phaseScope.getSolverScope();
+			long time = solverScope.calculateTimeMillisSpentUpToNow();
+			long evaluated = solverScope.getScoreCalculationCount();
+
+			double speed = time > lastTime ? (evaluated - lastEvaluated) * 1000.0 / (time - lastTime) : 0;
+
+			lastTime = time;
+			lastEvaluated = evaluated;
+
+			if (printer == null || score == null)
+				return;
+
+			int idx = phaseScope.getPhaseIndex();
+			try {
+				printer.printRecord(offset + idx, phases.get(idx).type(), System.currentTimeMillis() - pipelineStart, steps, accepted,
+					evaluated - phaseEvaluated, speed, ScoreCalculator.toError(score));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+}
@@ -29,6 +29,18 @@ public final class AdvancedScoringConfigGroup extends ReflectiveConfigGroup {
 	@Comment("Define how to load existing preferences.")
 	public LoadPreferences loadPreferences = LoadPreferences.none;
 
+	@Parameter
+	@Comment("Binary file with preferences written by a previous run (person_preferences.bin). If set, it is used instead of the utilDelta attribute.")
+	public String preferencesFile;
+
+	@Parameter
+	@Comment("Store the preferences in the utilDelta person attribute. Can be disabled if the binary preferences file is used instead.")
+	public boolean preferencesAttribute = true;
+
+	@Parameter
+	@Comment("Compute the person specific parameters of all agents in parallel at startup, instead of on first use during scoring.")
+	public boolean precomputeParameters = false;
+
 	@Parameter
 	@Comment("Scale for pseudo random errors. 0 disables it completely.")
 	public double pseudoRamdomScale = 0;
@@ -37,6 +49,11 @@ public final class AdvancedScoringConfigGroup extends ReflectiveConfigGroup {
 	@Comment("Distribution of the random error terms.")
 	public VariationType pseudoRandomDistribution = VariationType.normal;
 
+	@Parameter
+	@Comment("Generator for the pseudo random errors. The default 'legacy' reproduces the errors of existing runs and calibrated configs. " +
+		"'counterBased' is allocation-free and faster, but draws different errors.")
+	public PseudoRandomGenerator pseudoRandomGenerator = PseudoRandomGenerator.legacy;
+
 	private final List<ScoringParameters> scoringParameters = new ArrayList<>();
 
 	public AdvancedScoringConfigGroup() {
@@ -94,6 +111,20 @@ public final class AdvancedScoringConfigGroup extends ReflectiveConfigGroup {
 		fixed, normal, truncatedNormal, gumbel
 	}
 
+	/**
+	 * Random number generators for the pseudo random errors.
+	 */
+	public enum PseudoRandomGenerator {
+		/**
+		 * Stateless generator, which hashes seed and trip without any allocation.
+		 */
+		counterBased,
+		/**
+		 * Seeded {@link org.apache.commons.rng.core.source64.XoRoShiRo128PlusPlus} per trip, as used in previous versions.
+		 */
+		legacy
+	}
+
 	/**
 	 * Scoring parameters for a specific group of agents.
 	 * This group allows arbitrary attributes to be defined, which are matched against person attributes.
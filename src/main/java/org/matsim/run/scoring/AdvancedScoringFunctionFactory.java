@@ -20,20 +20,39 @@ public class AdvancedScoringFunctionFactory implements ScoringFunctionFactory {
 	private final AnalysisMainModeIdentifier mmi;
 	private final ScoringParametersForPerson params;
 	private final PseudoRandomScorer pseudoRNG;
+	private final ModeRegistry modes;
 
 	@Inject
 	public AdvancedScoringFunctionFactory(Config config, AnalysisMainModeIdentifier mmi,
-										  ScoringParametersForPerson params, PseudoRandomScorer pseudoRNG) {
+										  ScoringParametersForPerson params, PseudoRandomScorer pseudoRNG, ModeRegistry modes) {
 		this.config = config;
 		this.scoring = ConfigUtils.addOrGetModule(config, AdvancedScoringConfigGroup.class);
 		this.mmi = mmi;
 		this.params = params;
 		this.pseudoRNG = pseudoRNG;
+		this.modes = modes;
 	}
 
 	@Override
 	public ScoringFunction createNewScoringFunction(Person person) {
-		final ScoringParameters parameters = params.getScoringParameters(person);
+
+		// Person specific parameters are used as lightweight view, without building a complete set of scoring parameters
+		final ScoringParameters parameters;
+		final double marginalUtilityOfMoney;
+		final ModeRegistry modes;
+		final ModeUtilityParameters[] modeParams;
+		if (params instanceof IndividualPersonScoringParameters individual) {
+			IndividualPersonScoringParameters.PersonParameters view = individual.getPersonParameters(person);
+			parameters = view.base();
+			marginalUtilityOfMoney = view.marginalUtilityOfMoney();
+			modes = individual.getModeRegistry();
+			modeParams = view.modeParams();
+		} else {
+			parameters = params.getScoringParameters(person);
+			marginalUtilityOfMoney = parameters.marginalUtilityOfMoney;
+			modes = this.modes;
+			modeParams = modes.resolve(parameters);
+		}
 
 		SumScoringFunction sumScoringFunction = new SumScoringFunction();
 		sumScoringFunction.addScoringFunction(new CharyparNagelActivityScoring(parameters));
@@ -43,8 +62,8 @@ public class AdvancedScoringFunctionFactory implements ScoringFunctionFactory {
 		}
 
 		// replaced original leg scoring
-		sumScoringFunction.addScoringFunction(new PiecewiseLinearlLegScoring(parameters, config.transit().getTransitModes()));
-		sumScoringFunction.addScoringFunction(new CharyparNagelMoneyScoring(parameters));
+		sumScoringFunction.addScoringFunction(new PiecewiseLinearlLegScoring(parameters, marginalUtilityOfMoney, modes, modeParams, config.transit().getTransitModes()));
+		sumScoringFunction.addScoringFunction(new CharyparNagelMoneyScoring(marginalUtilityOfMoney));
 		sumScoringFunction.addScoringFunction(new CharyparNagelAgentStuckScoring(parameters));
 		sumScoringFunction.addScoringFunction(new ScoreEventScoring());
 		return sumScoringFunction;
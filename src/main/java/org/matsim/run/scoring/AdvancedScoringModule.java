@@ -13,15 +13,19 @@ public class AdvancedScoringModule extends AbstractModule {
 	@Override
 	public void install() {
 
-		ConfigUtils.addOrGetModule(getConfig(), AdvancedScoringConfigGroup.class);
+		AdvancedScoringConfigGroup scoring = ConfigUtils.addOrGetModule(getConfig(), AdvancedScoringConfigGroup.class);
 
 		bind(ScoringParametersForPerson.class).to(IndividualPersonScoringParameters.class).in(Singleton.class);
 
+		bind(ModeRegistry.class).in(Singleton.class);
 		bind(PseudoRandomScorer.class).in(Singleton.class);
 		bind(PseudoRandomTripError.class).to(DefaultPseudoRandomTripError.class).in(Singleton.class);
 
 		addControlerListenerBinding().to(AdvancedScoringOutputWriter.class).in(Singleton.class);
 
+		if (scoring.precomputeParameters)
+			addControlerListenerBinding().to(PrecomputeScoringParameters.class).in(Singleton.class);
+
 		bindScoringFunctionFactory().to(AdvancedScoringFunctionFactory.class).in(Singleton.class);
 	}
 }
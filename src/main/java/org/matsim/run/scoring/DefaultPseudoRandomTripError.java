@@ -4,6 +4,8 @@ import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.core.router.TripStructureUtils;
 
+import java.util.List;
+
 /**
  * Computes a random seed based on person id, previous activity and routing mode.
  */
@@ -20,4 +22,16 @@ public final class DefaultPseudoRandomTripError implements PseudoRandomTripError
 		// Combine two integers to long
 		return ((long) personHash << 32) | (modeAndActHash & 0xFFFFFFFFL);
 	}
+
+	@Override
+	public void getSeeds(Id<Person> personId, List<String> modes, TripStructureUtils.Trip trip, long[] seeds) {
+
+		long personHash = (long) personId.toString().hashCode() << 32;
+		int actHash = trip.getOriginActivity().getType().hashCode();
+
+		for (int i = 0; i < modes.size(); i++) {
+			int modeAndActHash = 31 * modes.get(i).hashCode() + actHash;
+			seeds[i] = personHash | (modeAndActHash & 0xFFFFFFFFL);
+		}
+	}
 }
@@ -9,18 +9,25 @@ import org.matsim.core.scoring.functions.ModeUtilityParameters;
  */
 public class DistanceGroupModeUtilityParameters extends ModeUtilityParameters {
 
-	private final DistanceGroup[] groups;
+	private final DistanceGroupTable groups;
 
 	/**
 	 * Constructor which copies the base params from given modeParams.
 	 */
 	DistanceGroupModeUtilityParameters(ModeUtilityParameters modeParams, DeltaBuilder delta, DistanceGroup[] groups) {
+		this(modeParams, delta.constant, delta.dailyUtilityConstant, DistanceGroupTable.of(groups));
+	}
+
+	/**
+	 * Constructor which copies the base params and adds the given deltas.
+	 */
+	DistanceGroupModeUtilityParameters(ModeUtilityParameters modeParams, double deltaConstant, double deltaDailyConstant, DistanceGroupTable groups) {
 		super(modeParams.marginalUtilityOfTraveling_s,
 			modeParams.marginalUtilityOfDistance_m,
 			modeParams.monetaryDistanceCostRate,
-			modeParams.constant + delta.constant,
+			modeParams.constant + deltaConstant,
 			modeParams.dailyMoneyConstant,
-			modeParams.dailyUtilityConstant + delta.dailyUtilityConstant);
+			modeParams.dailyUtilityConstant + deltaDailyConstant);
 
 		this.groups = groups;
 	}
@@ -33,15 +40,7 @@ public class DistanceGroupModeUtilityParameters extends ModeUtilityParameters {
 		if (groups == null)
 			return 0;
 
-		DistanceGroup group = groups[0];
-		for (int i = 1; i < groups.length; i++) {
-			if (groups[i].dist() > dist)
-				break;
-
-			group = groups[i];
-		}
-
-		return group.constant() + group.utilPerM() * (dist - group.dist());
+		return groups.calcUtility(dist);
 	}
 
 	static final class DeltaBuilder {
@@ -0,0 +1,56 @@
+package org.matsim.run.scoring;
+
+/**
+ * Distance groups stored in parallel primitive arrays, with a branch-free lookup of the group for a distance.
+ * Instances are immutable and shared between persons with the same distance groups.
+ */
+final class DistanceGroupTable {
+
+	/**
+	 * Lower bounds of the groups, sorted ascending and starting with 0.
+	 */
+	private final double[] dists;
+	private final double[] constants;
+	private final double[] slopes;
+
+	private DistanceGroupTable(double[] dists, double[] constants, double[] slopes) {
+		this.dists = dists;
+		this.constants = constants;
+		this.slopes = slopes;
+	}
+
+	/**
+	 * Create table from distance groups, which may be null.
+	 */
+	static DistanceGroupTable of(DistanceGroup[] groups) {
+		if (groups == null)
+			return null;
+
+		double[] dists = new double[groups.length];
+		double[] constants = new double[groups.length];
+		double[] slopes = new double[groups.length];
+
+		for (int i = 0; i < groups.length; i++) {
+			dists[i] = groups[i].dist();
+			constants[i] = groups[i].constant();
+			slopes[i] = groups[i].utilPerM();
+		}
+
+		return new DistanceGroupTable(dists, constants, slopes);
+	}
+
+	/**
+	 * Calculate the utility for given distance.
+	 */
+	double calcUtility(double dist) {
+
+		// The group is the number of breakpoints below or equal the distance,
+		// counting avoids unpredictable branches because there are only few groups
+		int idx = 0;
+		for (int i = 1; i < dists.length; i++) {
+			idx += dists[i] <= dist ? 1 : 0;
+		}
+
+		return constants[idx] + slopes[idx] * (dist - dists[idx]);
+	}
+}
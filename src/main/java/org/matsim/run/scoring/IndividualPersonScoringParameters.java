@@ -16,14 +16,16 @@ import org.apache.commons.statistics.distribution.TruncatedNormalDistribution;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.matsim.api.core.v01.Id;
-import org.matsim.api.core.v01.IdMap;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.api.core.v01.population.Population;
 import org.matsim.application.analysis.population.Category;
 import org.matsim.application.analysis.population.TripAnalysis;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigGroup;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.config.groups.ScoringConfigGroup;
+import org.matsim.core.controler.OutputDirectoryHierarchy;
 import org.matsim.core.population.PersonUtils;
 import org.matsim.core.population.PopulationUtils;
 import org.matsim.core.scoring.functions.ActivityUtilityParameters;
@@ -33,8 +35,13 @@ import org.matsim.core.scoring.functions.ScoringParametersForPerson;
 import org.matsim.pt.PtConstants;
 import org.matsim.pt.config.TransitConfigGroup;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URISyntaxException;
+import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Scoring parameters for {@link AdvancedScoringConfigGroup}. This makes use of the standard scoring and adds persons specific differences.
@@ -43,21 +50,41 @@ public class IndividualPersonScoringParameters implements ScoringParametersForPe
 
 	private static final Logger log = LogManager.getLogger(IndividualPersonScoringParameters.class);
 	/**
-	 * Header for info file.
+	 * Column dictionary for the variation records. Per mode there is the constant, daily constant and one column per distance group.
 	 */
-	final Set<String> header = new LinkedHashSet<>();
+	private final List<String> variationColumns;
 	/**
-	 * This map contains debug information to be written out after first iteration.
+	 * Number of distance group columns per mode.
 	 */
-	final Map<Id<Person>, Object2DoubleMap<String>> info = new ConcurrentHashMap<>();
+	private final int distColumns;
+	/**
+	 * Streams variation records to the output until the first iteration has ended, null if not written.
+	 */
+	private volatile PersonVariationWriter variations;
 	/**
 	 * Cache instances of {@link ActivityUtilityParameters} for each subpopulation.
 	 */
 	private final Map<String, Map<String, ActivityUtilityParameters>> actUtils = new ConcurrentHashMap<>();
 	/**
-	 * Cache instances of {@link ScoringParameters} for each person.
+	 * Base {@link ScoringParameters} without any person specific adjustments for each subpopulation.
+	 */
+	private final Map<String, Base> baseParams = new ConcurrentHashMap<>();
+	/**
+	 * Stores the person specific values in primitive arrays, instead of caching {@link ScoringParameters} for each person.
+	 */
+	private final PersonScoringParameterStore store;
+	/**
+	 * Registry used for the mode parameter arrays of {@link PersonParameters}.
+	 */
+	private final ModeRegistry modes;
+	/**
+	 * Registry index for each mode index of the store.
 	 */
-	private final IdMap<Person, ScoringParameters> cache;
+	private final int[] registryIndex;
+	/**
+	 * Cache of built {@link ScoringParameters} for persons with person specific values, for callers which require the full parameters.
+	 */
+	private final Map<Id<Person>, ScoringParameters> materialized = new ConcurrentHashMap<>();
 	/**
 	 * Cache and reuse distance group arrays.
 	 */
@@ -76,20 +103,64 @@ public class IndividualPersonScoringParameters implements ScoringParametersForPe
 	private final ScoringConfigGroup basicScoring;
 	private final TransitConfigGroup transitConfig;
 	private final AdvancedScoringConfigGroup scoring;
+	/**
+	 * Stored preferences from a previous run, null if the person attributes are used.
+	 */
+	private final PersonPreferencesFile preferences;
 	/**
 	 * Average income of all agents with this attribute. Can be NaN if not used.
 	 */
 	private final double globalAvgIncome;
 
-	@Inject
 	public IndividualPersonScoringParameters(Scenario scenario) {
+		this(scenario, null);
+	}
+
+	/**
+	 * Constructor, which also writes the person variations into the output directory.
+	 */
+	@Inject
+	public IndividualPersonScoringParameters(Scenario scenario, OutputDirectoryHierarchy io) {
 		this.scenario = scenario;
 		this.basicScoring = scenario.getConfig().scoring();
 		this.scoring = ConfigUtils.addOrGetModule(scenario.getConfig(), AdvancedScoringConfigGroup.class);
 		this.transitConfig = scenario.getConfig().transit();
 		this.globalAvgIncome = computeAvgIncome(scenario.getPopulation());
 		this.categories = Category.fromConfigParams(this.scoring.getScoringParameters());
-		this.cache = new IdMap<>(Person.class, scenario.getPopulation().getPersons().size());
+		this.store = new PersonScoringParameterStore(collectModes(this.scoring), Id.getNumberOfIds(Person.class));
+		this.preferences = readPreferences(scenario.getConfig(), this.scoring);
+		this.modes = new ModeRegistry(scenario.getConfig());
+
+		this.registryIndex = new int[store.getNumberOfModes()];
+		for (int m = 0; m < registryIndex.length; m++) {
+			registryIndex[m] = modes.getIndex(store.getMode(m));
+		}
+
+		List<Integer> dists = new ArrayList<>();
+		if (scoring.distGroups != null && !scoring.distGroups.isEmpty()) {
+			dists.addAll(scoring.distGroups);
+			if (dists.get(0) != 0)
+				dists.add(0, 0);
+		}
+
+		this.distColumns = dists.size();
+		this.variationColumns = new ArrayList<>();
+		for (int m = 0; m < store.getNumberOfModes(); m++) {
+			String mode = store.getMode(m);
+			variationColumns.add(mode + "_constant");
+			variationColumns.add(mode + "_dailyConstant");
+			for (int dist : dists) {
+				variationColumns.add("%s_dist_%.0f".formatted(mode, (double) dist));
+			}
+		}
+
+		if (io != null) {
+			try {
+				this.variations = new PersonVariationWriter(Path.of(io.getOutputFilename("person_util_variations.bin.gz")), variationColumns);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
 
 		// Create uncorrelated seed from the global seed
 		SplittableRandom rng = new SplittableRandom(scenario.getConfig().global().getRandomSeed());
@@ -101,6 +172,32 @@ public class IndividualPersonScoringParameters implements ScoringParametersForPe
 		this.rnd = ThreadLocal.withInitial(() -> new Context(seed));
 	}
 
+	/**
+	 * All modes that may have person specific parameters.
+	 */
+	private static Set<String> collectModes(AdvancedScoringConfigGroup scoring) {
+		Set<String> modes = new LinkedHashSet<>();
+		for (AdvancedScoringConfigGroup.ScoringParameters parameter : scoring.getScoringParameters()) {
+			modes.addAll(parameter.getModeParams().keySet());
+		}
+		return modes;
+	}
+
+	private static PersonPreferencesFile readPreferences(Config config, AdvancedScoringConfigGroup scoring) {
+		if (scoring.preferencesFile == null || scoring.preferencesFile.isBlank())
+			return null;
+
+		try {
+			Path path = Path.of(ConfigGroup.getInputFileURL(config.getContext(), scoring.preferencesFile).toURI());
+			log.info("Reading person preferences from {}", path);
+			return PersonPreferencesFile.read(path);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (URISyntaxException e) {
+			throw new IllegalArgumentException("Invalid preferences file: " + scoring.preferencesFile, e);
+		}
+	}
+
 	static DistanceGroup[] calcDistanceGroups(List<Integer> dists, DoubleList distUtils) {
 
 		// Nothing to do if no distance groups are defined.
@@ -174,126 +271,308 @@ public class IndividualPersonScoringParameters implements ScoringParametersForPe
 		}
 	}
 
+	/**
+	 * Full {@link ScoringParameters} of a person. These can only be created by a builder, so prefer {@link #getPersonParameters(Person)} where possible.
+	 * Persons without any person specific values share the parameters of their subpopulation, all others are built once and cached.
+	 */
 	@Override
 	public ScoringParameters getScoringParameters(Person person) {
 
-		return this.cache.computeIfAbsent(person.getId(), id -> {
+		ScoringParameters cached = materialized.get(person.getId());
+		if (cached != null)
+			return cached;
 
-			String subpopulation = PopulationUtils.getSubpopulation(person);
-			ScoringConfigGroup.ScoringParameterSet scoringParameters = basicScoring.getScoringParameters(subpopulation);
+		PersonParameters view = getPersonParameters(person);
+		if (view.modeParams() == getBase(person.getId()).modeParams() && view.marginalUtilityOfMoney() == view.base().marginalUtilityOfMoney)
+			return view.base();
 
-			// Activity params can be reused per subpopulation
-			Map<String, ActivityUtilityParameters> activityParams = actUtils.computeIfAbsent(subpopulation, k -> {
-				Map<String, ActivityUtilityParameters> ap = new TreeMap<>();
-				for (ScoringConfigGroup.ActivityParams params : scoringParameters.getActivityParams()) {
-					ActivityUtilityParameters.Builder factory = new ActivityUtilityParameters.Builder(params);
-					ap.put(params.getActivityType(), factory.build());
-				}
+		return materialized.computeIfAbsent(person.getId(), id -> buildScoringParameters(id, view));
+	}
 
-				// The code to add this activity type is always copied between different scoring implementations
-				// it might not be actually needed anymore (because default staging activities are also added elsewhere)
-				// but it's not clear if it's safe to remove it.
-				if (transitConfig.isUseTransit()) {
-					ScoringConfigGroup.ActivityParams transitActivityParams = new ScoringConfigGroup.ActivityParams(PtConstants.TRANSIT_ACTIVITY_TYPE);
-					transitActivityParams.setTypicalDuration(120.0);
-					transitActivityParams.setOpeningTime(0.);
-					transitActivityParams.setClosingTime(0.);
-					ActivityUtilityParameters.Builder modeParamsBuilder = new ActivityUtilityParameters.Builder(transitActivityParams);
-					modeParamsBuilder.setScoreAtAll(false);
-					ap.put(PtConstants.TRANSIT_ACTIVITY_TYPE, modeParamsBuilder.build());
-				}
+	/**
+	 * Lightweight parameters of a person, which point to the shared parameters of its subpopulation and only replace the person specific mode parameters.
+	 * The mode parameter array is indexed by {@link #getModeRegistry()}.
+	 */
+	PersonParameters getPersonParameters(Person person) {
 
-				return ap;
-			});
+		Id<Person> id = person.getId();
+		if (!store.contains(id))
+			computeParameters(person);
 
-			ScoringParameters.Builder builder = new ScoringParameters.Builder(basicScoring,
-				scoringParameters, activityParams, scenario.getConfig().scenario());
+		Base base = getBase(id);
 
-			Double personalIncome = PersonUtils.getIncome(person);
-			// Income dependent scoring might be disabled
-			if (!Double.isNaN(globalAvgIncome) && personalIncome != null) {
-				if (personalIncome != 0) {
-					builder.setMarginalUtilityOfMoney(scoringParameters.getMarginalUtilityOfMoney() *
-						Math.pow(globalAvgIncome / personalIncome, this.scoring.incomeExponent));
-				} else {
-					log.warn("You have set income to {} for person {}. This is invalid and gets ignored.Instead, the marginalUtilityOfMoney is derived from the subpopulation's scoring parameters.", personalIncome, person);
-				}
+		double marginalUtilityOfMoney = store.getMarginalUtilityOfMoney(id);
+		if (Double.isNaN(marginalUtilityOfMoney))
+			marginalUtilityOfMoney = base.params().marginalUtilityOfMoney;
+
+		if (!store.hasDelta(id))
+			return new PersonParameters(base.params(), marginalUtilityOfMoney, base.modeParams());
+
+		ModeUtilityParameters[] modeParams = base.modeParams().clone();
+		for (int m = 0; m < store.getNumberOfModes(); m++) {
+
+			int groups = store.getDistanceGroupsIndex(id, m);
+			int r = registryIndex[m];
+			if (groups == PersonScoringParameterStore.NO_DELTA || r < 0 || base.modeParams()[r] == null)
+				continue;
+
+			modeParams[r] = new DistanceGroupModeUtilityParameters(base.modeParams()[r],
+				store.getConstant(id, m), store.getDailyConstant(id, m), store.getDistanceGroups(groups));
+		}
+
+		return new PersonParameters(base.params(), marginalUtilityOfMoney, modeParams);
+	}
+
+	/**
+	 * Registry of the mode parameter arrays returned by {@link #getPersonParameters(Person)}.
+	 */
+	ModeRegistry getModeRegistry() {
+		return modes;
+	}
+
+	private Base getBase(Id<Person> id) {
+		return baseParams.get(store.getSubpopulation(id));
+	}
+
+	/**
+	 * Compute the parameters of all persons in the population, using a fork-join pool with the given number of threads.
+	 * Persons that already have parameters are skipped.
+	 */
+	public void precompute(Population population, int threads) {
+
+		Runtime runtime = Runtime.getRuntime();
+		long usedBefore = runtime.totalMemory() - runtime.freeMemory();
+		long start = System.nanoTime();
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.submit(() -> population.getPersons().values().parallelStream()
+				.filter(p -> !store.contains(p.getId()))
+				.forEach(this::computeParameters)
+			).join();
+		} finally {
+			pool.shutdown();
+		}
+
+		long usedAfter = runtime.totalMemory() - runtime.freeMemory();
+
+		log.info("Computed scoring parameters for {} persons with {} threads in {} ms, approx. memory used: {} MB",
+			population.getPersons().size(), threads, (System.nanoTime() - start) / 1_000_000, (usedAfter - usedBefore) / (1024 * 1024));
+	}
+
+	/**
+	 * Stop writing variation records and return the writer, which is already closed. Returns null if there is no writer.
+	 */
+	PersonVariationWriter closeVariations() throws IOException {
+		PersonVariationWriter writer = this.variations;
+		this.variations = null;
+		if (writer != null)
+			writer.close();
+
+		return writer;
+	}
+
+	/**
+	 * Write the preferences of all given persons, for which parameters have been computed, to a {@link PersonPreferencesFile}.
+	 */
+	void writePreferences(Path path, Collection<? extends Person> persons) throws IOException {
+
+		List<String> modes = new ArrayList<>();
+		for (int m = 0; m < store.getNumberOfModes(); m++) {
+			modes.add(store.getMode(m));
+		}
+
+		List<Id<Person>> ids = persons.stream()
+			.map(Person::getId)
+			.filter(store::contains)
+			.toList();
+
+		PersonPreferencesFile.write(path, modes, ids, (id, row) -> {
+			for (int m = 0; m < modes.size(); m++) {
+				boolean present = store.getDistanceGroupsIndex(id, m) != PersonScoringParameterStore.NO_DELTA;
+				row[m * 2] = present ? store.getConstant(id, m) : Double.NaN;
+				row[m * 2 + 1] = present ? store.getDailyConstant(id, m) : Double.NaN;
 			}
+		});
+	}
+
+	/**
+	 * Build the {@link ScoringParameters} from the lightweight parameters of a person.
+	 */
+	private ScoringParameters buildScoringParameters(Id<Person> id, PersonParameters view) {
 
-			Map<String, DistanceGroupModeUtilityParameters.DeltaBuilder> deltaParams = new HashMap<>();
+		String subpopulation = store.getSubpopulation(id);
+		ScoringConfigGroup.ScoringParameterSet scoringParameters = basicScoring.getScoringParameters(subpopulation);
 
-			this.rnd.get().setSeed(person);
+		ScoringParameters.Builder builder = new ScoringParameters.Builder(basicScoring,
+			scoringParameters, getActivityParams(subpopulation, scoringParameters), scenario.getConfig().scenario());
 
-			for (AdvancedScoringConfigGroup.ScoringParameters parameter : scoring.getScoringParameters()) {
+		builder.setMarginalUtilityOfMoney(view.marginalUtilityOfMoney());
 
-				if (Category.matchAttributesWithConfig(person.getAttributes(), parameter, categories)) {
-					for (Map.Entry<String, AdvancedScoringConfigGroup.ModeParams> mode : parameter.getModeParams().entrySet()) {
+		for (int m = 0; m < store.getNumberOfModes(); m++) {
+			int r = registryIndex[m];
+			if (store.getDistanceGroupsIndex(id, m) != PersonScoringParameterStore.NO_DELTA && r >= 0 && view.modeParams()[r] != null)
+				builder.setModeParameters(store.getMode(m), view.modeParams()[r]);
+		}
 
-						DistanceGroupModeUtilityParameters.DeltaBuilder b =
-							deltaParams.computeIfAbsent(mode.getKey(), k -> new DistanceGroupModeUtilityParameters.DeltaBuilder());
+		return builder.build();
+	}
 
-						b.addUtilsDistance(mode.getValue());
-						addDeltaParams(this.rnd.get(), b, mode.getValue());
-					}
-				}
+	/**
+	 * Activity params can be reused per subpopulation.
+	 */
+	private Map<String, ActivityUtilityParameters> getActivityParams(String subpopulation, ScoringConfigGroup.ScoringParameterSet scoringParameters) {
+		return actUtils.computeIfAbsent(subpopulation, k -> {
+			Map<String, ActivityUtilityParameters> ap = new TreeMap<>();
+			for (ScoringConfigGroup.ActivityParams params : scoringParameters.getActivityParams()) {
+				ActivityUtilityParameters.Builder factory = new ActivityUtilityParameters.Builder(params);
+				ap.put(params.getActivityType(), factory.build());
 			}
 
-			Object attr = person.getAttributes().getAttribute("utilDelta");
-			Object2DoubleMap<String> existing = new Object2DoubleOpenHashMap<>();
-			if (attr instanceof String s) {
-				String[] split = s.split("\\|");
-				for (String s1 : split) {
-					String[] split1 = s1.split("=");
-					existing.put(split1[0], Double.parseDouble(split1[1]));
-				}
+			// The code to add this activity type is always copied between different scoring implementations
+			// it might not be actually needed anymore (because default staging activities are also added elsewhere)
+			// but it's not clear if it's safe to remove it.
+			if (transitConfig.isUseTransit()) {
+				ScoringConfigGroup.ActivityParams transitActivityParams = new ScoringConfigGroup.ActivityParams(PtConstants.TRANSIT_ACTIVITY_TYPE);
+				transitActivityParams.setTypicalDuration(120.0);
+				transitActivityParams.setOpeningTime(0.);
+				transitActivityParams.setClosingTime(0.);
+				ActivityUtilityParameters.Builder modeParamsBuilder = new ActivityUtilityParameters.Builder(transitActivityParams);
+				modeParamsBuilder.setScoreAtAll(false);
+				ap.put(PtConstants.TRANSIT_ACTIVITY_TYPE, modeParamsBuilder.build());
+			}
+
+			return ap;
+		});
+	}
+
+	/**
+	 * Compute the person specific parameters and put them into the store.
+	 */
+	private void computeParameters(Person person) {
+
+		String subpopulation = PopulationUtils.getSubpopulation(person);
+		ScoringConfigGroup.ScoringParameterSet scoringParameters = basicScoring.getScoringParameters(subpopulation);
+
+		// Base parameters are shared by all persons of a subpopulation
+		Base shared = baseParams.computeIfAbsent(subpopulation, k -> {
+			ScoringParameters params = new ScoringParameters.Builder(basicScoring,
+				scoringParameters, getActivityParams(subpopulation, scoringParameters), scenario.getConfig().scenario()).build();
+			return new Base(params, modes.resolve(params));
+		});
+		ScoringParameters base = shared.params();
+
+		double marginalUtilityOfMoney = Double.NaN;
+
+		Double personalIncome = PersonUtils.getIncome(person);
+		// Income dependent scoring might be disabled
+		if (!Double.isNaN(globalAvgIncome) && personalIncome != null) {
+			if (personalIncome != 0) {
+				marginalUtilityOfMoney = scoringParameters.getMarginalUtilityOfMoney() *
+					Math.pow(globalAvgIncome / personalIncome, this.scoring.incomeExponent);
+			} else {
+				log.warn("You have set income to {} for person {}. This is invalid and gets ignored.Instead, the marginalUtilityOfMoney is derived from the subpopulation's scoring parameters.", personalIncome, person);
 			}
+		}
 
-			for (Map.Entry<String, DistanceGroupModeUtilityParameters.DeltaBuilder> mode : deltaParams.entrySet()) {
-				ModeUtilityParameters params = builder.getModeParameters(mode.getKey());
-				DistanceGroupModeUtilityParameters.DeltaBuilder delta = mode.getValue();
+		Map<String, DistanceGroupModeUtilityParameters.DeltaBuilder> deltaParams = new HashMap<>();
 
-				// These arrays are re-used if possible
-				DistanceGroup[] groups = distGroups.computeIfAbsent(delta.getPerDistGroup(), k -> calcDistanceGroups(scoring.distGroups, k));
+		this.rnd.get().setSeed(person);
 
-				// This may overwrite the preferences with the one stored
-				loadPreferences(mode.getKey(), delta, person, existing);
+		for (AdvancedScoringConfigGroup.ScoringParameters parameter : scoring.getScoringParameters()) {
 
-				DistanceGroupModeUtilityParameters p = new DistanceGroupModeUtilityParameters(params, delta, groups);
-				builder.setModeParameters(mode.getKey(), p);
+			if (Category.matchAttributesWithConfig(person.getAttributes(), parameter, categories)) {
+				for (Map.Entry<String, AdvancedScoringConfigGroup.ModeParams> mode : parameter.getModeParams().entrySet()) {
 
-				// Collect final adjustments information
-				Object2DoubleMap<String> values = info.computeIfAbsent(person.getId(), k -> new Object2DoubleOpenHashMap<>());
+					DistanceGroupModeUtilityParameters.DeltaBuilder b =
+						deltaParams.computeIfAbsent(mode.getKey(), k -> new DistanceGroupModeUtilityParameters.DeltaBuilder());
 
-				// Write the overall constants, but only if they are different to the base values
-				if (delta.constant != 0) {
-					values.put(mode.getKey() + "_constant", p.constant);
-					existing.put(mode.getKey() + "_constant", delta.constant);
+					b.addUtilsDistance(mode.getValue());
+					addDeltaParams(this.rnd.get(), b, mode.getValue());
 				}
+			}
+		}
 
-				if (delta.dailyUtilityConstant != 0) {
-					values.put(mode.getKey() + "_dailyConstant", p.dailyUtilityConstant);
-					existing.put(mode.getKey() + "_dailyConstant", delta.dailyUtilityConstant);
-				}
+		Object attr = preferences == null ? person.getAttributes().getAttribute("utilDelta") : null;
+		Object2DoubleMap<String> existing = new Object2DoubleOpenHashMap<>();
+		if (attr instanceof String s) {
+			String[] split = s.split("\\|");
+			for (String s1 : split) {
+				String[] split1 = s1.split("=");
+				existing.put(split1[0], Double.parseDouble(split1[1]));
+			}
+		}
 
-				if (groups != null) {
-					for (DistanceGroup group : groups) {
-						values.put("%s_dist_%.0f".formatted(mode.getKey(), group.dist()), group.utilPerM());
-					}
-				}
+		int n = store.getNumberOfModes();
+		double[] constants = new double[n];
+		double[] dailyConstants = new double[n];
+		int[] groupsIdx = new int[n];
+		Arrays.fill(groupsIdx, PersonScoringParameterStore.NO_DELTA);
+
+		// Final adjustments information, NaN if not present
+		double[] variation = new double[variationColumns.size()];
+		Arrays.fill(variation, Double.NaN);
+
+		for (Map.Entry<String, DistanceGroupModeUtilityParameters.DeltaBuilder> mode : deltaParams.entrySet()) {
+			ModeUtilityParameters params = base.modeParams.get(mode.getKey());
+			DistanceGroupModeUtilityParameters.DeltaBuilder delta = mode.getValue();
+
+			// These arrays are re-used if possible
+			DistanceGroup[] groups = distGroups.computeIfAbsent(delta.getPerDistGroup(), k -> calcDistanceGroups(scoring.distGroups, k));
+
+			// This may overwrite the preferences with the one stored
+			if (preferences != null)
+				loadPreferences(mode.getKey(), delta, person,
+					preferences.getConstant(person.getId(), mode.getKey()), preferences.getDailyConstant(person.getId(), mode.getKey()));
+			else
+				loadPreferences(mode.getKey(), delta, person,
+					existing.getOrDefault(mode.getKey() + "_constant", Double.NaN), existing.getOrDefault(mode.getKey() + "_dailyConstant", Double.NaN));
+
+			int m = store.getModeIndex(mode.getKey());
+			constants[m] = delta.constant;
+			dailyConstants[m] = delta.dailyUtilityConstant;
+			groupsIdx[m] = store.internDistanceGroups(groups);
+
+			int col = m * (2 + distColumns);
+
+			// Write the overall constants, but only if they are different to the base values
+			if (delta.constant != 0) {
+				variation[col] = params.constant + delta.constant;
+				existing.put(mode.getKey() + "_constant", delta.constant);
+			}
 
-				header.addAll(values.keySet());
+			if (delta.dailyUtilityConstant != 0) {
+				variation[col + 1] = params.dailyUtilityConstant + delta.dailyUtilityConstant;
+				existing.put(mode.getKey() + "_dailyConstant", delta.dailyUtilityConstant);
 			}
 
-			if (!existing.isEmpty()) {
-				Joiner.MapJoiner mapJoiner = Joiner.on("|").withKeyValueSeparator("=");
-				person.getAttributes().putAttribute("utilDelta", mapJoiner.join(existing));
+			if (groups != null) {
+				for (int i = 0; i < groups.length; i++) {
+					variation[col + 2 + i] = groups[i].utilPerM();
+				}
 			}
+		}
 
-			return builder.build();
-		});
+		PersonVariationWriter writer = this.variations;
+		if (writer != null && !deltaParams.isEmpty()) {
+			writer.write(person.getId(), variation);
+		}
+
+		if (scoring.preferencesAttribute && !existing.isEmpty()) {
+			Joiner.MapJoiner mapJoiner = Joiner.on("|").withKeyValueSeparator("=");
+			person.getAttributes().putAttribute("utilDelta", mapJoiner.join(existing));
+		}
+
+		store.put(person.getId(), subpopulation, marginalUtilityOfMoney, constants, dailyConstants, groupsIdx);
 	}
 
-	private void loadPreferences(String mode, DistanceGroupModeUtilityParameters.DeltaBuilder delta, Person person, Object2DoubleMap<String> existing) {
+	/**
+	 * Load stored preferences of a person.
+	 *
+	 * @param constant      stored delta of the constant, NaN if not present
+	 * @param dailyConstant stored delta of the daily constant, NaN if not present
+	 */
+	private void loadPreferences(String mode, DistanceGroupModeUtilityParameters.DeltaBuilder delta, Person person, double constant, double dailyConstant) {
 
 		boolean isRefPerson = person.getAttributes().getAttribute(TripAnalysis.ATTR_REF_ID) != null;
 
@@ -303,19 +582,19 @@ public class IndividualPersonScoringParameters implements ScoringParametersForPe
 		}
 
 		// Else, require that the attributes are present
-		if (!existing.containsKey(mode + "_constant") && scoring.loadPreferences == AdvancedScoringConfigGroup.LoadPreferences.requireAttribute) {
+		if (Double.isNaN(constant) && scoring.loadPreferences == AdvancedScoringConfigGroup.LoadPreferences.requireAttribute) {
 			throw new IllegalArgumentException("Person " + person.getId() + " does not have attribute " + mode + "_constant");
 		}
-		if (!existing.containsKey(mode + "_dailyConstant") && scoring.loadPreferences == AdvancedScoringConfigGroup.LoadPreferences.requireAttribute) {
+		if (Double.isNaN(dailyConstant) && scoring.loadPreferences == AdvancedScoringConfigGroup.LoadPreferences.requireAttribute) {
 			throw new IllegalArgumentException("Person " + person.getId() + " does not have attribute " + mode + "_dailyConstant");
 		}
 
 		// Use attributes if they are present
-		if (existing.containsKey(mode + "_constant"))
-			delta.constant = existing.getDouble(mode + "_constant") ;
+		if (!Double.isNaN(constant))
+			delta.constant = constant;
 
-		if (existing.containsKey(mode + "_dailyConstant"))
-			delta.dailyUtilityConstant = existing.getDouble(mode + "_dailyConstant");
+		if (!Double.isNaN(dailyConstant))
+			delta.dailyUtilityConstant = dailyConstant;
 	}
 
 	/**
@@ -341,6 +620,22 @@ public class IndividualPersonScoringParameters implements ScoringParametersForPe
 		}
 	}
 
+	/**
+	 * Shared parameters of a subpopulation, with mode parameters resolved by the registry.
+	 */
+	private record Base(ScoringParameters params, ModeUtilityParameters[] modeParams) {
+	}
+
+	/**
+	 * Parameters of a person as view on the shared parameters of its subpopulation.
+	 *
+	 * @param base                   shared parameters of the subpopulation, which must not be used for mode parameters and marginal utility of money
+	 * @param marginalUtilityOfMoney marginal utility of money of the person
+	 * @param modeParams             mode parameters of the person by registry index, the array is shared if the person has no mode specific values
+	 */
+	record PersonParameters(ScoringParameters base, double marginalUtilityOfMoney, ModeUtilityParameters[] modeParams) {
+	}
+
 	/**
 	 * Thread-local context for random number generation. This makes generation thread-safe and consistent independently of threads and order of persons.
 	 */
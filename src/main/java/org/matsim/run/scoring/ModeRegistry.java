@@ -0,0 +1,96 @@
+package org.matsim.run.scoring;
+
+import com.google.inject.Inject;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.groups.ScoringConfigGroup;
+import org.matsim.core.scoring.functions.ModeUtilityParameters;
+import org.matsim.core.scoring.functions.ScoringParameters;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Maps all modes of a scenario to small integers, so that mode specific values can be stored in arrays.
+ */
+public final class ModeRegistry {
+
+	private final String[] modes;
+
+	@Inject
+	public ModeRegistry(Config config) {
+		this(collectModes(config));
+	}
+
+	ModeRegistry(Collection<String> modes) {
+		Set<String> all = new LinkedHashSet<>(modes);
+
+		// These modes are scored with walk parameters if they do not have their own
+		all.add(TransportMode.walk);
+		all.add(TransportMode.transit_walk);
+		all.add(TransportMode.non_network_walk);
+
+		this.modes = all.stream().map(String::intern).toArray(String[]::new);
+	}
+
+	private static Set<String> collectModes(Config config) {
+		Set<String> modes = new LinkedHashSet<>();
+		for (ScoringConfigGroup.ScoringParameterSet params : config.scoring().getScoringParametersPerSubpopulation().values()) {
+			modes.addAll(params.getModes().keySet());
+		}
+
+		modes.addAll(config.transit().getTransitModes());
+		return modes;
+	}
+
+	/**
+	 * Number of registered modes.
+	 */
+	public int size() {
+		return modes.length;
+	}
+
+	/**
+	 * Return the mode with given index.
+	 */
+	public String getMode(int idx) {
+		return modes[idx];
+	}
+
+	/**
+	 * Return the index of a mode or -1 if it is not registered.
+	 * There are only few modes, so a scan is faster than hashing. Mode strings are usually interned and compared by identity first.
+	 */
+	public int getIndex(String mode) {
+		for (int i = 0; i < modes.length; i++) {
+			if (modes[i] == mode)
+				return i;
+		}
+
+		for (int i = 0; i < modes.length; i++) {
+			if (modes[i].equals(mode))
+				return i;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Resolve the mode parameters into an array by mode index. Modes without own parameters are null,
+	 * except for {@link TransportMode#transit_walk} and {@link TransportMode#non_network_walk} which use the walk parameters.
+	 */
+	public ModeUtilityParameters[] resolve(ScoringParameters params) {
+
+		ModeUtilityParameters[] result = new ModeUtilityParameters[modes.length];
+		ModeUtilityParameters walk = params.modeParams.get(TransportMode.walk);
+
+		for (int i = 0; i < modes.length; i++) {
+			result[i] = params.modeParams.get(modes[i]);
+			if (result[i] == null && (modes[i].equals(TransportMode.transit_walk) || modes[i].equals(TransportMode.non_network_walk)))
+				result[i] = walk;
+		}
+
+		return result;
+	}
+}
@@ -0,0 +1,161 @@
+package org.matsim.run.scoring;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * Binary file with the person specific preferences, i.e. the delta of the constant and daily constant for each mode.
+ * This is a compact alternative to the "utilDelta" person attribute. The data section is memory-mapped and accessed by person id.
+ * <p>
+ * Layout: magic, version, modes, person ids, followed by one fixed-width row of doubles per person,
+ * containing constant and daily constant for each mode. Missing values are stored as NaN.
+ */
+public final class PersonPreferencesFile {
+
+	private static final int MAGIC = 0x4D505246;
+	private static final int VERSION = 1;
+
+	private final Object2IntMap<String> modes;
+	private final Object2IntMap<Id<Person>> rows;
+	private final MappedByteBuffer data;
+	private final int rowSize;
+
+	private PersonPreferencesFile(Object2IntMap<String> modes, Object2IntMap<Id<Person>> rows, MappedByteBuffer data) {
+		this.modes = modes;
+		this.rows = rows;
+		this.data = data;
+		this.rowSize = modes.size() * 2 * Double.BYTES;
+	}
+
+	/**
+	 * Read and map the file.
+	 */
+	public static PersonPreferencesFile read(Path path) throws IOException {
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new IOException("Preferences file " + path + " is too large to be mapped.");
+
+			MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+			if (buf.getInt() != MAGIC)
+				throw new IOException("File " + path + " is not a person preferences file.");
+
+			int version = buf.getInt();
+			if (version != VERSION)
+				throw new IOException("Unsupported version %d of preferences file %s".formatted(version, path));
+
+			Object2IntMap<String> modes = new Object2IntOpenHashMap<>();
+			modes.defaultReturnValue(-1);
+			int nModes = buf.getInt();
+			for (int i = 0; i < nModes; i++) {
+				modes.put(readString(buf), i);
+			}
+
+			Object2IntMap<Id<Person>> rows = new Object2IntOpenHashMap<>();
+			rows.defaultReturnValue(-1);
+			int nPersons = buf.getInt();
+			for (int i = 0; i < nPersons; i++) {
+				rows.put(Id.createPersonId(readString(buf)), i);
+			}
+
+			MappedByteBuffer data = buf.slice();
+			return new PersonPreferencesFile(modes, rows, data);
+		}
+	}
+
+	/**
+	 * Write preferences for the given persons. The row of each person must be filled by {@code values}.
+	 */
+	public static void write(Path path, List<String> modes, List<Id<Person>> persons, RowFiller values) throws IOException {
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+
+			out.writeInt(modes.size());
+			for (String mode : modes) {
+				writeString(out, mode);
+			}
+
+			out.writeInt(persons.size());
+			for (Id<Person> id : persons) {
+				writeString(out, id.toString());
+			}
+
+			double[] row = new double[modes.size() * 2];
+			for (Id<Person> id : persons) {
+				values.fill(id, row);
+				for (double v : row) {
+					out.writeDouble(v);
+				}
+			}
+		}
+	}
+
+	private static String readString(ByteBuffer buf) {
+		byte[] bytes = new byte[buf.getInt()];
+		buf.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Whether the file contains any entry for this person.
+	 */
+	public boolean contains(Id<Person> id) {
+		return rows.containsKey(id);
+	}
+
+	/**
+	 * Return the delta of the constant, or NaN if not present.
+	 */
+	public double getConstant(Id<Person> id, String mode) {
+		return get(id, mode, 0);
+	}
+
+	/**
+	 * Return the delta of the daily constant, or NaN if not present.
+	 */
+	public double getDailyConstant(Id<Person> id, String mode) {
+		return get(id, mode, 1);
+	}
+
+	private double get(Id<Person> id, String mode, int offset) {
+		int row = rows.getInt(id);
+		int m = modes.getInt(mode);
+		if (row == -1 || m == -1)
+			return Double.NaN;
+
+		return data.getDouble(row * rowSize + (m * 2 + offset) * Double.BYTES);
+	}
+
+	/**
+	 * Fill the row of a person, which contains constant and daily constant for each mode.
+	 */
+	@FunctionalInterface
+	public interface RowFiller {
+		void fill(Id<Person> id, double[] row);
+	}
+}
@@ -0,0 +1,233 @@
+package org.matsim.run.scoring;
+
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Columnar store of the person specific scoring deltas computed by {@link IndividualPersonScoringParameters}.
+ * Values are kept in primitive arrays indexed by {@link Id#index()} of the person and the mode index.
+ * Distance group arrays and subpopulations are interned and shared between persons.
+ * <p>
+ * Writes are synchronized, reads are lock-free. The values of a person are written once and published by a release write of its present flag,
+ * so that they can be read freely after {@link #contains(Id)} returned true. Grown arrays and interned values are published through volatile fields.
+ */
+final class PersonScoringParameterStore {
+
+	/**
+	 * Marker for modes that do not have any person specific delta.
+	 */
+	static final int NO_DELTA = -2;
+
+	/**
+	 * Marker for modes that have a delta, but no distance groups.
+	 */
+	static final int NO_DIST_GROUPS = -1;
+
+	private static final double GROWTH = 1.5;
+
+	private static final VarHandle PRESENT = MethodHandles.arrayElementVarHandle(byte[].class);
+
+	private final String[] modes;
+	private final Object2IntMap<String> modeIndex = new Object2IntOpenHashMap<>();
+
+	/**
+	 * Interned distance groups, referenced by index. Copied on write.
+	 */
+	private volatile DistanceGroupTable[] distGroups = new DistanceGroupTable[0];
+	private final Map<DistanceGroup[], Integer> distGroupsIdx = new IdentityHashMap<>();
+
+	/**
+	 * Interned subpopulations, referenced by index. Copied on write.
+	 */
+	private volatile String[] subpopulations = new String[0];
+
+	private volatile Columns columns;
+
+	PersonScoringParameterStore(Collection<String> modes, int expectedSize) {
+		this.modes = modes.toArray(String[]::new);
+		this.modeIndex.defaultReturnValue(-1);
+		for (int i = 0; i < this.modes.length; i++) {
+			modeIndex.put(this.modes[i], i);
+		}
+
+		this.columns = new Columns(Math.max(expectedSize, 16), this.modes.length);
+	}
+
+	/**
+	 * Number of modes that can have person specific deltas.
+	 */
+	int getNumberOfModes() {
+		return modes.length;
+	}
+
+	/**
+	 * Return the mode with the given index.
+	 */
+	String getMode(int idx) {
+		return modes[idx];
+	}
+
+	/**
+	 * Return the index of the mode or -1 if it is not known.
+	 */
+	int getModeIndex(String mode) {
+		return modeIndex.getInt(mode);
+	}
+
+	/**
+	 * Return index of the distance groups, which are added if not present yet. Returns {@link #NO_DIST_GROUPS} for null.
+	 * The arrays are compared by identity, callers should reuse arrays for equal groups.
+	 */
+	synchronized int internDistanceGroups(DistanceGroup[] g) {
+		if (g == null)
+			return NO_DIST_GROUPS;
+
+		return distGroupsIdx.computeIfAbsent(g, k -> {
+			DistanceGroupTable[] copy = Arrays.copyOf(distGroups, distGroups.length + 1);
+			copy[copy.length - 1] = DistanceGroupTable.of(k);
+			distGroups = copy;
+			return copy.length - 1;
+		});
+	}
+
+	/**
+	 * Return the distance groups with given index, or null.
+	 */
+	DistanceGroupTable getDistanceGroups(int idx) {
+		return idx < 0 ? null : distGroups[idx];
+	}
+
+	boolean contains(Id<Person> id) {
+		int idx = id.index();
+		byte[] present = columns.present;
+		return idx < present.length && (byte) PRESENT.getAcquire(present, idx) != 0;
+	}
+
+	/**
+	 * Store the parameters of a person. Persons that are already present are not overwritten.
+	 *
+	 * @param marginalUtilityOfMoney person specific marginal utility of money, NaN if the subpopulation default should be used
+	 * @param constants              delta of the constant per mode index
+	 * @param dailyConstants         delta of the daily constant per mode index
+	 * @param groups                 interned distance group index per mode index, or {@link #NO_DELTA}
+	 */
+	synchronized void put(Id<Person> id, String subpopulation, double marginalUtilityOfMoney,
+						  double[] constants, double[] dailyConstants, int[] groups) {
+
+		int idx = id.index();
+		if (contains(id))
+			return;
+
+		Columns c = ensureCapacity(idx + 1);
+		int n = modes.length;
+
+		int subpop = Arrays.asList(subpopulations).indexOf(subpopulation);
+		if (subpop == -1) {
+			String[] copy = Arrays.copyOf(subpopulations, subpopulations.length + 1);
+			copy[copy.length - 1] = subpopulation;
+			subpopulations = copy;
+			subpop = copy.length - 1;
+		}
+
+		c.subpopulation[idx] = subpop;
+		c.marginalUtilityOfMoney[idx] = marginalUtilityOfMoney;
+		System.arraycopy(constants, 0, c.constant, idx * n, n);
+		System.arraycopy(dailyConstants, 0, c.dailyConstant, idx * n, n);
+		System.arraycopy(groups, 0, c.groups, idx * n, n);
+
+		// Publishes all values written above
+		PRESENT.setRelease(c.present, idx, (byte) 1);
+	}
+
+	String getSubpopulation(Id<Person> id) {
+		return subpopulations[columns.subpopulation[id.index()]];
+	}
+
+	double getMarginalUtilityOfMoney(Id<Person> id) {
+		return columns.marginalUtilityOfMoney[id.index()];
+	}
+
+	double getConstant(Id<Person> id, int mode) {
+		return columns.constant[id.index() * modes.length + mode];
+	}
+
+	double getDailyConstant(Id<Person> id, int mode) {
+		return columns.dailyConstant[id.index() * modes.length + mode];
+	}
+
+	/**
+	 * Return the interned distance group index or {@link #NO_DELTA} if the mode has no person specific parameters.
+	 */
+	int getDistanceGroupsIndex(Id<Person> id, int mode) {
+		return columns.groups[id.index() * modes.length + mode];
+	}
+
+	/**
+	 * Whether the person has a delta for any mode.
+	 */
+	boolean hasDelta(Id<Person> id) {
+		int[] g = columns.groups;
+		int offset = id.index() * modes.length;
+		for (int m = 0; m < modes.length; m++) {
+			if (g[offset + m] != NO_DELTA)
+				return true;
+		}
+		return false;
+	}
+
+	private Columns ensureCapacity(int size) {
+		Columns c = columns;
+		if (size <= c.present.length)
+			return c;
+
+		int capacity = Math.max(size, (int) (c.present.length * GROWTH));
+
+		// Only present persons are copied, which have been completely written before
+		Columns grown = new Columns(c, capacity, modes.length);
+		columns = grown;
+		return grown;
+	}
+
+	/**
+	 * All person columns, which are replaced as a whole when growing.
+	 */
+	private static final class Columns {
+
+		/**
+		 * Whether parameters have been computed for a person, accessed with acquire and release semantics.
+		 */
+		private final byte[] present;
+		private final int[] subpopulation;
+		private final double[] marginalUtilityOfMoney;
+		private final double[] constant;
+		private final double[] dailyConstant;
+		private final int[] groups;
+
+		private Columns(int capacity, int n) {
+			present = new byte[capacity];
+			subpopulation = new int[capacity];
+			marginalUtilityOfMoney = new double[capacity];
+			constant = new double[capacity * n];
+			dailyConstant = new double[capacity * n];
+			groups = new int[capacity * n];
+		}
+
+		private Columns(Columns c, int capacity, int n) {
+			present = Arrays.copyOf(c.present, capacity);
+			subpopulation = Arrays.copyOf(c.subpopulation, capacity);
+			marginalUtilityOfMoney = Arrays.copyOf(c.marginalUtilityOfMoney, capacity);
+			constant = Arrays.copyOf(c.constant, capacity * n);
+			dailyConstant = Arrays.copyOf(c.dailyConstant, capacity * n);
+			groups = Arrays.copyOf(c.groups, capacity * n);
+		}
+	}
+}
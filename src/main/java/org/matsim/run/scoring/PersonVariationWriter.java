@@ -0,0 +1,178 @@
+package org.matsim.run.scoring;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.utils.io.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Streams the person specific variations of the scoring parameters into a compressed columnar file, as soon as they are computed.
+ * Columns are defined up front by a dictionary, each record has a fixed width of doubles with NaN for missing values.
+ * Records are collected in blocks of fixed size, which are written column by column. Only one block needs to be held in memory,
+ * so the variations of the whole population are never held in memory.
+ */
+final class PersonVariationWriter implements Closeable {
+
+	private static final int MAGIC = 0x4D505652;
+	private static final int VERSION = 2;
+
+	/**
+	 * Number of records per block.
+	 */
+	static final int BLOCK_SIZE = 4096;
+
+	private final Path path;
+	private final List<String> columns;
+
+	/**
+	 * Columns that contain at least one value.
+	 */
+	private final boolean[] used;
+
+	/**
+	 * Current block, with the values of each column stored consecutively.
+	 */
+	private final String[] ids = new String[BLOCK_SIZE];
+	private final double[] block;
+	private int size;
+
+	private DataOutputStream out;
+
+	PersonVariationWriter(Path path, List<String> columns) throws IOException {
+		this.path = path;
+		this.columns = columns;
+		this.used = new boolean[columns.size()];
+		this.block = new double[columns.size() * BLOCK_SIZE];
+		this.out = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(Files.newOutputStream(path))));
+
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(columns.size());
+		for (String column : columns) {
+			out.writeUTF(column);
+		}
+	}
+
+	/**
+	 * Write the record of one person. Ignored if the writer has been closed already.
+	 */
+	synchronized void write(Id<Person> id, double[] row) {
+
+		if (out == null)
+			return;
+
+		ids[size] = id.toString();
+		for (int i = 0; i < row.length; i++) {
+			block[i * BLOCK_SIZE + size] = row[i];
+			used[i] |= !Double.isNaN(row[i]);
+		}
+
+		if (++size == BLOCK_SIZE) {
+			try {
+				flush();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Write the current block, first all ids and then the values column by column.
+	 */
+	private void flush() throws IOException {
+
+		if (size == 0)
+			return;
+
+		out.writeInt(size);
+		for (int r = 0; r < size; r++) {
+			out.writeUTF(ids[r]);
+		}
+
+		for (int i = 0; i < columns.size(); i++) {
+			for (int r = 0; r < size; r++) {
+				out.writeDouble(block[i * BLOCK_SIZE + r]);
+			}
+		}
+
+		size = 0;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (out != null) {
+			flush();
+			// Marks the end of the blocks
+			out.writeInt(0);
+			out.close();
+			out = null;
+		}
+	}
+
+	/**
+	 * Convert the written records to csv, only used columns are included and missing values are written as 0.
+	 * The writer has to be closed before.
+	 */
+	synchronized void writeCsv(String output) throws IOException {
+
+		if (out != null)
+			throw new IllegalStateException("Writer must be closed first.");
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new GZIPInputStream(Files.newInputStream(path))));
+			 CSVPrinter csv = new CSVPrinter(IOUtils.getBufferedWriter(output), CSVFormat.DEFAULT)) {
+
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException("Unexpected content in " + path);
+
+			int n = in.readInt();
+			for (int i = 0; i < n; i++) {
+				in.readUTF();
+			}
+
+			csv.print("person");
+			for (int i = 0; i < n; i++) {
+				if (used[i])
+					csv.print(columns.get(i));
+			}
+			csv.println();
+
+			int records;
+			while ((records = in.readInt()) > 0) {
+
+				for (int r = 0; r < records; r++) {
+					ids[r] = in.readUTF();
+				}
+
+				for (int i = 0; i < n; i++) {
+					for (int r = 0; r < records; r++) {
+						block[i * BLOCK_SIZE + r] = in.readDouble();
+					}
+				}
+
+				for (int r = 0; r < records; r++) {
+					csv.print(ids[r]);
+					for (int i = 0; i < n; i++) {
+						double v = block[i * BLOCK_SIZE + r];
+						if (used[i])
+							csv.print(Double.isNaN(v) ? 0 : v);
+					}
+					csv.println();
+				}
+			}
+		}
+	}
+}
@@ -34,7 +34,7 @@ import org.matsim.core.scoring.functions.ModeUtilityParameters;
 import org.matsim.core.scoring.functions.ScoringParameters;
 import org.matsim.pt.PtConstants;
 
-import java.util.HashSet;
+import java.util.BitSet;
 import java.util.Set;
 
 /**
@@ -51,9 +51,21 @@ public final class PiecewiseLinearlLegScoring implements org.matsim.core.scoring
 	 * The parameters used for scoring.
 	 */
 	private final ScoringParameters params;
+	/**
+	 * Parameters of the pt mode, resolved once because they are needed at every pt boarding.
+	 */
+	private final ModeUtilityParameters ptParams;
 	private final Set<String> ptModes;
 	private final double marginalUtilityOfMoney;
-	private final Set<String> modesAlreadyConsideredForDailyConstants;
+	private final ModeRegistry modes;
+	/**
+	 * Mode parameters by mode index of the registry.
+	 */
+	private final ModeUtilityParameters[] modeParams;
+	/**
+	 * Mode indices that have been considered for daily constants.
+	 */
+	private final BitSet modesAlreadyConsideredForDailyConstants;
 	private double score;
 	private boolean nextEnterVehicleIsFirstOfTrip = true;
 	private boolean nextStartPtLegIsFirstOfTrip = true;
@@ -61,10 +73,33 @@ public final class PiecewiseLinearlLegScoring implements org.matsim.core.scoring
 	private double lastActivityEndTime = Double.NaN;
 
 	public PiecewiseLinearlLegScoring(final ScoringParameters params, Set<String> ptModes) {
+		this(params, new ModeRegistry(params.modeParams.keySet()), ptModes);
+	}
+
+	private PiecewiseLinearlLegScoring(final ScoringParameters params, ModeRegistry modes, Set<String> ptModes) {
+		this(params, modes, modes.resolve(params), ptModes);
+	}
+
+	/**
+	 * Constructor with mode parameters already resolved by {@link ModeRegistry#resolve(ScoringParameters)}.
+	 */
+	public PiecewiseLinearlLegScoring(final ScoringParameters params, ModeRegistry modes, ModeUtilityParameters[] modeParams, Set<String> ptModes) {
+		this(params, params.marginalUtilityOfMoney, modes, modeParams, ptModes);
+	}
+
+	/**
+	 * Constructor with person specific marginal utility of money and mode parameters, which take precedence over the ones in {@code params}.
+	 */
+	public PiecewiseLinearlLegScoring(final ScoringParameters params, double marginalUtilityOfMoney, ModeRegistry modes,
+									  ModeUtilityParameters[] modeParams, Set<String> ptModes) {
 		this.params = params;
+		int pt = modes.getIndex(TransportMode.pt);
+		this.ptParams = pt >= 0 ? modeParams[pt] : null;
 		this.ptModes = ptModes;
-		this.modesAlreadyConsideredForDailyConstants = new HashSet<>();
-		this.marginalUtilityOfMoney = this.params.marginalUtilityOfMoney;
+		this.modes = modes;
+		this.modeParams = modeParams;
+		this.modesAlreadyConsideredForDailyConstants = new BitSet(modeParams.length);
+		this.marginalUtilityOfMoney = marginalUtilityOfMoney;
 	}
 
 	@Override
@@ -79,20 +114,19 @@ public final class PiecewiseLinearlLegScoring implements org.matsim.core.scoring
 
 	/**
 	 * Calculate the score for a leg.
+	 *
+	 * @param travelTime travel time in seconds
+	 * @param dist       distance in meters, may be NaN if the route does not provide it
 	 */
-	private double calcLegScore(final double departureTime, final double arrivalTime, final Leg leg) {
+	private double calcLegScore(final String legMode, final double travelTime, final double dist) {
 		double tmpScore = 0.0;
-		// travel time in seconds
-		double travelTime = arrivalTime - departureTime;
-		ModeUtilityParameters modeParams = this.params.modeParams.get(leg.getMode());
+		int mode = modes.getIndex(legMode);
+		ModeUtilityParameters modeParams = mode >= 0 ? this.modeParams[mode] : null;
 
+		// transit_walk and non_network_walk are already resolved to walk parameters
 		if (modeParams == null) {
-			if (leg.getMode().equals(TransportMode.transit_walk) || leg.getMode().equals(TransportMode.non_network_walk)) {
-				modeParams = this.params.modeParams.get(TransportMode.walk);
-			} else {
-//				modeParams = this.params.modeParams.get(TransportMode.other);
-				throw new RuntimeException("just encountered mode for which no scoring parameters are defined: " + leg.getMode());
-			}
+//			modeParams = this.params.modeParams.get(TransportMode.other);
+			throw new RuntimeException("just encountered mode for which no scoring parameters are defined: " + legMode);
 		}
 
 		tmpScore += travelTime * modeParams.marginalUtilityOfTraveling_s;
@@ -100,26 +134,10 @@ public final class PiecewiseLinearlLegScoring implements org.matsim.core.scoring
 		if (modeParams instanceof DistanceGroupModeUtilityParameters distParams) {
 
 			if (modeParams.monetaryDistanceCostRate != 0.0) {
-				Route route = leg.getRoute();
-				// distance in meters
-				double dist = route.getDistance();
-				if (Double.isNaN(dist)) {
-					if (ccc < 10) {
-						ccc++;
-						LogManager.getLogger(this.getClass()).warn("distance is NaN. Will make score of this plan NaN. Possible reason: Simulation does not report " +
-							"a distance for this trip. Possible reason for that: mode is teleported and router does not " +
-							"write distance into plan.  Needs to be fixed or these plans will die out.");
-						if (ccc == 10) {
-							LogManager.getLogger(this.getClass()).warn(Gbl.FUTURE_SUPPRESSED);
-						}
-					}
-				}
+				warnIfNaN(dist);
 				tmpScore += modeParams.monetaryDistanceCostRate * this.marginalUtilityOfMoney * dist;
 			}
 
-			Route route = leg.getRoute();
-			double dist = route.getDistance();
-
 			// Apply the default distance scoring parameter.
 			if (modeParams.marginalUtilityOfDistance_m != 0) {
 				tmpScore += modeParams.marginalUtilityOfDistance_m * dist;
@@ -132,20 +150,7 @@ public final class PiecewiseLinearlLegScoring implements org.matsim.core.scoring
 			// standard leg scoring
 			if (modeParams.marginalUtilityOfDistance_m != 0.0
 				|| modeParams.monetaryDistanceCostRate != 0.0) {
-				Route route = leg.getRoute();
-				// distance in meters
-				double dist = route.getDistance();
-				if (Double.isNaN(dist)) {
-					if (ccc < 10) {
-						ccc++;
-						LogManager.getLogger(this.getClass()).warn("distance is NaN. Will make score of this plan NaN. Possible reason: Simulation does not report " +
-							"a distance for this trip. Possible reason for that: mode is teleported and router does not " +
-							"write distance into plan.  Needs to be fixed or these plans will die out.");
-						if (ccc == 10) {
-							LogManager.getLogger(this.getClass()).warn(Gbl.FUTURE_SUPPRESSED);
-						}
-					}
-				}
+				warnIfNaN(dist);
 				tmpScore += modeParams.marginalUtilityOfDistance_m * dist;
 				tmpScore += modeParams.monetaryDistanceCostRate * this.marginalUtilityOfMoney * dist;
 			}
@@ -156,9 +161,9 @@ public final class PiecewiseLinearlLegScoring implements org.matsim.core.scoring
 		// (yy NOTE: the constant is added for _every_ pt leg.  This is not how such models are estimated.  kai, nov'12)
 
 		// account for the daily constants
-		if (!modesAlreadyConsideredForDailyConstants.contains(leg.getMode())) {
+		if (!modesAlreadyConsideredForDailyConstants.get(mode)) {
 			tmpScore += modeParams.dailyUtilityConstant + modeParams.dailyMoneyConstant * this.marginalUtilityOfMoney;
-			modesAlreadyConsideredForDailyConstants.add(leg.getMode());
+			modesAlreadyConsideredForDailyConstants.set(mode);
 		}
 		// yyyy the above will cause problems if we ever decide to differentiate pt mode into bus, tram, train, ...
 		// Might have to move the MainModeIdentifier then.  kai, sep'18
@@ -166,39 +171,82 @@ public final class PiecewiseLinearlLegScoring implements org.matsim.core.scoring
 		return tmpScore;
 	}
 
+	private void warnIfNaN(double dist) {
+		if (Double.isNaN(dist)) {
+			if (ccc < 10) {
+				ccc++;
+				LogManager.getLogger(this.getClass()).warn("distance is NaN. Will make score of this plan NaN. Possible reason: Simulation does not report " +
+					"a distance for this trip. Possible reason for that: mode is teleported and router does not " +
+					"write distance into plan.  Needs to be fixed or these plans will die out.");
+				if (ccc == 10) {
+					LogManager.getLogger(this.getClass()).warn(Gbl.FUTURE_SUPPRESSED);
+				}
+			}
+		}
+	}
+
 	@Override
 	public void handleEvent(Event event) {
-		if (event instanceof ActivityEndEvent) {
-			// When there is a "real" activity, flags are reset:
-			if (!PtConstants.TRANSIT_ACTIVITY_TYPE.equals(((ActivityEndEvent) event).getActType())) {
-				this.nextEnterVehicleIsFirstOfTrip = true;
-				this.nextStartPtLegIsFirstOfTrip = true;
+		// Dispatch only on the event types that are relevant, all other events fall through directly
+		switch (event) {
+			case ActivityEndEvent e -> handleActivityEnd(e);
+			case PersonEntersVehicleEvent e -> handleEntersVehicle(e);
+			case PersonDepartureEvent e -> handleDeparture(e);
+			default -> {
 			}
-			this.lastActivityEndTime = event.getTime();
 		}
+	}
 
-		if (event instanceof PersonEntersVehicleEvent && currentLegIsPtLeg) {
-			if (!this.nextEnterVehicleIsFirstOfTrip) {
-				// all vehicle entering after the first triggers the disutility of line switch:
-				this.score += params.utilityOfLineSwitch;
-			}
-			this.nextEnterVehicleIsFirstOfTrip = false;
-			// add score of waiting, _minus_ score of travelling (since it is added in the legscoring above):
-			this.score += (event.getTime() - this.lastActivityEndTime) * (this.params.marginalUtilityOfWaitingPt_s - this.params.modeParams.get(TransportMode.pt).marginalUtilityOfTraveling_s);
+	private void handleActivityEnd(ActivityEndEvent event) {
+		// When there is a "real" activity, flags are reset:
+		if (!PtConstants.TRANSIT_ACTIVITY_TYPE.equals(event.getActType())) {
+			startTrip();
 		}
+		this.lastActivityEndTime = event.getTime();
+	}
 
-		if (event instanceof PersonDepartureEvent) {
-			String mode = ((PersonDepartureEvent) event).getLegMode();
+	/**
+	 * Reset flags at the start of a new trip, i.e. after a "real" activity.
+	 */
+	void startTrip() {
+		this.nextEnterVehicleIsFirstOfTrip = true;
+		this.nextStartPtLegIsFirstOfTrip = true;
+	}
 
-			this.currentLegIsPtLeg = this.ptModes.contains(mode);
-			if (currentLegIsPtLeg) {
-				if (!this.nextStartPtLegIsFirstOfTrip) {
-					this.score -= params.modeParams.get(mode).constant;
-					// (yyyy deducting this again, since is it wrongly added above.  should be consolidated; this is so the code
-					// modification is minimally invasive.  kai, dec'12)
-				}
-				this.nextStartPtLegIsFirstOfTrip = false;
+	private void handleEntersVehicle(PersonEntersVehicleEvent event) {
+		if (!currentLegIsPtLeg)
+			return;
+
+		if (!this.nextEnterVehicleIsFirstOfTrip) {
+			// all vehicle entering after the first triggers the disutility of line switch:
+			this.score += params.utilityOfLineSwitch;
+		}
+		this.nextEnterVehicleIsFirstOfTrip = false;
+
+		if (ptParams == null)
+			throw new IllegalStateException("No scoring parameters defined for mode " + TransportMode.pt);
+
+		// add score of waiting, _minus_ score of travelling (since it is added in the legscoring above):
+		this.score += (event.getTime() - this.lastActivityEndTime) * (this.params.marginalUtilityOfWaitingPt_s - ptParams.marginalUtilityOfTraveling_s);
+	}
+
+	private void handleDeparture(PersonDepartureEvent event) {
+		handleDeparture(event.getLegMode());
+	}
+
+	/**
+	 * Handle the departure of a leg with given mode.
+	 */
+	void handleDeparture(String mode) {
+
+		this.currentLegIsPtLeg = this.ptModes.contains(mode);
+		if (currentLegIsPtLeg) {
+			if (!this.nextStartPtLegIsFirstOfTrip) {
+				this.score -= modeParams[modes.getIndex(mode)].constant;
+				// (yyyy deducting this again, since is it wrongly added above.  should be consolidated; this is so the code
+				// modification is minimally invasive.  kai, dec'12)
 			}
+			this.nextStartPtLegIsFirstOfTrip = false;
 		}
 	}
 
@@ -207,9 +255,8 @@ public final class PiecewiseLinearlLegScoring implements org.matsim.core.scoring
 		Gbl.assertIf(leg.getDepartureTime().isDefined());
 		Gbl.assertIf(leg.getTravelTime().isDefined());
 
-		double legScore = calcLegScore(
-			leg.getDepartureTime().seconds(), leg.getDepartureTime().seconds() + leg.getTravelTime()
-				.seconds(), leg);
+		Route route = leg.getRoute();
+		double legScore = calcLegScore(leg.getMode(), leg.getTravelTime().seconds(), route != null ? route.getDistance() : Double.NaN);
 		if (Double.isNaN(legScore)) {
 			log.error("dpTime=" + leg.getDepartureTime().seconds()
 				+ "; ttime=" + leg.getTravelTime().seconds() + "; leg=" + leg);
@@ -217,4 +264,16 @@ public final class PiecewiseLinearlLegScoring implements org.matsim.core.scoring
 		}
 		this.score += legScore;
 	}
+
+	/**
+	 * Score a leg given only by its mode, travel time and distance. Used when scoring without {@link Leg} instances.
+	 */
+	void handleLeg(String mode, double travelTime, double dist) {
+		double legScore = calcLegScore(mode, travelTime, dist);
+		if (Double.isNaN(legScore)) {
+			log.error("mode=" + mode + "; ttime=" + travelTime + "; dist=" + dist);
+			throw new RuntimeException("score is NaN");
+		}
+		this.score += legScore;
+	}
 }
@@ -0,0 +1,29 @@
+package org.matsim.run.scoring;
+
+import com.google.inject.Inject;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.core.controler.events.StartupEvent;
+import org.matsim.core.controler.listener.StartupListener;
+import org.matsim.core.scoring.functions.ScoringParametersForPerson;
+
+/**
+ * Computes the parameters of all persons at startup, so that scoring of the first iteration does not have to do it.
+ * Enabled by {@link AdvancedScoringConfigGroup#precomputeParameters}.
+ */
+public class PrecomputeScoringParameters implements StartupListener {
+
+	@Inject
+	private ScoringParametersForPerson scoring;
+
+	@Inject
+	private Scenario scenario;
+
+	@Override
+	public void notifyStartup(StartupEvent event) {
+
+		if (!(scoring instanceof IndividualPersonScoringParameters params))
+			return;
+
+		params.precompute(scenario.getPopulation(), scenario.getConfig().global().getNumberOfThreads());
+	}
+}
@@ -12,6 +12,8 @@ import org.matsim.core.config.Config;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.router.TripStructureUtils;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.SplittableRandom;
 
 /**
@@ -24,16 +26,28 @@ public final class PseudoRandomScorer {
 	 */
 	private static final int WARMUP_ITERATIONS = 100;
 
+	/**
+	 * Increment of the counter based generator, golden ratio as used by SplitMix64.
+	 */
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
 	private final PseudoRandomTripError tripScore;
 	private final long seed;
 	private final double scale;
 	private final AdvancedScoringConfigGroup.VariationType distribution;
+	private final AdvancedScoringConfigGroup.PseudoRandomGenerator generator;
+
+	/**
+	 * Reused seed buffer of each thread for the batch computation.
+	 */
+	private final ThreadLocal<long[]> seeds = ThreadLocal.withInitial(() -> new long[16]);
 
 	@Inject
 	public PseudoRandomScorer(PseudoRandomTripError tripScore, Config config) {
 		this.tripScore = tripScore;
 		this.scale = ConfigUtils.addOrGetModule(config, AdvancedScoringConfigGroup.class).pseudoRamdomScale;
 		this.distribution = ConfigUtils.addOrGetModule(config, AdvancedScoringConfigGroup.class).pseudoRandomDistribution;
+		this.generator = ConfigUtils.addOrGetModule(config, AdvancedScoringConfigGroup.class).pseudoRandomGenerator;
 
 		SplittableRandom rnd = new SplittableRandom(config.global().getRandomSeed());
 		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
@@ -52,7 +66,90 @@ public final class PseudoRandomScorer {
 		if (tripScore == null || scale == 0)
 			return 0;
 
-		long tripSeed = tripScore.getSeed(personId, mainMode, trip);
+		return sample(tripScore.getSeed(personId, mainMode, trip));
+	}
+
+	/**
+	 * Calculates the pseudo random scores of a trip for multiple modes at once and writes them into {@code errors}.
+	 * The person and trip specific part of the seed is only computed once.
+	 */
+	public void scoreTrip(Id<Person> personId, List<String> modes, TripStructureUtils.Trip trip, double[] errors) {
+
+		if (tripScore == null || scale == 0) {
+			Arrays.fill(errors, 0, modes.size(), 0);
+			return;
+		}
+
+		long[] seeds = this.seeds.get();
+		if (seeds.length < modes.size()) {
+			seeds = new long[modes.size()];
+			this.seeds.set(seeds);
+		}
+
+		tripScore.getSeeds(personId, modes, trip, seeds);
+
+		for (int i = 0; i < modes.size(); i++) {
+			errors[i] = sample(seeds[i]);
+		}
+	}
+
+	/**
+	 * Calculates the pseudo random score for a seed that has already been computed by {@link PseudoRandomTripError}.
+	 */
+	double scoreTrip(long tripSeed) {
+
+		if (tripScore == null || scale == 0)
+			return 0;
+
+		return sample(tripSeed);
+	}
+
+	/**
+	 * Sample the error for a trip seed.
+	 */
+	private double sample(long tripSeed) {
+
+		if (generator == AdvancedScoringConfigGroup.PseudoRandomGenerator.legacy)
+			return sampleLegacy(tripSeed);
+
+		long key = mix64(seed ^ mix64(tripSeed));
+
+		return switch (distribution) {
+			case gumbel -> -FastMath.log(-FastMath.log(uniform(key, 1))) * scale;
+			case normal -> sampleStandardNormal(key) * scale;
+			default -> throw new IllegalStateException("Unsupported distribution: " + distribution);
+		};
+	}
+
+	/**
+	 * SplitMix64 finalizer, which maps each input to a well distributed output.
+	 */
+	static long mix64(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Uniform number in the open interval (0, 1) for the given key and counter.
+	 */
+	static double uniform(long key, int counter) {
+		return ((mix64(key + counter * GOLDEN_GAMMA) >>> 11) + 0.5) * 0x1.0p-53;
+	}
+
+	/**
+	 * Standard normal sample using the Box-Muller transform, which only needs two uniform numbers.
+	 */
+	static double sampleStandardNormal(long key) {
+		double u1 = uniform(key, 1);
+		double u2 = uniform(key, 2);
+		return Math.sqrt(-2 * FastMath.log(u1)) * Math.cos(2 * Math.PI * u2);
+	}
+
+	/**
+	 * Sample with the generator of previous versions.
+	 */
+	private double sampleLegacy(long tripSeed) {
 
 		// Need to create a new instance because reusing them will also create a lot of intermediate arrays
 		XoRoShiRo128PlusPlus rng = new XoRoShiRo128PlusPlus(seed, tripSeed);
@@ -67,7 +164,6 @@ public final class PseudoRandomScorer {
 		};
 	}
 
-
 	/**
 	 * Sample from a Gumbel distribution.
 	 *
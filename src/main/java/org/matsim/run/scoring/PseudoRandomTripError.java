@@ -4,6 +4,8 @@ import org.matsim.api.core.v01.Id;
 import org.matsim.api.core.v01.population.Person;
 import org.matsim.core.router.TripStructureUtils;
 
+import java.util.List;
+
 /**
  * Interface to provide pseudo-random errors for a trip.
  */
@@ -14,5 +16,14 @@ public interface PseudoRandomTripError {
 	 */
 	long getSeed(Id<Person> personId, String mainMode, TripStructureUtils.Trip trip);
 
+	/**
+	 * Compute the seeds of a trip for multiple modes at once and write them into {@code seeds}.
+	 * Implementations should compute person and trip specific parts only once.
+	 */
+	default void getSeeds(Id<Person> personId, List<String> modes, TripStructureUtils.Trip trip, long[] seeds) {
+		for (int i = 0; i < modes.size(); i++) {
+			seeds[i] = getSeed(personId, modes.get(i), trip);
+		}
+	}
 
 }
@@ -1,17 +1,31 @@
 package org.matsim.run.scoring;
 
 import com.google.inject.Inject;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Person;
 import org.matsim.core.router.TripStructureUtils;
 import org.matsim.modechoice.EstimatorContext;
 import org.matsim.modechoice.estimators.TripScoreEstimator;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Provides the pseudo random score to the estimator.
+ * The choice generators estimate one mode at a time, but usually request all modes for the same trip in a row.
+ * Therefore, the errors of all modes seen so far are computed at once for each new trip and looked up for the following modes.
  */
 public class PseudoRandomTripScoreEstimator implements TripScoreEstimator {
 
 	private final PseudoRandomScorer scorer;
 
+	/**
+	 * Errors of the last trip estimated by each thread.
+	 */
+	private final ThreadLocal<TripErrors> last = ThreadLocal.withInitial(TripErrors::new);
+
 	@Inject
 	public PseudoRandomTripScoreEstimator(PseudoRandomScorer scorer) {
 		this.scorer = scorer;
@@ -19,6 +33,64 @@ public class PseudoRandomTripScoreEstimator implements TripScoreEstimator {
 
 	@Override
 	public double estimate(EstimatorContext context, String mainMode, TripStructureUtils.Trip trip) {
-		return scorer.scoreTrip(context.person.getId(), mainMode, trip);
+
+		TripErrors errors = last.get();
+		Id<Person> personId = context.person.getId();
+
+		if (!errors.isTrip(personId, trip)) {
+			errors.set(personId, trip);
+			if (!errors.modes.isEmpty())
+				scorer.scoreTrip(personId, errors.modes, trip, errors.values);
+		}
+
+		int idx = errors.modes.indexOf(mainMode);
+		if (idx >= 0)
+			return errors.values[idx];
+
+		// Mode that has not been seen before, will be included in the batch for the next trips
+		double error = scorer.scoreTrip(personId, mainMode, trip);
+		errors.add(mainMode, error);
+
+		return error;
+	}
+
+	/**
+	 * Estimate the errors of one trip for all given modes at once.
+	 *
+	 * @param errors array with at least the size of {@code modes}, which will be filled
+	 */
+	public void estimate(EstimatorContext context, List<String> modes, TripStructureUtils.Trip trip, double[] errors) {
+		scorer.scoreTrip(context.person.getId(), modes, trip, errors);
+	}
+
+	/**
+	 * Errors of one trip for all modes requested so far.
+	 */
+	private static final class TripErrors {
+
+		private final List<String> modes = new ArrayList<>();
+		private double[] values = new double[8];
+
+		private Id<Person> personId;
+		private Activity origin;
+		private Activity destination;
+
+		boolean isTrip(Id<Person> personId, TripStructureUtils.Trip trip) {
+			return this.personId == personId && origin == trip.getOriginActivity() && destination == trip.getDestinationActivity();
+		}
+
+		void set(Id<Person> personId, TripStructureUtils.Trip trip) {
+			this.personId = personId;
+			this.origin = trip.getOriginActivity();
+			this.destination = trip.getDestinationActivity();
+		}
+
+		void add(String mode, double error) {
+			if (modes.size() == values.length)
+				values = Arrays.copyOf(values, values.length * 2);
+
+			values[modes.size()] = error;
+			modes.add(mode);
+		}
 	}
 }
@@ -0,0 +1,478 @@
+package org.matsim.run.scoring;
+
+import it.unimi.dsi.fastutil.booleans.BooleanArrayList;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.population.*;
+import org.matsim.application.MATSimAppCommand;
+import org.matsim.application.options.CsvOptions;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.config.groups.ScoringConfigGroup;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.population.algorithms.PersonAlgorithm;
+import org.matsim.core.population.io.StreamingPopulationReader;
+import org.matsim.core.router.DefaultAnalysisMainModeIdentifier;
+import org.matsim.core.router.MainModeIdentifier;
+import org.matsim.core.router.TripStructureUtils;
+import org.matsim.core.scenario.MutableScenario;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.pt.PtConstants;
+import picocli.CommandLine;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.IntStream;
+
+/**
+ * Re-scores plans under different {@link AdvancedScoringConfigGroup} settings without running the simulation.
+ * The plans are loaded once into a compact representation. The leg scores are re-computed with {@link PiecewiseLinearlLegScoring}
+ * and the pseudo random trip errors with {@link PseudoRandomScorer}, using the seeds of {@link DefaultPseudoRandomTripError}.
+ * The activity scores are taken from the plan scores, configs that change activity scoring are always rejected.
+ * <p>
+ * Mode shares result from a multinomial logit choice between the plans of each person. The input therefore needs several scored plans per person,
+ * e.g. the output plans, whose scores are the experienced scores of the executed plans. Experienced plans only contain one plan per person.
+ * <p>
+ * Some terms can not be re-scored, because the experienced plans do not contain the events they are based on:
+ * money events, as well as waiting for pt and line switches, which are scored at {@code PersonEntersVehicleEvent}s.
+ * These terms are carried over from the experienced scores. Configs that would change them, i.e. that differ from the reference in the
+ * marginal utility of money, income dependent scoring, utility of line switch, marginal utility of waiting for pt or of traveling by pt, are rejected,
+ * unless {@code --ignore-unscored-terms} is set. Legs without route distance are not re-scored and keep their experienced score as well.
+ */
+@CommandLine.Command(name = "rescore-experienced-plans", description = "Re-score experienced plans under alternative advanced scoring parameters.")
+public class RescoreExperiencedPlans implements MATSimAppCommand, PersonAlgorithm {
+
+	private static final Logger log = LogManager.getLogger(RescoreExperiencedPlans.class);
+
+	@CommandLine.Option(names = "--input", description = "Path to plans with several scored plans per person, e.g. output plans. " +
+		"The scores need to be the experienced scores under the reference config.", required = true)
+	private Path input;
+
+	@CommandLine.Option(names = "--config", description = "Config files with advanced scoring parameters. The first one is the reference, " +
+		"which must be the config the experienced plans have been scored with.", split = ",", required = true)
+	private List<Path> configs;
+
+	@CommandLine.Option(names = "--output", description = "Output csv with score distributions and mode shares per config.", required = true)
+	private Path output;
+
+	@CommandLine.Option(names = "--beta", description = "Scale of the multinomial logit choice between plans of a person.", defaultValue = "1")
+	private double beta;
+
+	@CommandLine.Option(names = "--ignore-unscored-terms", description = "Accept configs that change terms which can not be re-scored, " +
+		"i.e. money events, pt waiting and line switches. These terms keep the values of the reference config.")
+	private boolean ignoreUnscoredTerms;
+
+	@CommandLine.Mixin
+	private CsvOptions csv;
+
+	private final MainModeIdentifier mmi = new DefaultAnalysisMainModeIdentifier();
+	private final PseudoRandomTripError tripError = new DefaultPseudoRandomTripError();
+
+	/**
+	 * Persons without plans, only attributes are needed for the scoring parameters.
+	 */
+	private Population population;
+	private final List<Person> persons = new ArrayList<>();
+
+	/**
+	 * Interned modes of legs and trips.
+	 */
+	private final List<String> modes = new ArrayList<>();
+	private final Object2IntMap<String> modeIdx = new Object2IntOpenHashMap<>();
+
+	/**
+	 * Offsets into plans for each person and the selected plan.
+	 */
+	private final IntArrayList personPlans = IntArrayList.of(0);
+	private final IntArrayList selectedPlan = new IntArrayList();
+
+	/**
+	 * Offsets into legs and trips for each plan, and the experienced score.
+	 */
+	private final IntArrayList planLegs = IntArrayList.of(0);
+	private final IntArrayList planTrips = IntArrayList.of(0);
+	private final DoubleArrayList planScores = new DoubleArrayList();
+
+	private final IntArrayList legMode = new IntArrayList();
+	private final DoubleArrayList legTravelTime = new DoubleArrayList();
+	private final DoubleArrayList legDist = new DoubleArrayList();
+	/**
+	 * Whether the leg is after a "real" activity.
+	 */
+	private final BooleanArrayList legStartsTrip = new BooleanArrayList();
+
+	private final IntArrayList tripMode = new IntArrayList();
+	/**
+	 * Seed of the pseudo random error for each trip.
+	 */
+	private final LongArrayList tripSeed = new LongArrayList();
+
+	/**
+	 * Number of legs without route distance, which are not re-scored.
+	 */
+	private int skippedLegs;
+
+	public static void main(String[] args) {
+		new RescoreExperiencedPlans().execute(args);
+	}
+
+	@Override
+	public Integer call() throws Exception {
+
+		Config reference = ConfigUtils.loadConfig(configs.get(0).toString(), new AdvancedScoringConfigGroup());
+		population = PopulationUtils.createPopulation(reference);
+
+		StreamingPopulationReader reader = new StreamingPopulationReader(ScenarioUtils.createScenario(ConfigUtils.createConfig()));
+		reader.addAlgorithm(this);
+		reader.readFile(input.toString());
+
+		log.info("Loaded {} persons with {} plans and {} legs", persons.size(), planScores.size(), legMode.size());
+
+		if (planScores.size() == persons.size()) {
+			log.error("All persons have only one plan, mode shares can not change. Use plans with several scored plans per person, e.g. output plans.");
+			return 2;
+		}
+
+		if (skippedLegs > 0)
+			log.warn("{} legs without route distance are not re-scored and keep their experienced score", skippedLegs);
+
+		double[][] rescored = new double[configs.size()][];
+		for (int c = 0; c < configs.size(); c++) {
+			Config config = c == 0 ? reference : ConfigUtils.loadConfig(configs.get(c).toString(), new AdvancedScoringConfigGroup());
+
+			List<String> activities = c == 0 ? List.of() : findActivityDifferences(reference, config);
+			if (!activities.isEmpty()) {
+				log.error("Config {} changes activity scoring, which is not re-scored: {}", configs.get(c), activities);
+				return 2;
+			}
+
+			List<String> unscored = c == 0 ? List.of() : findUnscoredDifferences(reference, config);
+			if (!unscored.isEmpty()) {
+				if (!ignoreUnscoredTerms) {
+					log.error("Config {} changes terms that can not be re-scored from experienced plans: {}. Use --ignore-unscored-terms to keep their reference values.",
+						configs.get(c), unscored);
+					return 2;
+				}
+
+				log.warn("Config {} changes terms that can not be re-scored, the reference values are kept: {}", configs.get(c), unscored);
+			}
+
+			long start = System.currentTimeMillis();
+			rescored[c] = scorePlans(config);
+			log.info("Scored {} in {} ms", configs.get(c), System.currentTimeMillis() - start);
+		}
+
+		try (CSVPrinter printer = csv.createPrinter(output)) {
+
+			List<String> header = new ArrayList<>(List.of("config", "score_mean", "score_std", "score_p5", "score_p50", "score_p95", "score_delta_mean"));
+			for (String mode : modes) {
+				header.add("share_" + mode);
+				header.add("share_delta_" + mode);
+			}
+			printer.printRecord(header);
+
+			double[] refShares = null;
+			for (int c = 0; c < configs.size(); c++) {
+
+				double[] scores = new double[planScores.size()];
+				DescriptiveStatistics stats = new DescriptiveStatistics();
+				DescriptiveStatistics delta = new DescriptiveStatistics();
+
+				for (int p = 0; p < scores.length; p++) {
+					double score = planScores.getDouble(p);
+					// The re-scored part of the reference is replaced by the one of this config
+					scores[p] = (Double.isNaN(score) ? 0 : score) - rescored[0][p] + rescored[c][p];
+				}
+
+				for (int i = 0; i < persons.size(); i++) {
+					int p = selectedPlan.getInt(i);
+					stats.addValue(scores[p]);
+					delta.addValue(rescored[c][p] - rescored[0][p]);
+				}
+
+				double[] shares = calcModeShares(scores);
+				if (refShares == null)
+					refShares = shares;
+
+				List<Object> row = new ArrayList<>(List.of(configs.get(c).getFileName().toString(), stats.getMean(), stats.getStandardDeviation(),
+					stats.getPercentile(5), stats.getPercentile(50), stats.getPercentile(95), delta.getMean()));
+
+				for (int m = 0; m < modes.size(); m++) {
+					row.add(shares[m]);
+					row.add(shares[m] - refShares[m]);
+				}
+
+				printer.printRecord(row);
+			}
+		}
+
+		return 0;
+	}
+
+	@Override
+	public void run(Person person) {
+
+		if (person.getPlans().isEmpty())
+			return;
+
+		// Only keep the attributes of the person
+		Person copy = population.getFactory().createPerson(person.getId());
+		for (Map.Entry<String, Object> e : person.getAttributes().getAsMap().entrySet()) {
+			copy.getAttributes().putAttribute(e.getKey(), e.getValue());
+		}
+
+		int selected = planScores.size();
+		for (Plan plan : person.getPlans()) {
+
+			if (plan == person.getSelectedPlan())
+				selected = planScores.size();
+
+			String lastAct = null;
+			for (PlanElement el : plan.getPlanElements()) {
+				if (el instanceof Activity act) {
+					lastAct = act.getType();
+				} else if (el instanceof Leg leg) {
+					double dist = leg.getRoute() != null ? leg.getRoute().getDistance() : Double.NaN;
+					if (Double.isNaN(dist))
+						skippedLegs++;
+
+					legMode.add(modeIndex(leg.getMode()));
+					legTravelTime.add(leg.getTravelTime().orElse(0));
+					legDist.add(dist);
+					legStartsTrip.add(!PtConstants.TRANSIT_ACTIVITY_TYPE.equals(lastAct));
+				}
+			}
+
+			for (TripStructureUtils.Trip trip : TripStructureUtils.getTrips(plan)) {
+				String mainMode = mmi.identifyMainMode(trip.getTripElements());
+				tripMode.add(modeIndex(mainMode));
+				tripSeed.add(tripError.getSeed(person.getId(), mainMode, trip));
+			}
+
+			planScores.add(plan.getScore() != null ? plan.getScore() : Double.NaN);
+			planLegs.add(legMode.size());
+			planTrips.add(tripMode.size());
+		}
+
+		selectedPlan.add(selected);
+		personPlans.add(planScores.size());
+
+		population.addPerson(copy);
+		persons.add(copy);
+	}
+
+	private int modeIndex(String mode) {
+		if (!modeIdx.containsKey(mode)) {
+			modes.add(mode.intern());
+			modeIdx.put(mode, modes.size() - 1);
+		}
+
+		return modeIdx.getInt(mode);
+	}
+
+	/**
+	 * Compare the terms that can not be re-scored.
+	 *
+	 * @return description of all differences
+	 */
+	private static List<String> findUnscoredDifferences(Config reference, Config config) {
+
+		List<String> diff = new ArrayList<>();
+
+		AdvancedScoringConfigGroup ref = ConfigUtils.addOrGetModule(reference, AdvancedScoringConfigGroup.class);
+		AdvancedScoringConfigGroup other = ConfigUtils.addOrGetModule(config, AdvancedScoringConfigGroup.class);
+
+		if (ref.incomeDependent != other.incomeDependent)
+			diff.add("incomeDependent");
+		if (ref.incomeDependent != AdvancedScoringConfigGroup.IncomeDependentScoring.none && ref.incomeExponent != other.incomeExponent)
+			diff.add("incomeExponent");
+
+		for (Map.Entry<String, ScoringConfigGroup.ScoringParameterSet> e : reference.scoring().getScoringParametersPerSubpopulation().entrySet()) {
+
+			ScoringConfigGroup.ScoringParameterSet r = e.getValue();
+			ScoringConfigGroup.ScoringParameterSet o = config.scoring().getScoringParametersPerSubpopulation().get(e.getKey());
+			String subpop = e.getKey() == null ? "default" : e.getKey();
+
+			if (o == null) {
+				diff.add("scoring parameters (" + subpop + ")");
+				continue;
+			}
+
+			if (r.getMarginalUtilityOfMoney() != o.getMarginalUtilityOfMoney())
+				diff.add("marginalUtilityOfMoney (" + subpop + ")");
+			if (r.getUtilityOfLineSwitch() != o.getUtilityOfLineSwitch())
+				diff.add("utilityOfLineSwitch (" + subpop + ")");
+			if (r.getMarginalUtlOfWaitingPt_utils_hr() != o.getMarginalUtlOfWaitingPt_utils_hr())
+				diff.add("marginalUtlOfWaitingPt_utils_hr (" + subpop + ")");
+
+			ScoringConfigGroup.ModeParams rPt = r.getModes().get(TransportMode.pt);
+			ScoringConfigGroup.ModeParams oPt = o.getModes().get(TransportMode.pt);
+			if (rPt != null && oPt != null && rPt.getMarginalUtilityOfTraveling() != oPt.getMarginalUtilityOfTraveling())
+				diff.add("pt marginalUtilityOfTraveling (" + subpop + ")");
+		}
+
+		return diff;
+	}
+
+	/**
+	 * Compare the activity scoring, which is taken from the plan scores.
+	 *
+	 * @return description of all differences
+	 */
+	private static List<String> findActivityDifferences(Config reference, Config config) {
+
+		List<String> diff = new ArrayList<>();
+
+		for (Map.Entry<String, ScoringConfigGroup.ScoringParameterSet> e : reference.scoring().getScoringParametersPerSubpopulation().entrySet()) {
+
+			ScoringConfigGroup.ScoringParameterSet r = e.getValue();
+			ScoringConfigGroup.ScoringParameterSet o = config.scoring().getScoringParametersPerSubpopulation().get(e.getKey());
+			String subpop = e.getKey() == null ? "default" : e.getKey();
+
+			// Missing parameters are reported by findUnscoredDifferences
+			if (o == null)
+				continue;
+
+			if (r.getPerforming_utils_hr() != o.getPerforming_utils_hr())
+				diff.add("performing (" + subpop + ")");
+			if (r.getLateArrival_utils_hr() != o.getLateArrival_utils_hr())
+				diff.add("lateArrival (" + subpop + ")");
+			if (r.getEarlyDeparture_utils_hr() != o.getEarlyDeparture_utils_hr())
+				diff.add("earlyDeparture (" + subpop + ")");
+			if (r.getMarginalUtlOfWaiting_utils_hr() != o.getMarginalUtlOfWaiting_utils_hr())
+				diff.add("waiting (" + subpop + ")");
+
+			Map<String, ScoringConfigGroup.ActivityParams> rActs = new HashMap<>();
+			for (ScoringConfigGroup.ActivityParams act : r.getActivityParams()) {
+				rActs.put(act.getActivityType(), act);
+			}
+
+			Map<String, ScoringConfigGroup.ActivityParams> oActs = new HashMap<>();
+			for (ScoringConfigGroup.ActivityParams act : o.getActivityParams()) {
+				oActs.put(act.getActivityType(), act);
+			}
+
+			Set<String> types = new TreeSet<>(rActs.keySet());
+			types.addAll(oActs.keySet());
+			for (String type : types) {
+				ScoringConfigGroup.ActivityParams ra = rActs.get(type);
+				ScoringConfigGroup.ActivityParams oa = oActs.get(type);
+				// Typical durations, opening times and all other activity parameters are compared by their string representation
+				if (ra == null || oa == null || !ra.getParams().equals(oa.getParams()))
+					diff.add("activity " + type + " (" + subpop + ")");
+			}
+		}
+
+		return diff;
+	}
+
+	/**
+	 * Compute the re-scored part, i.e. leg scores and pseudo random trip errors, for all plans.
+	 */
+	private double[] scorePlans(Config config) {
+
+		AdvancedScoringConfigGroup scoring = ConfigUtils.addOrGetModule(config, AdvancedScoringConfigGroup.class);
+
+		// Persons are shared between configs and must not be modified
+		scoring.preferencesAttribute = false;
+
+		MutableScenario scenario = ScenarioUtils.createMutableScenario(config);
+		scenario.setPopulation(population);
+
+		IndividualPersonScoringParameters parameters = new IndividualPersonScoringParameters(scenario);
+		ModeRegistry registry = parameters.getModeRegistry();
+		PseudoRandomScorer pseudoRandom = new PseudoRandomScorer(tripError, config);
+		Set<String> ptModes = config.transit().getTransitModes();
+
+		double[] result = new double[planScores.size()];
+
+		IntStream.range(0, persons.size()).parallel().forEach(i -> {
+
+			IndividualPersonScoringParameters.PersonParameters params = parameters.getPersonParameters(persons.get(i));
+
+			for (int p = personPlans.getInt(i); p < personPlans.getInt(i + 1); p++) {
+
+				PiecewiseLinearlLegScoring legScoring = new PiecewiseLinearlLegScoring(params.base(), params.marginalUtilityOfMoney(),
+					registry, params.modeParams(), ptModes);
+
+				for (int l = planLegs.getInt(p); l < planLegs.getInt(p + 1); l++) {
+					String mode = modes.get(legMode.getInt(l));
+
+					if (legStartsTrip.getBoolean(l))
+						legScoring.startTrip();
+
+					legScoring.handleDeparture(mode);
+
+					// Skipped legs are missing in the scores of all configs and keep their experienced score
+					double dist = legDist.getDouble(l);
+					if (!Double.isNaN(dist))
+						legScoring.handleLeg(mode, legTravelTime.getDouble(l), dist);
+				}
+
+				double score = legScoring.getScore();
+				for (int t = planTrips.getInt(p); t < planTrips.getInt(p + 1); t++) {
+					score += pseudoRandom.scoreTrip(tripSeed.getLong(t));
+				}
+
+				result[p] = score;
+			}
+		});
+
+		return result;
+	}
+
+	/**
+	 * Expected mode shares of trips, where each person chooses between its plans according to a multinomial logit model.
+	 */
+	private double[] calcModeShares(double[] scores) {
+
+		double[] trips = new double[modes.size()];
+
+		for (int i = 0; i < personPlans.size() - 1; i++) {
+
+			int from = personPlans.getInt(i);
+			int to = personPlans.getInt(i + 1);
+
+			double max = Double.NEGATIVE_INFINITY;
+			for (int p = from; p < to; p++) {
+				max = Math.max(max, scores[p]);
+			}
+
+			double sum = 0;
+			for (int p = from; p < to; p++) {
+				sum += Math.exp(beta * (scores[p] - max));
+			}
+
+			for (int p = from; p < to; p++) {
+				double prob = Math.exp(beta * (scores[p] - max)) / sum;
+				for (int t = planTrips.getInt(p); t < planTrips.getInt(p + 1); t++) {
+					trips[tripMode.getInt(t)] += prob;
+				}
+			}
+		}
+
+		double total = 0;
+		for (double t : trips) {
+			total += t;
+		}
+
+		for (int m = 0; m < trips.length; m++) {
+			trips[m] /= total;
+		}
+
+		return trips;
+	}
+}
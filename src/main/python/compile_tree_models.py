@@ -0,0 +1,161 @@
+#!/usr/bin/env python
+# -*- coding: utf-8 -*-
+
+import argparse
+import math
+import os
+import re
+import struct
+
+# Must match org.matsim.prepare.ml.TreeEnsemble
+MAGIC = 0x4D545245
+VERSION = 1
+
+RE_DATA = re.compile(r'data\[(\d+)] = (?:\((?:ft|features)\.getDouble\("(\w+)"\) - ([^)]+)\) / ([^;]+)|(?:ft|features)\.getDouble\("(\w+)"\));')
+RE_IF = re.compile(r'if \(input\[(\d+)] (>|>=|<=) ([^)]+)\) \{')
+RE_LEAF = re.compile(r'var\d+ = params\[(\d+)];')
+RE_RETURN = re.compile(r'return (.+);')
+
+
+def parse_features(src):
+    """ Feature names and normalization, as done in getData """
+    features = []
+    for m in RE_DATA.finditer(src):
+        idx = int(m.group(1))
+        assert idx == len(features), "Features must be in order"
+        if m.group(2):
+            features.append((m.group(2), float(m.group(3)), float(m.group(4))))
+        else:
+            features.append((m.group(5), 0.0, 1.0))
+
+    return features
+
+
+def parse_trees(lines):
+    """ Parse the nested if-else blocks of the score function into one flat node list in pre-order """
+
+    roots = []
+    nodes = []
+    pos = 0
+
+    def node():
+        """ Parse one subtree, right child pointers are relative to its root """
+        nonlocal pos
+        line = lines[pos]
+        pos += 1
+
+        m = RE_LEAF.fullmatch(line)
+        if m:
+            return [(-1, 0.0, int(m.group(1)))]
+
+        m = RE_IF.fullmatch(line)
+        assert m, "Unexpected line: " + line
+
+        feature, op, threshold = int(m.group(1)), m.group(2), float(m.group(3))
+
+        first = node()
+        assert lines[pos] == "} else {", "Expected else: " + lines[pos]
+        pos += 1
+
+        second = node()
+        assert lines[pos] == "}", "Expected closing brace: " + lines[pos]
+        pos += 1
+
+        # All conditions are converted to input > threshold, with the true branch directly following the node
+        if op == ">=":
+            threshold = math.nextafter(threshold, -math.inf)
+        elif op == "<=":
+            first, second = second, first
+
+        return [(feature, threshold, 1 + len(first))] + relocate(first, 1) + relocate(second, 1 + len(first))
+
+    while pos < len(lines):
+        line = lines[pos]
+        if line.startswith("double var"):
+            pos += 1
+            roots.append(len(nodes))
+            nodes.extend(relocate(node(), len(nodes)))
+        elif line.startswith("return"):
+            return roots, nodes, line
+        else:
+            raise ValueError("Unexpected line: " + line)
+
+    raise ValueError("Missing return statement")
+
+
+def relocate(nodes, offset):
+    """ Shift right child pointers of split nodes, leaves keep their parameter index """
+    return [(f, t, n + offset if f >= 0 else n) for f, t, n in nodes]
+
+
+def parse_output(line, trees):
+    """ Determine bias, offset and factor of the return statement: offset + (bias + sum) * factor """
+    expr = RE_RETURN.fullmatch(line).group(1)
+    expr = re.sub(r" \+ ".join("var%d" % i for i in range(trees)), "SUM", expr)
+
+    patterns = [
+        (r"SUM", lambda m: (0.0, 0.0, 1.0)),
+        (r"([\d.]+) \+ \(SUM\)", lambda m: (0.0, float(m.group(1)), 1.0)),
+        (r"([\d.]+) \+ \(([\d.]+) \+ SUM\)", lambda m: (float(m.group(2)), float(m.group(1)), 1.0)),
+        (r"\(SUM\) \* ([\d.]+)", lambda m: (0.0, 0.0, float(m.group(1)))),
+    ]
+
+    for p, f in patterns:
+        m = re.fullmatch(p, expr)
+        if m:
+            return f(m)
+
+    raise ValueError("Unsupported return statement: " + line)
+
+
+def write_utf(out, s):
+    b = s.encode("utf8")
+    out.write(struct.pack(">H", len(b)))
+    out.write(b)
+
+
+def compile_model(path, output):
+    with open(path, encoding="utf8") as f:
+        src = f.read()
+
+    features = parse_features(src)
+
+    body = src[src.index("public static double score("):]
+    lines = [line.strip() for line in body.splitlines()[1:] if line.strip()]
+
+    roots, nodes, ret = parse_trees(lines)
+    bias, offset, factor = parse_output(ret, len(roots))
+
+    with open(output, "wb") as out:
+        out.write(struct.pack(">ii", MAGIC, VERSION))
+        out.write(struct.pack(">i", len(features)))
+        for name, shift, scale in features:
+            write_utf(out, name)
+            out.write(struct.pack(">dd", shift, scale))
+
+        out.write(struct.pack(">ddd", bias, offset, factor))
+        out.write(struct.pack(">i", len(roots)))
+        out.write(struct.pack(">%di" % len(roots), *roots))
+        out.write(struct.pack(">i", len(nodes)))
+        for feature, threshold, n in nodes:
+            out.write(struct.pack(">idi", feature, threshold, n))
+
+    print("Compiled %s: %d features, %d trees, %d nodes" % (os.path.basename(path), len(features), len(roots), len(nodes)))
+
+
+if __name__ == "__main__":
+    parser = argparse.ArgumentParser(prog="compile_tree_models",
+                                     description="Convert generated tree models into flat arrays, which are read by TreeEnsemble")
+    parser.add_argument("models", nargs="+", help="Path to generated .java files")
+    parser.add_argument("--output", help="Output directory, default is the resource directory of the model package")
+
+    args = parser.parse_args()
+
+    for model in args.models:
+        name = os.path.basename(model).replace(".java", "")
+        out = args.output
+        if out is None:
+            out = os.path.dirname(model).replace(os.path.join("src", "main", "java"), os.path.join("src", "main", "resources"))
+
+        os.makedirs(out, exist_ok=True)
+        compile_model(model, os.path.join(out, name + ".trees"))
@@ -0,0 +1,66 @@
+package org.matsim.prepare.facilities;
+
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Envelope;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class LanduseRasterTest {
+
+	private static LanduseRaster.SummedAreaTable uniform() {
+
+		LanduseRaster.SummedAreaTable table = new LanduseRaster.SummedAreaTable(new Envelope(0, 100, 0, 100), 10);
+		for (int y = 0; y < table.h; y++) {
+			for (int x = 0; x < table.w; x++) {
+				table.add(x, y, 100);
+			}
+		}
+
+		table.build();
+		return table;
+	}
+
+	@Test
+	void squares() {
+
+		LanduseRaster.SummedAreaTable table = uniform();
+
+		assertThat(table.rect(0, 0, 100, 100)).isCloseTo(10_000, within(1e-9));
+		assertThat(table.rect(10, 20, 40, 50)).isCloseTo(900, within(1e-9));
+
+		// Not aligned with the cells, uniform values are interpolated exactly
+		assertThat(table.rect(15, 25, 45, 55)).isCloseTo(900, within(1e-9));
+
+		// Clamped outside the raster
+		assertThat(table.at(-10, -10)).isEqualTo(0);
+		assertThat(table.at(200, 200)).isCloseTo(10_000, within(1e-9));
+		assertThat(table.rect(-50, -50, 10, 10)).isCloseTo(100, within(1e-9));
+	}
+
+	@Test
+	void circle() {
+
+		LanduseRaster.SummedAreaTable table = uniform();
+
+		// Rectangles have the same area as the circle segments
+		for (double r : new double[]{5, 12.5, 30, 45}) {
+			assertThat(table.circle(50, 50, r)).isCloseTo(Math.PI * r * r, within(1e-6));
+		}
+	}
+
+	@Test
+	void points() {
+
+		LanduseRaster.SummedAreaTable table = new LanduseRaster.SummedAreaTable(new Envelope(0, 100, 0, 100), 10);
+		table.add(table.cellX(45), table.cellY(45), 1);
+		table.add(table.cellX(81), table.cellY(12), 2);
+		table.build();
+
+		assertThat(table.circle(45, 45, 20)).isCloseTo(1, within(1e-9));
+		assertThat(table.circle(45, 45, 60)).isCloseTo(3, within(1e-9));
+
+		// Distance to both points is larger than the radius
+		assertThat(table.circle(45, 85, 25)).isCloseTo(0, within(1e-9));
+	}
+}
@@ -0,0 +1,81 @@
+package org.matsim.prepare.facilities;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.within;
+
+class NodeCoordinateStoreTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void chunks() throws IOException {
+
+		Path file = dir.resolve("nodes.bin");
+
+		// 7 entries per chunk, so that lookups span several chunks with a partially filled last one
+		try (NodeCoordinateStore store = new NodeCoordinateStore(file, 7)) {
+			for (int i = 0; i < 50; i++) {
+				store.add(i * 3L + 1, 13.0 + i * 0.001, 52.0 - i * 0.001);
+			}
+			store.finish();
+
+			assertThat(store.size()).isEqualTo(50);
+
+			for (int i = 0; i < 50; i++) {
+				long idx = store.find(i * 3L + 1);
+				assertThat(idx).isEqualTo(i);
+				assertThat(store.lon(idx)).isCloseTo(13.0 + i * 0.001, within(1e-9));
+				assertThat(store.lat(idx)).isCloseTo(52.0 - i * 0.001, within(1e-9));
+			}
+
+			// Between, before and after the stored ids
+			assertThat(store.find(2)).isEqualTo(-1);
+			assertThat(store.find(21)).isEqualTo(-1);
+			assertThat(store.find(0)).isEqualTo(-1);
+			assertThat(store.find(1000)).isEqualTo(-1);
+		}
+
+		// Given files are kept
+		assertThat(file).exists();
+	}
+
+	@Test
+	void rounding() throws IOException {
+
+		try (NodeCoordinateStore store = NodeCoordinateStore.createTemp()) {
+			store.add(10, 13.123456789, -52.987654321);
+			store.add(20, -179.99999996, 89.99999994);
+			store.finish();
+
+			// OSM precision of 7 decimal places, rounded to the nearest value
+			assertThat(store.lon(store.find(10))).isCloseTo(13.1234568, within(1e-12));
+			assertThat(store.lat(store.find(10))).isCloseTo(-52.9876543, within(1e-12));
+			assertThat(store.lon(store.find(20))).isCloseTo(-180.0, within(1e-12));
+			assertThat(store.lat(store.find(20))).isCloseTo(89.9999999, within(1e-12));
+		}
+	}
+
+	@Test
+	void unsorted() throws IOException {
+
+		try (NodeCoordinateStore store = new NodeCoordinateStore(dir.resolve("nodes.bin"))) {
+			store.add(5, 0, 0);
+
+			assertThatThrownBy(() -> store.add(3, 0, 0))
+				.isInstanceOf(IllegalStateException.class)
+				.hasMessageContaining("sorted");
+
+			// Duplicates are also rejected
+			assertThatThrownBy(() -> store.add(5, 0, 0))
+				.isInstanceOf(IllegalStateException.class);
+		}
+	}
+}
@@ -0,0 +1,106 @@
+package org.matsim.prepare.ml;
+
+import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
+import it.unimi.dsi.fastutil.objects.Object2DoubleOpenHashMap;
+import org.junit.jupiter.api.Test;
+import org.matsim.prepare.facilities.FacilityAttractionModelOther;
+import org.matsim.prepare.facilities.FacilityAttractionModelWork;
+import org.matsim.prepare.network.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.ToDoubleBiFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class TreeEnsembleTest {
+
+	private static void assertSameAsGenerated(TreeEnsemble ensemble, double[] params, ToDoubleBiFunction<double[], double[]> generated) {
+
+		SplittableRandom rnd = new SplittableRandom(0);
+
+		int n = 1000;
+		int f = ensemble.getNumberOfFeatures();
+		double[] matrix = new double[n * f];
+		double[][] rows = new double[n][f];
+
+		for (int i = 0; i < n; i++) {
+			for (int j = 0; j < f; j++) {
+				// mix of flags, small counts and large values like areas and distances
+				double v = switch (rnd.nextInt(3)) {
+					case 0 -> rnd.nextInt(2);
+					case 1 -> rnd.nextInt(10);
+					default -> rnd.nextDouble(0, 20000);
+				};
+				rows[i][j] = v;
+				matrix[j * n + i] = v;
+			}
+		}
+
+		double[] batch = new double[n];
+		ensemble.predict(matrix, n, params, batch);
+
+		for (int i = 0; i < n; i++) {
+			double expected = generated.applyAsDouble(rows[i], params);
+			assertThat(ensemble.predict(rows[i], params)).isEqualTo(expected);
+			assertThat(batch[i]).isEqualTo(expected);
+		}
+	}
+
+	@Test
+	public void facilityModels() {
+
+		assertSameAsGenerated(TreeEnsemble.load(FacilityAttractionModelWork.class),
+			FacilityAttractionModelWork.DEFAULT_PARAMS, FacilityAttractionModelWork::score);
+
+		assertSameAsGenerated(TreeEnsemble.load(FacilityAttractionModelOther.class),
+			FacilityAttractionModelOther.DEFAULT_PARAMS, FacilityAttractionModelOther::score);
+	}
+
+	@Test
+	public void networkModels() {
+
+		assertSameAsGenerated(TreeEnsemble.load(BerlinNetworkParams_capacity_priority.class),
+			BerlinNetworkParams_capacity_priority.DEFAULT_PARAMS, BerlinNetworkParams_capacity_priority::score);
+		assertSameAsGenerated(TreeEnsemble.load(BerlinNetworkParams_capacity_right_before_left.class),
+			BerlinNetworkParams_capacity_right_before_left.DEFAULT_PARAMS, BerlinNetworkParams_capacity_right_before_left::score);
+		assertSameAsGenerated(TreeEnsemble.load(BerlinNetworkParams_capacity_traffic_light.class),
+			BerlinNetworkParams_capacity_traffic_light.DEFAULT_PARAMS, BerlinNetworkParams_capacity_traffic_light::score);
+		assertSameAsGenerated(TreeEnsemble.load(BerlinNetworkParams_speedRelative_priority.class),
+			BerlinNetworkParams_speedRelative_priority.DEFAULT_PARAMS, BerlinNetworkParams_speedRelative_priority::score);
+		assertSameAsGenerated(TreeEnsemble.load(BerlinNetworkParams_speedRelative_right_before_left.class),
+			BerlinNetworkParams_speedRelative_right_before_left.DEFAULT_PARAMS, BerlinNetworkParams_speedRelative_right_before_left::score);
+		assertSameAsGenerated(TreeEnsemble.load(BerlinNetworkParams_speedRelative_traffic_light.class),
+			BerlinNetworkParams_speedRelative_traffic_light.DEFAULT_PARAMS, BerlinNetworkParams_speedRelative_traffic_light::score);
+	}
+
+	@Test
+	public void trafficLightBatch() {
+
+		BatchRegressor batch = new BerlinNetworkParams().batchCapacity("traffic_light");
+		List<String> names = batch.getFeatureNames();
+
+		SplittableRandom rnd = new SplittableRandom(0);
+
+		int n = 200;
+		double[] matrix = new double[n * names.size()];
+		List<Object2DoubleMap<String>> rows = new ArrayList<>();
+
+		for (int i = 0; i < n; i++) {
+			Object2DoubleMap<String> ft = new Object2DoubleOpenHashMap<>();
+			for (int j = 0; j < names.size(); j++) {
+				double v = rnd.nextInt(4);
+				ft.put(names.get(j), v);
+				matrix[j * n + i] = v;
+			}
+			rows.add(ft);
+		}
+
+		double[] result = batch.predict(matrix, n);
+
+		for (int i = 0; i < n; i++) {
+			assertThat(result[i]).isEqualTo(BerlinNetworkParams_capacity_traffic_light.INSTANCE.predict(rows.get(i), null));
+		}
+	}
+}
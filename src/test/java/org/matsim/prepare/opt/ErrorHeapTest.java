@@ -0,0 +1,41 @@
+package org.matsim.prepare.opt;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class ErrorHeapTest {
+
+	@Test
+	public void topAfterUpdates() {
+
+		SplittableRandom rnd = new SplittableRandom(0);
+		double[] errors = new double[200];
+		for (int i = 0; i < errors.length; i++) {
+			errors[i] = rnd.nextDouble();
+		}
+
+		ErrorHeap heap = new ErrorHeap(errors.length);
+		heap.rebuild(i -> errors[i]);
+
+		for (int i = 0; i < 500; i++) {
+			int idx = rnd.nextInt(errors.length);
+			errors[idx] = rnd.nextDouble() * 2;
+			heap.markDirty(idx);
+		}
+
+		heap.refresh(i -> errors[i]);
+
+		int[] top = heap.top(10);
+		double[] sorted = errors.clone();
+		Arrays.sort(sorted);
+
+		for (int i = 0; i < top.length; i++) {
+			assertThat(errors[top[i]]).isEqualTo(sorted[sorted.length - 1 - i]);
+		}
+	}
+
+}
@@ -0,0 +1,151 @@
+package org.matsim.prepare.opt;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class PlanAssignmentProblemFileTest {
+
+	@TempDir
+	Path dir;
+
+	private Path path;
+	private PlanAssignmentProblem problem;
+
+	@BeforeEach
+	public void setUp() throws IOException {
+
+		PlanContributions c = new PlanContributions();
+		List<PlanPerson> persons = new ArrayList<>();
+
+		// Three plans per person, the second person had an empty plan inserted at the front
+		int[] offsets = {0, 1, 0};
+		for (int i = 0; i < 3; i++) {
+			int row = c.add(new Int2IntOpenHashMap(new int[]{i, 3}, new int[]{1, i + 1}));
+			c.add(new Int2IntOpenHashMap(new int[]{i + 1}, new int[]{2 * i + 1}));
+			c.add(new Int2IntOpenHashMap());
+
+			persons.add(new PlanPerson(Id.createPersonId("p" + i), offsets[i], c, row, 3));
+		}
+		c.trim();
+
+		problem = new PlanAssignmentProblem(3, ErrorMetric.abs_error, persons, new int[]{5, 3, 8, 1});
+		path = dir.resolve("problem.bin");
+
+		PlanAssignmentProblemFile.write(path, problem, 3, Map.of("input", "plans.xml.gz (100 bytes, 0)"));
+	}
+
+	@Test
+	public void roundTrip() throws IOException {
+
+		assertThat(PlanAssignmentProblemFile.readOptions(path))
+			.containsEntry("input", "plans.xml.gz (100 bytes, 0)")
+			.hasSize(1);
+
+		PlanAssignmentProblem read = PlanAssignmentProblemFile.read(path, 3, ErrorMetric.abs_error, false);
+
+		assertThat(read.counts).containsExactly(problem.counts);
+		assertThat(read.getPersons()).hasSameSizeAs(problem.getPersons());
+
+		for (int i = 0; i < problem.getSize(); i++) {
+			PlanPerson expected = problem.getPersons().get(i);
+			PlanPerson actual = read.getPersons().get(i);
+
+			// Same person order and offsets
+			assertThat(actual.getId()).isEqualTo(expected.getId());
+			assertThat(actual.getOffset()).isEqualTo(expected.getOffset());
+			assertThat(actual.getK()).isEqualTo(0);
+
+			for (int k = 0; k < 3; k++) {
+				assertRow(actual.getContributions(), actual.get(k), expected.getContributions(), expected.get(k));
+			}
+		}
+
+		// Not solved yet
+		assertThat(PlanAssignmentProblemFile.readSelection(path)).isEmpty();
+	}
+
+	@Test
+	public void selection() throws IOException {
+
+		Map<Id<Person>, Integer> ks = new HashMap<>(Map.of(Id.createPersonId("p0"), 2, Id.createPersonId("p1"), 1, Id.createPersonId("p2"), 0));
+		for (PlanPerson person : problem) {
+			person.setK(ks.get(person.getId()));
+		}
+
+		PlanAssignmentProblemFile.writeSelection(path, problem);
+
+		// Relative to the input plans, without inserted empty plan
+		Object2IntMap<Id<Person>> selection = PlanAssignmentProblemFile.readSelection(path);
+		assertThat(selection)
+			.containsEntry(Id.createPersonId("p0"), 2)
+			.containsEntry(Id.createPersonId("p1"), 0)
+			.containsEntry(Id.createPersonId("p2"), 0)
+			.hasSize(3);
+
+		PlanAssignmentProblem warm = PlanAssignmentProblemFile.read(path, 3, ErrorMetric.abs_error, true);
+		for (PlanPerson person : warm) {
+			assertThat(person.getK()).isEqualTo(ks.get(person.getId()));
+		}
+
+		PlanAssignmentProblem cold = PlanAssignmentProblemFile.read(path, 3, ErrorMetric.abs_error, false);
+		for (PlanPerson person : cold) {
+			assertThat(person.getK()).isEqualTo(0);
+		}
+
+		// Selections that are not available with fewer plans start with the first plan
+		PlanAssignmentProblem smaller = PlanAssignmentProblemFile.read(path, 2, ErrorMetric.abs_error, true);
+		for (PlanPerson person : smaller) {
+			int k = ks.get(person.getId());
+			assertThat(person.getK()).isEqualTo(k < 2 ? k : 0);
+		}
+
+		assertThatThrownBy(() -> PlanAssignmentProblemFile.read(path, 4, ErrorMetric.abs_error, false))
+			.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	public void rejectVersionAndMagic() throws IOException {
+
+		overwriteInt(Integer.BYTES, 1);
+		assertThatThrownBy(() -> PlanAssignmentProblemFile.read(path, 3, ErrorMetric.abs_error, false))
+			.isInstanceOf(IOException.class)
+			.hasMessageContaining("version");
+
+		overwriteInt(0, 0);
+		assertThatThrownBy(() -> PlanAssignmentProblemFile.readOptions(path))
+			.isInstanceOf(IOException.class)
+			.hasMessageContaining("not a compiled");
+	}
+
+	private void overwriteInt(long position, int value) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+			channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, value), position);
+		}
+	}
+
+	private static void assertRow(PlanContributions actual, int actualRow, PlanContributions expected, int expectedRow) {
+		assertThat(actual.end(actualRow) - actual.start(actualRow)).isEqualTo(expected.end(expectedRow) - expected.start(expectedRow));
+		for (int j = 0; j < actual.end(actualRow) - actual.start(actualRow); j++) {
+			assertThat(actual.index(actual.start(actualRow) + j)).isEqualTo(expected.index(expected.start(expectedRow) + j));
+			assertThat(actual.value(actual.start(actualRow) + j)).isEqualTo(expected.value(expected.start(expectedRow) + j));
+		}
+	}
+}
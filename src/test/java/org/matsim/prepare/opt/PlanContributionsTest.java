@@ -0,0 +1,44 @@
+package org.matsim.prepare.opt;
+
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class PlanContributionsTest {
+
+	@Test
+	public void diff() {
+
+		PlanContributions c = new PlanContributions();
+
+		int a = c.add(new Int2IntOpenHashMap(new int[]{1, 5, 7}, new int[]{4, 4, 4}));
+		int b = c.add(new Int2IntOpenHashMap(new int[]{2, 5, 7}, new int[]{4, 4, 8}));
+		int e = c.add(new Int2IntOpenHashMap());
+		c.trim();
+
+		Int2IntMap diff = new Int2IntOpenHashMap();
+		c.diff(a, b, diff::put);
+
+		// index 5 is shared with equal value and must not be visited
+		assertThat(diff)
+				.containsEntry(1, -4)
+				.containsEntry(2, 4)
+				.containsEntry(7, 4)
+				.hasSize(3);
+
+		diff.clear();
+		c.diff(a, e, diff::put);
+
+		assertThat(diff)
+				.containsEntry(1, -4)
+				.containsEntry(5, -4)
+				.containsEntry(7, -4)
+				.hasSize(3);
+
+		assertThat(c.isEqual(a, a)).isTrue();
+		assertThat(c.isEqual(a, b)).isFalse();
+	}
+
+}
@@ -3,7 +3,10 @@ package org.matsim.prepare.opt;
 
 import org.junit.jupiter.api.Test;
 
+import java.util.SplittableRandom;
+
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
 
 
 public class ScoreCalculatorTest {
@@ -38,10 +41,10 @@ public class ScoreCalculatorTest {
 		ErrorMetric e = ErrorMetric.log_error;
 
 		assertThat(ScoreCalculator.diffChange(e, 5, 3, 5))
-				.isEqualTo(-0.10536051565782628);
+				.isEqualTo(-0.10536051565782634);
 
 		assertThat(ScoreCalculator.diffChange(e, 5, 5, 3))
-				.isEqualTo(0.10536051565782628);
+				.isEqualTo(0.10536051565782634);
 
 		// Does not hold anymore, because of the constant
 //		assertThat(ScoreCalculator.diffChange(e, 10, 5, 20))
@@ -49,4 +52,35 @@ public class ScoreCalculatorTest {
 
 	}
 
+	@Test
+	public void logReference() {
+
+		ErrorKernel kernel = ErrorKernel.of(ErrorMetric.log_error);
+		double c = ErrorKernel.C;
+
+		// Reference formula using the log of the ratio
+		assertThat(ScoreCalculator.diffChange(ErrorMetric.log_error, 5, 3, 5))
+				.isCloseTo(-Math.log((5 + c) / (3 + c)), within(1e-15));
+
+		SplittableRandom rnd = new SplittableRandom(0);
+		for (int i = 0; i < 10_000; i++) {
+
+			// Values inside and outside the lookup table
+			int count = rnd.nextInt(0, 40_000);
+			int old = rnd.nextInt(0, 40_000);
+			int update = rnd.nextInt(0, 40_000);
+
+			assertThat(kernel.error(count, old))
+					.isCloseTo(Math.abs(Math.log((old + c) / (count + c))), within(1e-12));
+
+			assertThat(kernel.diff(count, old, update))
+					.isCloseTo(Math.abs(Math.log((update + c) / (count + c))) - Math.abs(Math.log((old + c) / (count + c))), within(1e-12));
+		}
+
+		// Same function at the border of the table
+		for (int x = (1 << 14) - 2; x < (1 << 14) + 2; x++) {
+			assertThat(kernel.error(0, x)).isEqualTo(Math.abs(StrictMath.log(x + c) - StrictMath.log(c)));
+		}
+	}
+
 }
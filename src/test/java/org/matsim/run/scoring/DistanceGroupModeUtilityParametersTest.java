@@ -5,6 +5,7 @@ import org.junit.jupiter.api.Test;
 import org.matsim.core.scoring.functions.ModeUtilityParameters;
 
 import java.util.List;
+import java.util.SplittableRandom;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -85,4 +86,33 @@ class DistanceGroupModeUtilityParametersTest {
 		assertThat(m.calcUtilityDistDelta(2000)).isEqualTo(-2);
 
 	}
+
+	@Test
+	void sameAsLinearSearch() {
+
+		List<Integer> dists = List.of(1000, 2000, 5000, 10000, 25000);
+		DistanceGroup[] groups = IndividualPersonScoringParameters.calcDistanceGroups(dists, DoubleList.of(-1d, -0.5d, 0.3d, -0.1d, -2d));
+
+		DistanceGroupModeUtilityParameters m = new DistanceGroupModeUtilityParameters(
+			base, new DistanceGroupModeUtilityParameters.DeltaBuilder(), groups);
+
+		SplittableRandom rnd = new SplittableRandom(0);
+		for (int i = 0; i < 10_000; i++) {
+
+			double dist = rnd.nextDouble(0, 50_000);
+			if (i < dists.size())
+				dist = dists.get(i);
+
+			DistanceGroup group = groups[0];
+			for (int j = 1; j < groups.length; j++) {
+				if (groups[j].dist() > dist)
+					break;
+
+				group = groups[j];
+			}
+
+			assertThat(m.calcUtilityDistDelta(dist))
+				.isEqualTo(group.constant() + group.utilPerM() * (dist - group.dist()));
+		}
+	}
 }
@@ -0,0 +1,95 @@
+package org.matsim.run.scoring;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.scoring.functions.ModeUtilityParameters;
+import org.matsim.core.scoring.functions.ScoringParameters;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class IndividualPersonScoringParametersTest {
+
+	private Scenario scenario;
+	private Person person;
+
+	@BeforeEach
+	void setUp() {
+
+		Config config = ConfigUtils.createConfig();
+		config.scoring().getOrCreateModeParams(TransportMode.car).setConstant(-1);
+		config.scoring().getOrCreateModeParams(TransportMode.car).setDailyUtilityConstant(-3);
+
+		AdvancedScoringConfigGroup advanced = ConfigUtils.addOrGetModule(config, AdvancedScoringConfigGroup.class);
+		advanced.incomeDependent = AdvancedScoringConfigGroup.IncomeDependentScoring.none;
+		advanced.distGroups = List.of(1000, 5000);
+
+		AdvancedScoringConfigGroup.ScoringParameters set = new AdvancedScoringConfigGroup.ScoringParameters();
+		AdvancedScoringConfigGroup.ModeParams car = set.getOrCreateModeParams(TransportMode.car);
+		car.deltaConstant = 0.5;
+		car.deltaDailyConstant = -2;
+		car.deltaPerDistGroup = List.of(-1.0, -2.0);
+
+		set.getOrCreateModeParams(TransportMode.walk).deltaConstant = 1;
+		advanced.addParameterSet(set);
+
+		scenario = ScenarioUtils.createScenario(config);
+		person = PopulationUtils.getFactory().createPerson(Id.createPersonId("p1"));
+		scenario.getPopulation().addPerson(person);
+	}
+
+	@Test
+	void personParameters() {
+
+		IndividualPersonScoringParameters params = new IndividualPersonScoringParameters(scenario);
+		ScoringParameters p = params.getScoringParameters(person);
+
+		ModeUtilityParameters car = p.modeParams.get(TransportMode.car);
+		assertThat(car.constant).isEqualTo(-0.5);
+		assertThat(car.dailyUtilityConstant).isEqualTo(-5);
+
+		// Linear interpolation of the configured deltas between distance groups
+		DistanceGroupModeUtilityParameters dist = (DistanceGroupModeUtilityParameters) car;
+		assertThat(dist.calcUtilityDistDelta(500)).isEqualTo(-0.5);
+		assertThat(dist.calcUtilityDistDelta(1000)).isEqualTo(-1);
+		assertThat(dist.calcUtilityDistDelta(3000)).isEqualTo(-1.5);
+		assertThat(dist.calcUtilityDistDelta(5000)).isEqualTo(-2);
+
+		assertThat(p.modeParams.get(TransportMode.walk).constant)
+			.isEqualTo(scenario.getConfig().scoring().getModes().get(TransportMode.walk).getConstant() + 1);
+
+		// Built parameters are cached per person
+		assertThat(params.getScoringParameters(person)).isSameAs(p);
+	}
+
+	@Test
+	void viewMatchesBuiltParameters() {
+
+		IndividualPersonScoringParameters params = new IndividualPersonScoringParameters(scenario);
+		IndividualPersonScoringParameters.PersonParameters view = params.getPersonParameters(person);
+		ScoringParameters p = params.getScoringParameters(person);
+		ModeRegistry modes = params.getModeRegistry();
+
+		for (String mode : List.of(TransportMode.car, TransportMode.walk)) {
+			ModeUtilityParameters v = view.modeParams()[modes.getIndex(mode)];
+			assertThat(v.constant).isEqualTo(p.modeParams.get(mode).constant);
+			assertThat(v.dailyUtilityConstant).isEqualTo(p.modeParams.get(mode).dailyUtilityConstant);
+		}
+
+		assertThat(view.marginalUtilityOfMoney()).isEqualTo(p.marginalUtilityOfMoney);
+
+		// Person specific walk parameters are not used for the walk variants
+		ModeUtilityParameters baseWalk = view.base().modeParams.get(TransportMode.walk);
+		assertThat(view.modeParams()[modes.getIndex(TransportMode.transit_walk)]).isSameAs(baseWalk);
+		assertThat(view.modeParams()[modes.getIndex(TransportMode.non_network_walk)]).isSameAs(baseWalk);
+	}
+}
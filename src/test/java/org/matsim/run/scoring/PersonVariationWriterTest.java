@@ -0,0 +1,60 @@
+package org.matsim.run.scoring;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.matsim.api.core.v01.Id;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class PersonVariationWriterTest {
+
+	@TempDir
+	Path dir;
+
+	@Test
+	void roundTrip() throws IOException {
+
+		List<String> columns = List.of("car_constant", "car_dailyConstant", "pt_constant", "pt_dailyConstant");
+		int n = PersonVariationWriter.BLOCK_SIZE * 2 + 17;
+
+		double[][] rows = new double[n][];
+		SplittableRandom rnd = new SplittableRandom(0);
+
+		PersonVariationWriter writer = new PersonVariationWriter(dir.resolve("variations.bin.gz"), columns);
+		for (int r = 0; r < n; r++) {
+			// pt_dailyConstant is never present
+			rows[r] = new double[]{rnd.nextDouble(), rnd.nextBoolean() ? rnd.nextDouble() : Double.NaN, rnd.nextDouble(), Double.NaN};
+			writer.write(Id.createPersonId(r), rows[r]);
+		}
+
+		writer.close();
+		writer.writeCsv(dir.resolve("variations.csv").toString());
+
+		try (CSVParser parser = CSVFormat.DEFAULT.builder().setHeader().setSkipHeaderRecord(true).build()
+			.parse(Files.newBufferedReader(dir.resolve("variations.csv")))) {
+
+			assertThat(parser.getHeaderNames())
+				.containsExactly("person", "car_constant", "car_dailyConstant", "pt_constant");
+
+			List<CSVRecord> records = parser.getRecords();
+			assertThat(records).hasSize(n);
+
+			for (int r = 0; r < n; r++) {
+				CSVRecord record = records.get(r);
+				assertThat(record.get("person")).isEqualTo(String.valueOf(r));
+				assertThat(Double.parseDouble(record.get("car_constant"))).isEqualTo(rows[r][0]);
+				assertThat(Double.parseDouble(record.get("car_dailyConstant"))).isEqualTo(Double.isNaN(rows[r][1]) ? 0 : rows[r][1]);
+				assertThat(Double.parseDouble(record.get("pt_constant"))).isEqualTo(rows[r][2]);
+			}
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package org.matsim.run.scoring;
+
+import org.junit.jupiter.api.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.router.TripStructureUtils;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class PseudoRandomScorerTest {
+
+	@Test
+	void uniform() {
+
+		int n = 1_000_000;
+		double sum = 0;
+		for (int i = 0; i < n; i++) {
+			double u = PseudoRandomScorer.uniform(PseudoRandomScorer.mix64(i), 1);
+			assertThat(u).isGreaterThan(0).isLessThan(1);
+			sum += u;
+		}
+
+		assertThat(sum / n).isCloseTo(0.5, within(0.001));
+	}
+
+	@Test
+	void standardNormal() {
+
+		int n = 1_000_000;
+		double sum = 0;
+		double sq = 0;
+		for (int i = 0; i < n; i++) {
+			double x = PseudoRandomScorer.sampleStandardNormal(PseudoRandomScorer.mix64(i));
+			sum += x;
+			sq += x * x;
+		}
+
+		double mean = sum / n;
+		assertThat(mean).isCloseTo(0, within(0.005));
+		assertThat(sq / n - mean * mean).isCloseTo(1, within(0.005));
+	}
+
+	@Test
+	void batchEqualsSingle() {
+
+		List<String> modes = List.of(TransportMode.car, TransportMode.pt, TransportMode.walk, TransportMode.bike, "ride");
+
+		Plan plan = PopulationUtils.createPlan();
+		plan.addActivity(PopulationUtils.createActivityFromCoord("home", new Coord(0, 0)));
+		plan.addLeg(PopulationUtils.createLeg(TransportMode.car));
+		plan.addActivity(PopulationUtils.createActivityFromCoord("work", new Coord(1000, 0)));
+		plan.addLeg(PopulationUtils.createLeg(TransportMode.car));
+		plan.addActivity(PopulationUtils.createActivityFromCoord("home", new Coord(0, 0)));
+
+		DefaultPseudoRandomTripError tripError = new DefaultPseudoRandomTripError();
+		long[] seeds = new long[modes.size()];
+		double[] errors = new double[modes.size()];
+
+		for (AdvancedScoringConfigGroup.PseudoRandomGenerator generator : AdvancedScoringConfigGroup.PseudoRandomGenerator.values()) {
+
+			Config config = ConfigUtils.createConfig();
+			AdvancedScoringConfigGroup scoring = ConfigUtils.addOrGetModule(config, AdvancedScoringConfigGroup.class);
+			scoring.pseudoRamdomScale = 1;
+			scoring.pseudoRandomGenerator = generator;
+
+			PseudoRandomScorer scorer = new PseudoRandomScorer(tripError, config);
+
+			for (String id : List.of("1", "person", "10001")) {
+				Id<Person> personId = Id.createPersonId(id);
+
+				for (TripStructureUtils.Trip trip : TripStructureUtils.getTrips(plan)) {
+
+					tripError.getSeeds(personId, modes, trip, seeds);
+					scorer.scoreTrip(personId, modes, trip, errors);
+
+					for (int i = 0; i < modes.size(); i++) {
+						assertThat(seeds[i]).isEqualTo(tripError.getSeed(personId, modes.get(i), trip));
+						assertThat(errors[i]).isEqualTo(scorer.scoreTrip(personId, modes.get(i), trip));
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,135 @@
+package org.matsim.run.scoring;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVParser;
+import org.apache.commons.csv.CSVRecord;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.population.*;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.population.routes.RouteUtils;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class RescoreExperiencedPlansTest {
+
+	@TempDir
+	Path dir;
+
+	private static Plan createPlan(PopulationFactory f, String mode, double dist) {
+
+		Plan plan = f.createPlan();
+		Activity home = f.createActivityFromCoord("home", new Coord(0, 0));
+		home.setEndTime(8 * 3600);
+		plan.addActivity(home);
+
+		Leg leg = f.createLeg(mode);
+		Route route = RouteUtils.createGenericRouteImpl(Id.createLinkId("1"), Id.createLinkId("2"));
+		route.setDistance(dist);
+		leg.setRoute(route);
+		leg.setTravelTime(900);
+		plan.addLeg(leg);
+
+		plan.addActivity(f.createActivityFromCoord("work", new Coord(dist, 0)));
+		plan.setScore(0.0);
+		return plan;
+	}
+
+	private Path writeConfig(String name, double carConstant) {
+
+		Config config = ConfigUtils.createConfig();
+		AdvancedScoringConfigGroup advanced = ConfigUtils.addOrGetModule(config, AdvancedScoringConfigGroup.class);
+		advanced.incomeDependent = AdvancedScoringConfigGroup.IncomeDependentScoring.none;
+
+		if (carConstant != 0) {
+			AdvancedScoringConfigGroup.ScoringParameters set = new AdvancedScoringConfigGroup.ScoringParameters();
+			set.getOrCreateModeParams(TransportMode.car).deltaConstant = carConstant;
+			advanced.addParameterSet(set);
+		}
+
+		Path path = dir.resolve(name);
+		ConfigUtils.writeConfig(config, path.toString());
+		return path;
+	}
+
+	@Test
+	void modeShareDelta() throws IOException {
+
+		Population population = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+		PopulationFactory f = population.getFactory();
+
+		for (int i = 0; i < 2; i++) {
+			Person person = f.createPerson(Id.createPersonId(i));
+			person.addPlan(createPlan(f, TransportMode.car, 5000));
+			person.addPlan(createPlan(f, TransportMode.walk, 5000));
+			person.setSelectedPlan(person.getPlans().get(0));
+			population.addPerson(person);
+		}
+
+		Path plans = dir.resolve("plans.xml");
+		PopulationUtils.writePopulation(population, plans.toString());
+
+		Path ref = writeConfig("ref.xml", 0);
+		Path candidate = writeConfig("candidate.xml", -1);
+		Path output = dir.resolve("output.csv");
+
+		int result = new RescoreExperiencedPlans().execute("--input", plans.toString(),
+			"--config", ref + "," + candidate, "--output", output.toString());
+
+		assertThat(result).isEqualTo(0);
+
+		try (CSVParser parser = CSVFormat.DEFAULT.builder().setHeader().setSkipHeaderRecord(true).build()
+			.parse(Files.newBufferedReader(output))) {
+
+			List<CSVRecord> records = parser.getRecords();
+			assertThat(records).hasSize(2);
+
+			assertThat(Double.parseDouble(records.get(0).get("share_delta_car"))).isEqualTo(0);
+
+			// Lower car constant shifts the choice between the plans towards walk
+			double car = Double.parseDouble(records.get(1).get("share_delta_car"));
+			double walk = Double.parseDouble(records.get(1).get("share_delta_walk"));
+
+			assertThat(car).isLessThan(0);
+			assertThat(walk).isEqualTo(-car, within(1e-9));
+		}
+	}
+
+	@Test
+	void rejectActivityChanges() {
+
+		Population population = PopulationUtils.createPopulation(ConfigUtils.createConfig());
+		PopulationFactory f = population.getFactory();
+
+		Person person = f.createPerson(Id.createPersonId("p"));
+		person.addPlan(createPlan(f, TransportMode.car, 5000));
+		person.addPlan(createPlan(f, TransportMode.walk, 5000));
+		population.addPerson(person);
+
+		Path plans = dir.resolve("plans.xml");
+		PopulationUtils.writePopulation(population, plans.toString());
+
+		Path ref = writeConfig("ref.xml", 0);
+
+		Config config = ConfigUtils.loadConfig(ref.toString(), new AdvancedScoringConfigGroup());
+		config.scoring().setPerforming_utils_hr(1);
+		Path candidate = dir.resolve("candidate.xml");
+		ConfigUtils.writeConfig(config, candidate.toString());
+
+		int result = new RescoreExperiencedPlans().execute("--input", plans.toString(),
+			"--config", ref + "," + candidate, "--output", dir.resolve("output.csv").toString());
+
+		assertThat(result).isEqualTo(2);
+	}
+}